@@ -0,0 +1,88 @@
+package com.zuildorf.benchmark;
+
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.zuildorf.config.AwsClientFactory;
+import com.zuildorf.service.aws.api.SNSService;
+import com.zuildorf.service.aws.api.SQSService;
+import com.zuildorf.service.aws.api.SQSVisibilityHeartbeat;
+import com.zuildorf.service.codec.MessageCodec;
+import com.zuildorf.service.jms.api.SQSListenerService;
+import com.zuildorf.service.logging.HotPathLogger;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import com.zuildorf.service.pipeline.JsonDeserializeStage;
+import com.zuildorf.service.pipeline.LoggingMessageStage;
+import com.zuildorf.service.pipeline.MessagePipeline;
+import com.zuildorf.service.ratelimit.AwsRateLimiter;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Wires the services the way Spring does, using the defaults from application.properties, but against the in-memory
+ * {@link FakeAmazonSQS} and {@link FakeAmazonSNS} so benchmarks need no network or credentials.
+ */
+class BenchmarkEnvironment {
+    static final String QUEUE = "benchmark-queue";
+    static final String TOPIC = "benchmark-topic";
+
+    final FakeAmazonSQS sqs = new FakeAmazonSQS();
+    final FakeAmazonSNS sns = new FakeAmazonSNS();
+    final MetricsRegistry metrics = new MetricsRegistry();
+    final MessageCodec codec;
+    final HotPathLogger hotPathLog;
+    final SNSService snsService;
+    final SQSService sqsService;
+    final SQSVisibilityHeartbeat visibilityHeartbeat;
+    final MessagePipeline pipeline;
+    final SQSListenerService listener;
+
+    BenchmarkEnvironment(long producerLingerMillis) {
+        // per-message info logging would dominate every measurement
+        Logger.getRootLogger().setLevel(Level.WARN);
+        AwsClientFactory clientFactory = new FakeClientFactory(sqs, sns, metrics);
+        codec = new MessageCodec("lz4", 1024, 200000, Optional.empty(), metrics);
+        hotPathLog = new HotPathLogger("async", 0.01, 0, 8192, metrics);
+        snsService = new SNSService(clientFactory, TOPIC, 16, 10000, 1000, 5000, 300000, codec, hotPathLog, metrics);
+        sqsService = new SQSService(clientFactory, QUEUE, producerLingerMillis, 3, 8, 50, 3, 4, 5000, 1000, 300000,
+                snsService, codec, metrics);
+        snsService.createTopic(TOPIC);
+        sqsService.createQueue(QUEUE);
+        visibilityHeartbeat = new SQSVisibilityHeartbeat(sqsService, 30, 1000, 43200, metrics);
+        pipeline = new MessagePipeline(Arrays.asList(new JsonDeserializeStage(), new LoggingMessageStage()), 0, 1000, metrics);
+        listener = new SQSListenerService(pipeline, visibilityHeartbeat, codec, hotPathLog, metrics);
+    }
+
+    void close() {
+        pipeline.shutdown();
+        visibilityHeartbeat.shutdown();
+        sqsService.shutdown();
+        snsService.shutdown();
+        hotPathLog.shutdown();
+    }
+
+    private static final class FakeClientFactory extends AwsClientFactory {
+        private final AmazonSQS sqs;
+        private final AmazonSNS sns;
+
+        FakeClientFactory(AmazonSQS sqs, AmazonSNS sns, MetricsRegistry metrics) {
+            // the fakes bypass the SDK request pipeline, so the limiter would never see a call anyway
+            super("", "us-west-2", "", "", "", "", 50, 60000, 30000, false, 5000, 30000, 30000, false, 0, 1, metrics,
+                    new AwsRateLimiter(false, 500, 5, 3000, 25, 0.5, 1, 1000, 5000, 100, 500, 20000));
+            this.sqs = sqs;
+            this.sns = sns;
+        }
+
+        @Override
+        public synchronized AmazonSQS getSqsClient() {
+            return sqs;
+        }
+
+        @Override
+        public synchronized AmazonSNS getSnsClient() {
+            return sns;
+        }
+    }
+}
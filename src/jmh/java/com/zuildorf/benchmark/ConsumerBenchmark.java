@@ -0,0 +1,68 @@
+package com.zuildorf.benchmark;
+
+import com.amazon.sqs.javamessaging.message.SQSTextMessage;
+import com.amazonaws.services.sqs.model.Message;
+import org.openjdk.jmh.annotations.*;
+
+import javax.jms.JMSException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receiving and acknowledging, one message per ReceiveMessage and DeleteMessage call against full receives
+ * acknowledged through DeleteMessageBatch, plus the JMS listener entry point feeding the processing pipeline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsumerBenchmark {
+    private static final int BATCH = 10;
+
+    private BenchmarkEnvironment environment;
+    private String queueUrl;
+
+    @Setup
+    public void setUp() {
+        environment = new BenchmarkEnvironment(20);
+        queueUrl = environment.sqsService.resolveQueueUrl(BenchmarkEnvironment.QUEUE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.close();
+    }
+
+    @Benchmark
+    public int receiveAndDeleteSingle() {
+        List<Message> messages = environment.sqsService.receiveMessages(queueUrl, 1, 0, 30);
+        for (Message message : messages) {
+            environment.sqsService.deleteMessage(queueUrl, message.getReceiptHandle());
+        }
+        return messages.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object receiveAndDeleteBatched() {
+        List<Message> messages = environment.sqsService.receiveMessages(queueUrl, BATCH, 0, 30);
+        CompletableFuture<?>[] deletes = new CompletableFuture<?>[messages.size()];
+        for (int i = 0; i < deletes.length; i++) {
+            deletes[i] = environment.sqsService.deleteMessageAsync(queueUrl, messages.get(i).getReceiptHandle());
+        }
+        return CompletableFuture.allOf(deletes).join();
+    }
+
+    /**
+     * Returns once the message is handed to the pipeline, so at steady state this measures pipeline throughput with
+     * the listener's backpressure applied.
+     */
+    @Benchmark
+    public void listenerOnMessage() throws JMSException {
+        Message message = environment.sqs.newMessage(FakeAmazonSQS.BODY);
+        environment.listener.onMessage(new SQSTextMessage(null, queueUrl, message));
+    }
+}
@@ -0,0 +1,57 @@
+package com.zuildorf.benchmark;
+
+import com.amazonaws.services.sns.AbstractAmazonSNS;
+import com.amazonaws.services.sns.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory stand-in for SNS that accepts every publish and delivers nothing.
+ */
+class FakeAmazonSNS extends AbstractAmazonSNS {
+    private static final String ARN_PREFIX = "arn:aws:sns:us-west-2:000000000000:";
+
+    private final Set<String> topicArns = ConcurrentHashMap.newKeySet();
+    private final AtomicLong ids = new AtomicLong();
+
+    @Override
+    public CreateTopicResult createTopic(CreateTopicRequest request) {
+        topicArns.add(ARN_PREFIX + request.getName());
+        return new CreateTopicResult().withTopicArn(ARN_PREFIX + request.getName());
+    }
+
+    @Override
+    public ListTopicsResult listTopics(ListTopicsRequest request) {
+        List<Topic> topics = new ArrayList<>(topicArns.size());
+        for (String topicArn : topicArns) {
+            topics.add(new Topic().withTopicArn(topicArn));
+        }
+        return new ListTopicsResult().withTopics(topics);
+    }
+
+    @Override
+    public PublishResult publish(PublishRequest request) {
+        if (!topicArns.contains(request.getTopicArn())) {
+            throw new NotFoundException("Topic does not exist: " + request.getTopicArn());
+        }
+        return new PublishResult().withMessageId(String.valueOf(ids.incrementAndGet()));
+    }
+
+    @Override
+    public SubscribeResult subscribe(SubscribeRequest request) {
+        return new SubscribeResult().withSubscriptionArn(request.getTopicArn() + ":" + ids.incrementAndGet());
+    }
+
+    @Override
+    public ListSubscriptionsByTopicResult listSubscriptionsByTopic(ListSubscriptionsByTopicRequest request) {
+        return new ListSubscriptionsByTopicResult().withSubscriptions(new ArrayList<>());
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
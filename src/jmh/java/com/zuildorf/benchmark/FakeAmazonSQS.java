@@ -0,0 +1,147 @@
+package com.zuildorf.benchmark;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory stand-in for SQS. Receives never wait and deletes or visibility changes are accepted without checking the
+ * receipt handle, so benchmarks measure the client side only. Sent messages are discarded and every receive returns a
+ * full batch of generated messages, which keeps memory flat however long a benchmark runs.
+ */
+class FakeAmazonSQS extends AbstractAmazonSQS {
+    static final String BODY = "{\"orderId\":12345,\"customer\":\"benchmark\",\"items\":[{\"sku\":\"A-1\",\"quantity\":2}]}";
+    private static final String URL_PREFIX = "https://sqs.benchmark.local/000000000000/";
+
+    private final Set<String> queueUrls = ConcurrentHashMap.newKeySet();
+    private final AtomicLong ids = new AtomicLong();
+
+    @Override
+    public CreateQueueResult createQueue(CreateQueueRequest request) {
+        queueUrls.add(URL_PREFIX + request.getQueueName());
+        return new CreateQueueResult().withQueueUrl(URL_PREFIX + request.getQueueName());
+    }
+
+    @Override
+    public CreateQueueResult createQueue(String queueName) {
+        return createQueue(new CreateQueueRequest(queueName));
+    }
+
+    @Override
+    public GetQueueUrlResult getQueueUrl(GetQueueUrlRequest request) {
+        String url = URL_PREFIX + request.getQueueName();
+        if (!queueUrls.contains(url)) {
+            throw new QueueDoesNotExistException("Queue does not exist: " + request.getQueueName());
+        }
+        return new GetQueueUrlResult().withQueueUrl(url);
+    }
+
+    @Override
+    public GetQueueUrlResult getQueueUrl(String queueName) {
+        return getQueueUrl(new GetQueueUrlRequest(queueName));
+    }
+
+    @Override
+    public GetQueueAttributesResult getQueueAttributes(GetQueueAttributesRequest request) {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("QueueArn", "arn:aws:sqs:us-west-2:000000000000:" + request.getQueueUrl().substring(URL_PREFIX.length()));
+        attributes.put("ApproximateNumberOfMessages", "0");
+        return new GetQueueAttributesResult().withAttributes(attributes);
+    }
+
+    @Override
+    public SetQueueAttributesResult setQueueAttributes(SetQueueAttributesRequest request) {
+        return new SetQueueAttributesResult();
+    }
+
+    @Override
+    public SetQueueAttributesResult setQueueAttributes(String queueUrl, Map<String, String> attributes) {
+        return setQueueAttributes(new SetQueueAttributesRequest(queueUrl, attributes));
+    }
+
+    @Override
+    public ListQueuesResult listQueues(ListQueuesRequest request) {
+        return new ListQueuesResult().withQueueUrls(new ArrayList<>(queueUrls));
+    }
+
+    @Override
+    public SendMessageResult sendMessage(SendMessageRequest request) {
+        checkQueue(request.getQueueUrl());
+        return new SendMessageResult().withMessageId(nextId());
+    }
+
+    @Override
+    public SendMessageBatchResult sendMessageBatch(SendMessageBatchRequest request) {
+        checkQueue(request.getQueueUrl());
+        List<SendMessageBatchResultEntry> successful = new ArrayList<>(request.getEntries().size());
+        for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+            successful.add(new SendMessageBatchResultEntry()
+                    .withId(entry.getId())
+                    .withMessageId(nextId()));
+        }
+        return new SendMessageBatchResult().withSuccessful(successful);
+    }
+
+    @Override
+    public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+        checkQueue(request.getQueueUrl());
+        int max = request.getMaxNumberOfMessages() == null ? 1 : request.getMaxNumberOfMessages();
+        List<Message> messages = new ArrayList<>(max);
+        for (int i = 0; i < max; i++) {
+            messages.add(newMessage(BODY));
+        }
+        return new ReceiveMessageResult().withMessages(messages);
+    }
+
+    @Override
+    public DeleteMessageResult deleteMessage(DeleteMessageRequest request) {
+        return new DeleteMessageResult();
+    }
+
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+        List<DeleteMessageBatchResultEntry> successful = new ArrayList<>(request.getEntries().size());
+        for (DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+            successful.add(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+        }
+        return new DeleteMessageBatchResult().withSuccessful(successful);
+    }
+
+    @Override
+    public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request) {
+        List<ChangeMessageVisibilityBatchResultEntry> successful = new ArrayList<>(request.getEntries().size());
+        for (ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries()) {
+            successful.add(new ChangeMessageVisibilityBatchResultEntry().withId(entry.getId()));
+        }
+        return new ChangeMessageVisibilityBatchResult().withSuccessful(successful);
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    Message newMessage(String body) {
+        String id = nextId();
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("SentTimestamp", String.valueOf(System.currentTimeMillis()));
+        attributes.put("ApproximateReceiveCount", "1");
+        return new Message()
+                .withMessageId(id)
+                .withReceiptHandle("receipt-" + id)
+                .withBody(body)
+                .withAttributes(attributes);
+    }
+
+    private String nextId() {
+        return String.valueOf(ids.incrementAndGet());
+    }
+
+    private void checkQueue(String queueUrl) {
+        if (!queueUrls.contains(queueUrl)) {
+            throw new QueueDoesNotExistException("Queue does not exist: " + queueUrl);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.zuildorf.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending to SQS and publishing to SNS, one blocking call per message against ten messages handed over asynchronously
+ * and awaited together. Run with {@code -prof gc} to compare allocation per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProducerBenchmark {
+    private static final int BATCH = 10;
+
+    @Param({"0", "20"})
+    public long lingerMillis;
+
+    private BenchmarkEnvironment environment;
+
+    @Setup
+    public void setUp() {
+        environment = new BenchmarkEnvironment(lingerMillis);
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.close();
+    }
+
+    @Benchmark
+    public String sqsSendSingle() {
+        return environment.sqsService.sendMessage(BenchmarkEnvironment.QUEUE, FakeAmazonSQS.BODY);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object sqsSendBatched() {
+        CompletableFuture<?>[] sends = new CompletableFuture<?>[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            sends[i] = environment.sqsService.sendMessageAsync(BenchmarkEnvironment.QUEUE, FakeAmazonSQS.BODY);
+        }
+        return CompletableFuture.allOf(sends).join();
+    }
+
+    @Benchmark
+    public String snsPublishSingle() {
+        return environment.snsService.publishMessageToTopic(BenchmarkEnvironment.TOPIC, "benchmark", FakeAmazonSQS.BODY);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object snsPublishBatched() {
+        CompletableFuture<?>[] publishes = new CompletableFuture<?>[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            publishes[i] = environment.snsService.publishAsync(BenchmarkEnvironment.TOPIC, "benchmark", FakeAmazonSQS.BODY);
+        }
+        return CompletableFuture.allOf(publishes).join();
+    }
+}
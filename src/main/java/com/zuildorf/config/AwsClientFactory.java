@@ -0,0 +1,192 @@
+package com.zuildorf.config;
+
+import com.amazon.sqs.javamessaging.SQSConnectionFactory;
+import com.amazonaws.AmazonWebServiceClient;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.*;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.AmazonSNSAsync;
+import com.amazonaws.services.sns.AmazonSNSAsyncClient;
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.AmazonSQSAsyncClient;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.zuildorf.service.metrics.AwsRequestMetricsHandler;
+import com.zuildorf.service.metrics.CountingRetryCondition;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import com.zuildorf.service.ratelimit.AwsRateLimiter;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Builds every AWS client used by the application from one set of credentials and one tuned
+ * {@link ClientConfiguration}. Clients are created on first use and shared, so all callers draw from the same
+ * connection pools. Every client records its calls in the {@link MetricsRegistry} and is paced by the
+ * {@link AwsRateLimiter}, which also supplies the retry backoff.
+ */
+@Component
+public class AwsClientFactory {
+    private Logger log = Logger.getLogger(AwsClientFactory.class);
+    private final AWSCredentialsProvider credentialsProvider;
+    private final Region region;
+    private final String sqsEndpoint;
+    private final String snsEndpoint;
+    private final ClientConfiguration clientConfiguration;
+    private final int asyncThreads;
+    private final AwsRequestMetricsHandler requestMetricsHandler;
+    private final RequestHandler2 rateLimitHandler;
+    private ExecutorService asyncExecutor;
+    private AmazonSQS sqsClient;
+    private AmazonSNS snsClient;
+    private AmazonSQSAsync sqsAsyncClient;
+    private AmazonSNSAsync snsAsyncClient;
+
+    @Autowired
+    public AwsClientFactory(@Value("${aws.api.credentials.file.path}") String apiProperties,
+                            @Value("${aws.region}") String region,
+                            @Value("${aws.accessKey}") String accessKey,
+                            @Value("${aws.secretKey}") String secretKey,
+                            @Value("${sqs.endpoint}") String sqsEndpoint,
+                            @Value("${sns.endpoint}") String snsEndpoint,
+                            @Value("${aws.client.max.connections}") int maxConnections,
+                            @Value("${aws.client.connection.ttl.ms}") long connectionTtlMillis,
+                            @Value("${aws.client.connection.max.idle.ms}") long connectionMaxIdleMillis,
+                            @Value("${aws.client.tcp.keep.alive}") boolean tcpKeepAlive,
+                            @Value("${aws.client.connection.timeout.ms}") int connectionTimeoutMillis,
+                            @Value("${aws.client.socket.timeout.ms}") int socketTimeoutMillis,
+                            @Value("${aws.client.request.timeout.ms}") int requestTimeoutMillis,
+                            @Value("${aws.client.use.gzip}") boolean useGzip,
+                            @Value("${aws.client.max.error.retry}") int maxErrorRetry,
+                            @Value("${aws.client.async.threads}") int asyncThreads,
+                            MetricsRegistry metrics,
+                            AwsRateLimiter rateLimiter) {
+        if (StringUtils.isNotBlank(apiProperties)) {
+            credentialsProvider = new PropertiesFileCredentialsProvider(apiProperties);
+        } else if (StringUtils.isNotBlank(accessKey) && StringUtils.isNotBlank(secretKey)) {
+            credentialsProvider = new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKey, secretKey));
+        } else {
+            log.info("Unable to get aws credential properties, creating \"anonymous\" credentials. Request will not be signed.");
+            credentialsProvider = new AWSStaticCredentialsProvider(new AnonymousAWSCredentials());
+        }
+        this.region = Region.getRegion(Regions.fromName(region));
+        this.sqsEndpoint = sqsEndpoint;
+        this.snsEndpoint = snsEndpoint;
+        this.asyncThreads = asyncThreads;
+        this.requestMetricsHandler = new AwsRequestMetricsHandler(metrics);
+        this.rateLimitHandler = rateLimiter.requestHandler();
+
+        clientConfiguration = new ClientConfiguration()
+                .withMaxConnections(maxConnections)
+                .withConnectionTTL(connectionTtlMillis)
+                .withConnectionMaxIdleMillis(connectionMaxIdleMillis)
+                .withTcpKeepAlive(tcpKeepAlive)
+                .withConnectionTimeout(connectionTimeoutMillis)
+                .withSocketTimeout(socketTimeoutMillis)
+                .withRequestTimeout(requestTimeoutMillis)
+                .withGzip(useGzip)
+                .withRetryPolicy(new RetryPolicy(new CountingRetryCondition(PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION, metrics),
+                        rateLimiter.backoffStrategy(), maxErrorRetry, false));
+        log.info("AWS client configuration: maxConnections=" + maxConnections + ", connectionTTL=" + connectionTtlMillis
+                + "ms, tcpKeepAlive=" + tcpKeepAlive + ", socketTimeout=" + socketTimeoutMillis
+                + "ms, requestTimeout=" + requestTimeoutMillis + "ms, maxErrorRetry=" + maxErrorRetry);
+    }
+
+    public synchronized AmazonSQS getSqsClient() {
+        if (sqsClient == null) {
+            AmazonSQSClient client = new AmazonSQSClient(credentialsProvider, clientConfiguration);
+            configure(client, sqsEndpoint);
+            sqsClient = client;
+        }
+        return sqsClient;
+    }
+
+    public synchronized AmazonSNS getSnsClient() {
+        if (snsClient == null) {
+            AmazonSNSClient client = new AmazonSNSClient(credentialsProvider, clientConfiguration);
+            configure(client, snsEndpoint);
+            snsClient = client;
+        }
+        return snsClient;
+    }
+
+    public synchronized AmazonSQSAsync getSqsAsyncClient() {
+        if (sqsAsyncClient == null) {
+            AmazonSQSAsyncClient client = new AmazonSQSAsyncClient(credentialsProvider, clientConfiguration, getAsyncExecutor());
+            configure(client, sqsEndpoint);
+            sqsAsyncClient = client;
+        }
+        return sqsAsyncClient;
+    }
+
+    public synchronized AmazonSNSAsync getSnsAsyncClient() {
+        if (snsAsyncClient == null) {
+            AmazonSNSAsyncClient client = new AmazonSNSAsyncClient(credentialsProvider, clientConfiguration, getAsyncExecutor());
+            configure(client, snsEndpoint);
+            snsAsyncClient = client;
+        }
+        return snsAsyncClient;
+    }
+
+    public SQSConnectionFactory createSqsConnectionFactory(int numberOfMessagesToPrefetch) {
+        SQSConnectionFactory.Builder builder = SQSConnectionFactory.builder()
+                .withAWSCredentialsProvider(credentialsProvider)
+                .withClientConfiguration(clientConfiguration)
+                .withRegion(region)
+                .withNumberOfMessagesToPrefetch(numberOfMessagesToPrefetch);
+        if (StringUtils.isNotBlank(sqsEndpoint)) {
+            builder.withEndpoint(sqsEndpoint);
+        }
+        return builder.build();
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (sqsAsyncClient != null) {
+            sqsAsyncClient.shutdown();
+        }
+        if (snsAsyncClient != null) {
+            snsAsyncClient.shutdown();
+        }
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+        }
+        if (sqsClient != null) {
+            sqsClient.shutdown();
+        }
+        if (snsClient != null) {
+            snsClient.shutdown();
+        }
+    }
+
+    private ExecutorService getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("aws-async-");
+            threadFactory.setDaemon(true);
+            asyncExecutor = Executors.newFixedThreadPool(asyncThreads, threadFactory);
+        }
+        return asyncExecutor;
+    }
+
+    private void configure(AmazonWebServiceClient client, String endpoint) {
+        client.setRegion(region);
+        client.addRequestHandler(rateLimitHandler);
+        client.addRequestHandler(requestMetricsHandler);
+        if (StringUtils.isNotBlank(endpoint)) {
+            client.setEndpoint(endpoint);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.zuildorf.controller;
+
+import com.zuildorf.service.metrics.MetricsRegistry;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/aws-integration/metrics")
+public class MetricsController {
+    private final MetricsRegistry metrics;
+
+    @Autowired
+    public MetricsController(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    @GetMapping()
+    @ApiOperation(value = "Return AWS call latencies, throttles and retries, batch fill, in-flight messages and consumer lag")
+    public ResponseEntity getMetrics() {
+        return ResponseEntity.ok(metrics.snapshot());
+    }
+}
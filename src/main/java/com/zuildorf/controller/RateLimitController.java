@@ -0,0 +1,26 @@
+package com.zuildorf.controller;
+
+import com.zuildorf.service.ratelimit.AwsRateLimiter;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/aws-integration/ratelimit")
+public class RateLimitController {
+    private final AwsRateLimiter rateLimiter;
+
+    @Autowired
+    public RateLimitController(AwsRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @GetMapping()
+    @ApiOperation(value = "Return the current client-side rate, throttles and waits per AWS operation and queue or topic")
+    public ResponseEntity getRateLimits() {
+        return ResponseEntity.ok(rateLimiter.getState());
+    }
+}
@@ -1,8 +1,8 @@
 package com.zuildorf.controller;
 
-import com.amazonaws.services.sns.model.Topic;
-import com.zuildorf.error.AwsApiException;
 import com.zuildorf.service.aws.api.SNSService;
+import com.zuildorf.service.spool.SendReceipt;
+import com.zuildorf.service.spool.SpoolingProducer;
 import io.swagger.annotations.ApiOperation;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,9 +10,14 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
+ * Handlers that call AWS return a future, so the servlet thread is released while the call is in flight. Failures are
+ * turned into responses by {@link com.zuildorf.error.AwsApiExceptionHandler}.
+ *
  * Created by Milos Leposavic.
  */
 @RestController
@@ -20,10 +25,12 @@ import java.util.List;
 public class SNSController {
     private Logger log = Logger.getLogger(SNSController.class);
     private final SNSService snsService;
+    private final SpoolingProducer producer;
 
     @Autowired
-    public SNSController(SNSService snsService) {
+    public SNSController(SNSService snsService, SpoolingProducer producer) {
         this.snsService = snsService;
+        this.producer = producer;
     }
 
     @GetMapping()
@@ -35,43 +42,57 @@ public class SNSController {
 
     @GetMapping("/list")
     @ApiOperation(value = "Return all SNS topics")
-    public ResponseEntity listTopics() {
-        try {
-            List<Topic> listTopicsResult = snsService.listTopics();
+    public CompletableFuture<ResponseEntity> listTopics() {
+        return snsService.listTopicsAsync().thenApply(listTopicsResult -> {
             log.info("Topics retrieved successfully.");
             return ResponseEntity.ok(listTopicsResult);
-        } catch (AwsApiException e) {
-            String errorMessage = "Error getting topics: " + e.getCause().getMessage();
-            log.error(errorMessage);
-            return new ResponseEntity<>(errorMessage, HttpStatus.valueOf(Integer.parseInt(e.getMessage())));
-        }
+        });
     }
 
     @PostMapping("/create")
     @ApiOperation(value = "Create an Amazon SNS Topic with a given name")
-    public ResponseEntity createTopic(@RequestParam String topicName) {
-        try {
-            String createTopicResult = snsService.createTopic(topicName);
+    public CompletableFuture<ResponseEntity> createTopic(@RequestParam String topicName) {
+        return snsService.createTopicAsync(topicName).thenApply(createTopicResult -> {
             log.info("Created topic successfully: " + createTopicResult);
             return ResponseEntity.ok(createTopicResult);
-        } catch (AwsApiException e) {
-            String errorMessage = "Error creating topic: " + e.getCause().getMessage();
-            log.error(errorMessage);
-            return new ResponseEntity<>(errorMessage, HttpStatus.valueOf(Integer.parseInt(e.getMessage())));
-        }
+        });
+    }
+
+    @GetMapping("/cache/stats")
+    @ApiOperation(value = "Hit, miss and eviction counts for the cached topic metadata lookups")
+    public ResponseEntity getCacheStats() {
+        return ResponseEntity.ok(snsService.getCacheStats());
     }
 
     @DeleteMapping("/delete")
-    @ApiOperation(value = "Delete an Amazon SNS Topic using its ARN")
-    public ResponseEntity deleteTopic(@RequestParam String topicARN) {
-        try {
-            String deleteTopicResult = snsService.deleteTopic(topicARN);
+    @ApiOperation(value = "Delete an Amazon SNS Topic using its ARN or name")
+    public CompletableFuture<ResponseEntity> deleteTopic(@RequestParam String topicARN) {
+        return snsService.deleteTopicAsync(topicARN).thenApply(deleteTopicResult -> {
             log.info("Deleted topic successfully: " + deleteTopicResult);
             return ResponseEntity.ok(deleteTopicResult);
-        } catch (AwsApiException e) {
-            String errorMessage = "Error deleting topic: " + e.getCause().getMessage();
-            log.error(errorMessage);
-            return new ResponseEntity<>(errorMessage, HttpStatus.valueOf(Integer.parseInt(e.getMessage())));
+        });
+    }
+
+    @PostMapping("/publish/bulk")
+    @ApiOperation(value = "Publish a JSON array of messages to an Amazon SNS Topic (arn or name), returning the message ids in "
+            + "order. Spooled messages get their spool id instead, and the status is 202 if any were spooled")
+    public CompletableFuture<ResponseEntity> publishBulk(@RequestParam String topicARN,
+                                                         @RequestParam(required = false) String subject,
+                                                         @RequestBody List<String> messages) {
+        List<CompletableFuture<SendReceipt>> futures = new ArrayList<>(messages.size());
+        for (String message : messages) {
+            futures.add(producer.publishAsync(topicARN, subject, message));
         }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).thenApply(published -> {
+            List<String> messageIds = new ArrayList<>(futures.size());
+            boolean spooled = false;
+            for (CompletableFuture<SendReceipt> future : futures) {
+                SendReceipt receipt = future.join();
+                messageIds.add(receipt.getId());
+                spooled |= receipt.isSpooled();
+            }
+            log.info("Published " + messageIds.size() + " messages successfully" + (spooled ? ", some of them spooled." : "."));
+            return new ResponseEntity<>(messageIds, spooled ? HttpStatus.ACCEPTED : HttpStatus.OK);
+        });
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,14 @@
 package com.zuildorf.controller;
 
 import com.zuildorf.error.AwsApiException;
+import com.zuildorf.service.aws.api.SQSPollingReceiver;
 import com.zuildorf.service.aws.api.SQSService;
+import com.zuildorf.service.aws.api.SQSVisibilityHeartbeat;
+import com.zuildorf.service.ingest.NdjsonIngestService;
+import com.zuildorf.service.logging.HotPathLogger;
+import com.zuildorf.service.redrive.RedriveJob;
+import com.zuildorf.service.redrive.RedriveService;
+import com.zuildorf.service.spool.SpoolingProducer;
 import io.swagger.annotations.ApiOperation;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,10 +16,16 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
+ * Handlers that call AWS return a future, so the servlet thread is released while the call is in flight. Failures are
+ * turned into responses by {@link com.zuildorf.error.AwsApiExceptionHandler}.
+ *
  * Created by Milos Leposavic.
  */
 @RestController
@@ -20,71 +33,183 @@ import java.util.Map;
 public class SQSController {
     private Logger log = Logger.getLogger(SQSController.class);
     private final SQSService sqsService;
+    private final Optional<SQSPollingReceiver> pollingReceiver;
+    private final SQSVisibilityHeartbeat visibilityHeartbeat;
+    private final NdjsonIngestService ingestService;
+    private final RedriveService redriveService;
+    private final SpoolingProducer producer;
+    private final HotPathLogger hotPathLog;
 
     @Autowired
-    public SQSController(SQSService sqsService) {
+    public SQSController(SQSService sqsService,
+                         Optional<SQSPollingReceiver> pollingReceiver,
+                         SQSVisibilityHeartbeat visibilityHeartbeat,
+                         NdjsonIngestService ingestService,
+                         RedriveService redriveService,
+                         SpoolingProducer producer,
+                         HotPathLogger hotPathLog) {
         this.sqsService = sqsService;
+        this.pollingReceiver = pollingReceiver;
+        this.visibilityHeartbeat = visibilityHeartbeat;
+        this.ingestService = ingestService;
+        this.redriveService = redriveService;
+        this.producer = producer;
+        this.hotPathLog = hotPathLog;
     }
 
     @GetMapping()
     @ApiOperation(value = "Hello Amazon SQS! List default sqs information...")
-    public ResponseEntity helloWorld() {
-        return ResponseEntity.ok(sqsService.getQueueInfo(sqsService.getDefaultQueueUrl()));
+    public CompletableFuture<ResponseEntity> helloWorld() {
+        return sqsService.getQueueInfoAsync(sqsService.getDefaultQueueName()).thenApply(queueInfo -> ResponseEntity.ok(queueInfo));
     }
 
     @PostMapping("/create")
-    @ApiOperation(value = "Create an Amazon SQS queue with a given name")
-    public ResponseEntity createSqsInstance(@RequestParam String queueName) {
-        try {
-            String createQueueResult = sqsService.createQueue(queueName);
+    @ApiOperation(value = "Create an Amazon SQS queue with a given name, a FIFO queue if the name ends in .fifo")
+    public CompletableFuture<ResponseEntity> createSqsInstance(@RequestParam String queueName,
+                                                               @RequestParam(defaultValue = "false") boolean contentBasedDeduplication) {
+        return sqsService.createQueueAsync(queueName, contentBasedDeduplication).thenApply(createQueueResult -> {
             log.info("SQS queue created successfully: " + createQueueResult);
             return ResponseEntity.ok(createQueueResult);
-        } catch (AwsApiException e) {
-            String errorMessage = "Error creating queue: " + e.getCause().getMessage();
-            log.error(errorMessage);
-            return new ResponseEntity<>(errorMessage, HttpStatus.valueOf(Integer.parseInt(e.getMessage())));
-        }
+        });
     }
 
     @GetMapping("/getInfo")
-    @ApiOperation(value = "Get specific SQS queue info, including queue arn")
-    public ResponseEntity getQueueInfo(@RequestParam String queueURL) {
-        try {
-            Map<String, String> queueInfo = sqsService.getQueueInfo(queueURL);
+    @ApiOperation(value = "Get specific SQS queue info, including queue arn. Accepts a queue url or name")
+    public CompletableFuture<ResponseEntity> getQueueInfo(@RequestParam String queueURL) {
+        return sqsService.getQueueInfoAsync(queueURL).thenApply(queueInfo -> {
             log.info("Successfully retrieved queue info.");
             return ResponseEntity.ok(queueInfo);
-        } catch (AwsApiException e) {
-            String errorMessage = "Error retrieving queue info: " + e.getCause().getMessage();
-            log.error(errorMessage);
-            return new ResponseEntity<>(errorMessage, HttpStatus.valueOf(Integer.parseInt(e.getMessage())));
-        }
+        });
     }
 
     @GetMapping("/list")
     @ApiOperation(value = "Return URL for all SQS instances")
-    public ResponseEntity listAllSQS() {
-        try {
-            List<String> listQueuesResult = sqsService.listQueues();
+    public CompletableFuture<ResponseEntity> listAllSQS() {
+        return sqsService.listQueuesAsync().thenApply(listQueuesResult -> {
             log.info("Successfully retrieved sqs instances.");
             return ResponseEntity.ok(listQueuesResult);
+        });
+    }
+
+    @PostMapping("/send")
+    @ApiOperation(value = "Send a message to an Amazon SQS queue (url or name), batched with other messages sent to the same "
+            + "queue. FIFO queues need a message group id. Returns 202 with the spool id instead of 200 with the message id if "
+            + "it was spooled to be sent later")
+    public CompletableFuture<ResponseEntity> sendMessage(@RequestParam String queueURL,
+                                                         @RequestParam(required = false) String messageGroupId,
+                                                         @RequestParam(required = false) String messageDeduplicationId,
+                                                         @RequestBody String message) {
+        long startedAt = System.currentTimeMillis();
+        return producer.sendMessageAsync(queueURL, message, messageGroupId, messageDeduplicationId).thenApply(receipt -> {
+            hotPathLog.record(receipt.isSpooled() ? "spool" : "send", receipt.getId(), queueURL, message, startedAt);
+            return new ResponseEntity<>(receipt.getId(), receipt.isSpooled() ? HttpStatus.ACCEPTED : HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Written straight to the response rather than through an async result, so a long backfill is not cut off by the
+     * async request timeout.
+     */
+    @PostMapping(value = "/ingest", consumes = {"application/x-ndjson", "application/json", "text/plain"})
+    @ApiOperation(value = "Send every line of a newline-delimited JSON body to a queue (url or name), optionally routing "
+            + "lines by a field naming their queue and grouping them for FIFO queues by a field holding their message "
+            + "group id. Streams back failed lines, progress and a final summary as NDJSON")
+    public void ingest(@RequestParam String queueURL,
+                       @RequestParam(required = false) String routeField,
+                       @RequestParam(required = false) String groupField,
+                       InputStream body,
+                       HttpServletResponse response) throws IOException {
+        try {
+            sqsService.resolveQueueUrl(queueURL);
         } catch (AwsApiException e) {
-            String errorMessage = "Error retrieving all queues: " + e.getCause().getMessage();
+            String errorMessage = "Error starting ingest: " + e.getMessage();
             log.error(errorMessage);
-            return new ResponseEntity<>(errorMessage, HttpStatus.valueOf(Integer.parseInt(e.getMessage())));
+            response.sendError(e.getStatusCode(), errorMessage);
+            return;
+        }
+        response.setContentType("application/x-ndjson;charset=UTF-8");
+        ingestService.ingest(body, queueURL, routeField, groupField, response.getOutputStream());
+    }
+
+    @PostMapping("/redrive")
+    @ApiOperation(value = "Start moving messages from a source queue to a target queue (urls or names), for instance to "
+            + "redrive a dead-letter queue. Filters are name=value message attributes that must all match")
+    public ResponseEntity startRedrive(@RequestParam String source,
+                                       @RequestParam String target,
+                                       @RequestParam(required = false) List<String> filter,
+                                       @RequestParam(defaultValue = "0") int workers,
+                                       @RequestParam(defaultValue = "0") double maxPerSecond,
+                                       @RequestParam(defaultValue = "0") long maxMessages) {
+        Map<String, String> attributeFilter = new HashMap<>();
+        for (String condition : filter == null ? Collections.<String>emptyList() : filter) {
+            int separator = condition.indexOf('=');
+            if (separator <= 0) {
+                return new ResponseEntity<>("Filter must be name=value: " + condition, HttpStatus.BAD_REQUEST);
+            }
+            attributeFilter.put(condition.substring(0, separator), condition.substring(separator + 1));
+        }
+        RedriveJob job = redriveService.start(source, target, attributeFilter, workers, maxPerSecond, maxMessages);
+        return new ResponseEntity<>(job.getProgress(), HttpStatus.ACCEPTED);
+    }
+
+    @GetMapping("/redrive")
+    @ApiOperation(value = "Progress of running and recently finished redrives, newest first")
+    public ResponseEntity listRedrives() {
+        return ResponseEntity.ok(redriveService.list());
+    }
+
+    @GetMapping("/redrive/{id}")
+    @ApiOperation(value = "Progress of a redrive")
+    public ResponseEntity getRedrive(@PathVariable String id) {
+        Optional<RedriveJob> job = redriveService.get(id);
+        if (!job.isPresent()) {
+            return new ResponseEntity<>("No redrive " + id, HttpStatus.NOT_FOUND);
+        }
+        return ResponseEntity.ok(job.get().getProgress());
+    }
+
+    @DeleteMapping("/redrive/{id}")
+    @ApiOperation(value = "Cancel a redrive. Messages already received are still sent and deleted")
+    public ResponseEntity cancelRedrive(@PathVariable String id) {
+        if (!redriveService.cancel(id)) {
+            return new ResponseEntity<>("No redrive " + id, HttpStatus.NOT_FOUND);
         }
+        return new ResponseEntity<>(redriveService.get(id).map(RedriveJob::getProgress).orElse(null), HttpStatus.ACCEPTED);
+    }
+
+    @GetMapping("/ack/stats")
+    @ApiOperation(value = "Pending acknowledgements and acknowledgement latency for consumed messages")
+    public ResponseEntity getAcknowledgementStats() {
+        return ResponseEntity.ok(sqsService.getAcknowledgementStats());
+    }
+
+    @GetMapping("/receiver/stats")
+    @ApiOperation(value = "Poller, buffer and throughput counters for the native SQS receiver")
+    public ResponseEntity getReceiverStats() {
+        if (!pollingReceiver.isPresent()) {
+            return new ResponseEntity<>("Native receiver is not enabled (sqs.receiver.mode=native)", HttpStatus.NOT_FOUND);
+        }
+        return ResponseEntity.ok(pollingReceiver.get().getStats());
+    }
+
+    @GetMapping("/visibility/stats")
+    @ApiOperation(value = "In-flight messages tracked by the visibility heartbeat and extension counts")
+    public ResponseEntity getVisibilityStats() {
+        return ResponseEntity.ok(visibilityHeartbeat.getStats());
+    }
+
+    @GetMapping("/cache/stats")
+    @ApiOperation(value = "Hit, miss and eviction counts for the cached queue metadata lookups")
+    public ResponseEntity getCacheStats() {
+        return ResponseEntity.ok(sqsService.getCacheStats());
     }
 
     @DeleteMapping("/delete")
-    @ApiOperation(value = "Delete an Amazon SQS queue using its URL")
-    public ResponseEntity deleteSQS(@RequestParam String queueURL) {
-        try {
-            String deleteQueueResult = sqsService.deleteQueue(queueURL);
+    @ApiOperation(value = "Delete an Amazon SQS queue using its URL or name")
+    public CompletableFuture<ResponseEntity> deleteSQS(@RequestParam String queueURL) {
+        return sqsService.deleteQueueAsync(queueURL).thenApply(deleteQueueResult -> {
             log.info("Queue deleted successfully: " + deleteQueueResult);
             return ResponseEntity.ok(deleteQueueResult);
-        } catch (AwsApiException e) {
-            String errorMessage = "Error deleting queue: " + e.getCause().getMessage();
-            log.error(errorMessage);
-            return new ResponseEntity<>(errorMessage, HttpStatus.valueOf(Integer.parseInt(e.getMessage())));
-        }
+        });
     }
 }
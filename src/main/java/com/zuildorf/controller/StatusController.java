@@ -0,0 +1,39 @@
+package com.zuildorf.controller;
+
+import com.zuildorf.service.aws.api.AwsResourceBootstrap;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Readiness of the AWS integration, for load balancer and orchestrator health checks.
+ */
+@RestController
+@RequestMapping("/aws-integration")
+public class StatusController {
+    private final AwsResourceBootstrap bootstrap;
+
+    @Autowired
+    public StatusController(AwsResourceBootstrap bootstrap) {
+        this.bootstrap = bootstrap;
+    }
+
+    @GetMapping("/status")
+    @ApiOperation(value = "Return 200 once all declared topics, queues and subscriptions exist, 503 until then")
+    public ResponseEntity status() {
+        HttpStatus status = bootstrap.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE;
+        return new ResponseEntity<>(bootstrap.getStatusDetails(), status);
+    }
+
+    @PostMapping("/status/retry")
+    @ApiOperation(value = "Start provisioning again after a failed bootstrap")
+    public ResponseEntity retry() {
+        bootstrap.provision();
+        return new ResponseEntity<>(bootstrap.getStatusDetails(), HttpStatus.ACCEPTED);
+    }
+}
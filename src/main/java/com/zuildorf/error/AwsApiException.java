@@ -1,6 +1,7 @@
 package com.zuildorf.error;
 
 import com.amazonaws.AmazonServiceException;
+import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 /**
@@ -8,16 +9,29 @@ import org.apache.log4j.Logger;
  */
 public class AwsApiException extends RuntimeException {
     private static Logger log = Logger.getLogger(AwsApiException.class);
+    private final int statusCode;
 
-    public AwsApiException(String message, Throwable cause) {
-        super(message, cause);
+    /**
+     * @param statusCode the HTTP status the failure maps to, AWS's own for service errors
+     */
+    public AwsApiException(int statusCode, Throwable cause) {
+        super(cause != null && cause.getMessage() != null ? cause.getMessage() : "AWS API error " + statusCode, cause);
+        this.statusCode = statusCode;
         if (cause instanceof AmazonServiceException) {
-            log.error("Amazon Service Exception occurred. Details below...");
-            log.error("Error Message:    " + cause.getMessage());
-            log.error("HTTP Status Code: " + ((AmazonServiceException) cause).getStatusCode());
-            log.error("AWS Error Code:   " + ((AmazonServiceException) cause).getErrorCode());
-            log.error("Error Type:       " + ((AmazonServiceException) cause).getErrorType());
-            log.error("Request ID:       " + ((AmazonServiceException) cause).getRequestId());
+            AmazonServiceException serviceException = (AmazonServiceException) cause;
+            // client errors such as throttling or a missing queue are usually handled by the caller
+            Level level = serviceException.getStatusCode() >= 500 ? Level.ERROR : Level.WARN;
+            if (log.isEnabledFor(level)) {
+                log.log(level, "Amazon service error: status=" + serviceException.getStatusCode()
+                        + " code=" + serviceException.getErrorCode()
+                        + " type=" + serviceException.getErrorType()
+                        + " requestId=" + serviceException.getRequestId()
+                        + " message=\"" + serviceException.getErrorMessage() + "\"");
+            }
         }
     }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
 }
@@ -0,0 +1,47 @@
+package com.zuildorf.error;
+
+import org.apache.log4j.Logger;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Turns a failed AWS call into the error response for every controller: the exception's status code with the
+ * underlying error message as the body. Failures of handlers that return a future arrive wrapped in a
+ * {@link CompletionException}.
+ */
+@ControllerAdvice
+public class AwsApiExceptionHandler {
+    private Logger log = Logger.getLogger(AwsApiExceptionHandler.class);
+
+    @ExceptionHandler(AwsApiException.class)
+    public ResponseEntity handleAwsApiException(AwsApiException e, HttpServletRequest request) {
+        String errorMessage = "Error handling " + request.getMethod() + " " + request.getRequestURI() + ": " + e.getMessage();
+        log.error(errorMessage);
+        return new ResponseEntity<>(errorMessage, toHttpStatus(e.getStatusCode()));
+    }
+
+    @ExceptionHandler(CompletionException.class)
+    public ResponseEntity handleCompletionException(CompletionException e, HttpServletRequest request) {
+        if (e.getCause() instanceof AwsApiException) {
+            return handleAwsApiException((AwsApiException) e.getCause(), request);
+        }
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        String errorMessage = "Error handling " + request.getMethod() + " " + request.getRequestURI() + ": " + cause.getMessage();
+        log.error(errorMessage, cause);
+        return new ResponseEntity<>(errorMessage, HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+
+    private static HttpStatus toHttpStatus(int statusCode) {
+        try {
+            return HttpStatus.valueOf(statusCode);
+        } catch (IllegalArgumentException e) {
+            // not a status code AWS would normally return
+            return HttpStatus.BAD_GATEWAY;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.zuildorf.service.aws.api;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.zuildorf.error.AwsApiException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Adapts a call on an async AWS client to a {@link CompletableFuture}. The future completes on the client's executor
+ * with the result, or exceptionally with an {@link AwsApiException} carrying the service's status code, 503 for
+ * client-side failures such as timeouts.
+ */
+final class AwsAsyncCall<Q extends AmazonWebServiceRequest, R> implements AsyncHandler<Q, R> {
+    private final CompletableFuture<R> future = new CompletableFuture<>();
+
+    CompletableFuture<R> send(Function<AsyncHandler<Q, R>, Future<R>> call) {
+        try {
+            call.apply(this);
+        } catch (RuntimeException e) {
+            // the client's executor rejected the call
+            onError(e);
+        }
+        return future;
+    }
+
+    @Override
+    public void onError(Exception exception) {
+        future.completeExceptionally(toApiException(exception));
+    }
+
+    @Override
+    public void onSuccess(Q request, R result) {
+        future.complete(result);
+    }
+
+    static AwsApiException toApiException(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof AwsApiException) {
+            return (AwsApiException) cause;
+        }
+        if (cause instanceof AmazonServiceException) {
+            return new AwsApiException(((AmazonServiceException) cause).getStatusCode(), cause);
+        }
+        return new AwsApiException(503, cause);
+    }
+
+    /**
+     * @return a future already failed with the error, for calls that fail before reaching the client
+     */
+    static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(toApiException(error));
+        return future;
+    }
+}
@@ -0,0 +1,228 @@
+package com.zuildorf.service.aws.api;
+
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.zuildorf.error.AwsApiException;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Provisions the declared topics, queues and subscriptions. Every resource is looked up first and only created when
+ * missing, and all topics and queues are provisioned concurrently; each queue's subscriptions start as soon as that
+ * queue and its topics exist. In eager mode startup waits for provisioning and fails if it fails. In lazy mode it runs
+ * in the background once the application is ready, and {@link #getStatus()} reports when the resources are usable.
+ * A queue's subscriptions get the filter policy in {@code bootstrap.filter.policy.<queue>}, if there is one. Queues
+ * whose names end in {@code .fifo} are created as FIFO queues.
+ */
+@Component
+public class AwsResourceBootstrap {
+    private static final String SUBSCRIPTION_SEPARATOR = "->";
+    private static final String FILTER_POLICY_PROPERTY = "bootstrap.filter.policy.";
+
+    public enum Status {PENDING, RUNNING, READY, FAILED}
+
+    private Logger log = Logger.getLogger(AwsResourceBootstrap.class);
+    private final SQSService sqsService;
+    private final SNSService snsService;
+    private final Set<String> topics = new LinkedHashSet<>();
+    private final Set<String> queues = new LinkedHashSet<>();
+    private final Map<String, Set<String>> subscriptions = new LinkedHashMap<>();
+    private final boolean lazy;
+    private final boolean rawMessageDelivery;
+    private final boolean contentBasedDeduplication;
+    private final Environment environment;
+    private final ExecutorService executor;
+    private final Map<String, String> failures = new ConcurrentHashMap<>();
+    private volatile Status status = Status.PENDING;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private CompletableFuture<Void> current = CompletableFuture.completedFuture(null);
+
+    /**
+     * @param subscriptions entries of the form {@code topic->queue}
+     */
+    @Autowired
+    public AwsResourceBootstrap(SQSService sqsService,
+                                SNSService snsService,
+                                @Value("${bootstrap.topics}") String[] topics,
+                                @Value("${bootstrap.queues}") String[] queues,
+                                @Value("${bootstrap.subscriptions}") String[] subscriptions,
+                                @Value("${bootstrap.mode}") String mode,
+                                @Value("${bootstrap.threads}") int threads,
+                                @Value("${bootstrap.raw.message.delivery}") boolean rawMessageDelivery,
+                                @Value("${bootstrap.fifo.content.based.deduplication}") boolean contentBasedDeduplication,
+                                Environment environment) {
+        this.sqsService = sqsService;
+        this.snsService = snsService;
+        this.lazy = "lazy".equalsIgnoreCase(mode);
+        this.rawMessageDelivery = rawMessageDelivery;
+        this.contentBasedDeduplication = contentBasedDeduplication;
+        this.environment = environment;
+        addAll(this.topics, topics);
+        addAll(this.queues, queues);
+        for (String subscription : subscriptions) {
+            if (subscription.trim().isEmpty()) {
+                continue;
+            }
+            int separator = subscription.indexOf(SUBSCRIPTION_SEPARATOR);
+            if (separator < 0) {
+                throw new IllegalArgumentException("Subscription must be declared as topic->queue: " + subscription);
+            }
+            String topic = subscription.substring(0, separator).trim();
+            String queue = subscription.substring(separator + SUBSCRIPTION_SEPARATOR.length()).trim();
+            this.topics.add(topic);
+            this.queues.add(queue);
+            this.subscriptions.computeIfAbsent(queue, q -> new LinkedHashSet<>()).add(topic);
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("aws-bootstrap-");
+        threadFactory.setDaemon(true);
+        this.executor = Executors.newFixedThreadPool(threads, threadFactory);
+    }
+
+    @PostConstruct
+    public void provisionEagerly() {
+        if (lazy) {
+            return;
+        }
+        try {
+            provision().join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("AWS resource bootstrap failed: " + failures, e.getCause());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void provisionLazily() {
+        if (lazy) {
+            provision();
+        }
+    }
+
+    /**
+     * Starts provisioning unless it is already running or has succeeded, in which case the current run is returned.
+     * A failed run can be started again.
+     */
+    public synchronized CompletableFuture<Void> provision() {
+        if (status == Status.RUNNING || status == Status.READY) {
+            return current;
+        }
+        status = Status.RUNNING;
+        startedAt = System.currentTimeMillis();
+        failures.clear();
+        log.info("Provisioning " + topics.size() + " topics, " + queues.size() + " queues and "
+                + subscriptions.size() + " queue subscriptions.");
+
+        Map<String, CompletableFuture<String>> topicArns = new HashMap<>();
+        for (String topic : topics) {
+            topicArns.put(topic, track("topic " + topic, CompletableFuture.supplyAsync(() -> ensureTopic(topic), executor)));
+        }
+        Map<String, CompletableFuture<String>> queueUrls = new HashMap<>();
+        for (String queue : queues) {
+            queueUrls.put(queue, track("queue " + queue, CompletableFuture.supplyAsync(() -> ensureQueue(queue), executor)));
+        }
+        List<CompletableFuture<?>> all = new ArrayList<>(topicArns.values());
+        all.addAll(queueUrls.values());
+        for (Map.Entry<String, Set<String>> queueTopics : subscriptions.entrySet()) {
+            List<CompletableFuture<?>> dependencies = new ArrayList<>();
+            dependencies.add(queueUrls.get(queueTopics.getKey()));
+            for (String topic : queueTopics.getValue()) {
+                dependencies.add(topicArns.get(topic));
+            }
+            CompletableFuture<Map<String, String>> subscribed = CompletableFuture
+                    .allOf(dependencies.toArray(new CompletableFuture[0]))
+                    .thenApplyAsync(ignored -> sqsService.subscribeQueueToTopics(queueTopics.getKey(), queueTopics.getValue(),
+                            environment.getProperty(FILTER_POLICY_PROPERTY + queueTopics.getKey()), rawMessageDelivery), executor);
+            all.add(track("subscriptions of " + queueTopics.getKey(), subscribed));
+        }
+
+        current = CompletableFuture.allOf(all.toArray(new CompletableFuture[0])).whenComplete((result, error) -> {
+            finishedAt = System.currentTimeMillis();
+            status = error == null ? Status.READY : Status.FAILED;
+            if (error == null) {
+                log.info("AWS resources provisioned in " + (finishedAt - startedAt) + "ms.");
+            } else {
+                log.error("AWS resource provisioning failed after " + (finishedAt - startedAt) + "ms: " + failures);
+            }
+        });
+        return current;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isReady() {
+        return status == Status.READY;
+    }
+
+    public Map<String, Object> getStatusDetails() {
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("status", status);
+        details.put("mode", lazy ? "lazy" : "eager");
+        details.put("topics", topics);
+        details.put("queues", queues);
+        details.put("subscriptions", subscriptions);
+        if (startedAt > 0) {
+            details.put("durationMillis", (finishedAt >= startedAt ? finishedAt : System.currentTimeMillis()) - startedAt);
+        }
+        details.put("failures", new TreeMap<>(failures));
+        return details;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private String ensureTopic(String topic) throws AwsApiException {
+        try {
+            return snsService.resolveTopicArn(topic);
+        } catch (AwsApiException e) {
+            if (e.getStatusCode() != 404) {
+                throw e;
+            }
+            return snsService.createTopic(topic);
+        }
+    }
+
+    private String ensureQueue(String queue) throws AwsApiException {
+        try {
+            return sqsService.resolveQueueUrl(queue);
+        } catch (AwsApiException e) {
+            if (!(e.getCause() instanceof QueueDoesNotExistException)) {
+                throw e;
+            }
+            return sqsService.createQueue(queue, contentBasedDeduplication);
+        }
+    }
+
+    private <T> CompletableFuture<T> track(String resource, CompletableFuture<T> future) {
+        return future.whenComplete((result, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof AwsApiException && cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                failures.put(resource, String.valueOf(cause.getMessage()));
+            }
+        });
+    }
+
+    private static void addAll(Set<String> target, String[] values) {
+        for (String value : values) {
+            if (!value.trim().isEmpty()) {
+                target.add(value.trim());
+            }
+        }
+    }
+}
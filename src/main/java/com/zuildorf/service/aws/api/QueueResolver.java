@@ -0,0 +1,133 @@
+package com.zuildorf.service.aws.api;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.zuildorf.error.AwsApiException;
+import org.apache.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps queue names to queue urls and arns. Entries are filled lazily through GetQueueUrl and GetQueueAttributes, and
+ * re-resolved in the background so that queues deleted or recreated outside the application are picked up.
+ */
+class QueueResolver {
+    private Logger log = Logger.getLogger(QueueResolver.class);
+    private final AmazonSQS sqsClient;
+    private final ConcurrentMap<String, QueueAddress> addresses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, QueueAddress> unnamedAddresses = new ConcurrentHashMap<>();
+
+    QueueResolver(AmazonSQS sqsClient, ScheduledExecutorService scheduler, long refreshIntervalMillis) {
+        this.sqsClient = sqsClient;
+        scheduler.scheduleWithFixedDelay(this::refresh, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    static boolean isUrl(String queue) {
+        return queue.startsWith("https://") || queue.startsWith("http://");
+    }
+
+    static String nameFromUrl(String queueUrl) {
+        return queueUrl.substring(queueUrl.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * @param queue a queue name or a queue url, urls are returned unchanged
+     */
+    String resolveUrl(String queue) throws AwsApiException {
+        if (isUrl(queue)) {
+            return queue;
+        }
+        return address(queue).url;
+    }
+
+    /**
+     * @param queue a queue name or a queue url. A url is resolved as given, so a queue in another account or region
+     *              keeps its own arn rather than that of the same-named queue here.
+     */
+    String resolveArn(String queue) throws AwsApiException {
+        QueueAddress address = isUrl(queue) ? addressOfUrl(queue) : address(queue);
+        if (address.arn == null) {
+            try {
+                address.arn = sqsClient.getQueueAttributes(new GetQueueAttributesRequest(address.url)
+                        .withAttributeNames("QueueArn")).getAttributes().get("QueueArn");
+            } catch (AmazonServiceException e) {
+                throw new AwsApiException(e.getStatusCode(), e);
+            }
+        }
+        return address.arn;
+    }
+
+    void register(String queueName, String queueUrl) {
+        addresses.put(queueName, new QueueAddress(queueUrl));
+    }
+
+    void forget(String queue) {
+        if (isUrl(queue)) {
+            unnamedAddresses.remove(queue);
+        }
+        addresses.remove(isUrl(queue) ? nameFromUrl(queue) : queue);
+    }
+
+    private QueueAddress address(String queueName) throws AwsApiException {
+        QueueAddress address = addresses.get(queueName);
+        if (address == null) {
+            QueueAddress resolved = new QueueAddress(lookupUrl(queueName));
+            address = addresses.putIfAbsent(queueName, resolved);
+            if (address == null) {
+                address = resolved;
+            }
+        }
+        return address;
+    }
+
+    private QueueAddress addressOfUrl(String queueUrl) {
+        QueueAddress address = addresses.get(nameFromUrl(queueUrl));
+        if (address != null && address.url.equals(queueUrl)) {
+            return address;
+        }
+        return unnamedAddresses.computeIfAbsent(queueUrl, QueueAddress::new);
+    }
+
+    private String lookupUrl(String queueName) throws AwsApiException {
+        try {
+            return sqsClient.getQueueUrl(queueName).getQueueUrl();
+        } catch (AmazonServiceException e) {
+            throw new AwsApiException(e.getStatusCode(), e);
+        } catch (AmazonClientException e) {
+            // SQS could not be reached, the lookup may succeed later
+            throw new AwsApiException(503, e);
+        }
+    }
+
+    private void refresh() {
+        for (Map.Entry<String, QueueAddress> entry : addresses.entrySet()) {
+            try {
+                String url = sqsClient.getQueueUrl(entry.getKey()).getQueueUrl();
+                if (!url.equals(entry.getValue().url)) {
+                    addresses.replace(entry.getKey(), entry.getValue(), new QueueAddress(url));
+                }
+            } catch (QueueDoesNotExistException e) {
+                log.info("Queue " + entry.getKey() + " no longer exists, removing it from the resolver.");
+                addresses.remove(entry.getKey(), entry.getValue());
+            } catch (RuntimeException e) {
+                log.warn("Unable to refresh url of queue " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class QueueAddress {
+        private final String url;
+        private volatile String arn;
+
+        QueueAddress(String url) {
+            this.url = url;
+        }
+    }
+}
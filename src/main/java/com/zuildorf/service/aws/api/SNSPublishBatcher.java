@@ -0,0 +1,166 @@
+package com.zuildorf.service.aws.api;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.model.PublishRequest;
+import com.zuildorf.error.AwsApiException;
+import com.zuildorf.service.codec.EncodedMessage;
+import com.zuildorf.service.metrics.DistributionSummary;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import org.apache.log4j.Logger;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queues publish calls per topic and drains them in batches of up to 10 from a bounded worker pool. Callers are held
+ * back for up to the enqueue timeout once a topic queue is full, after which the publish fails instead of growing the
+ * queue. The SDK version in use has no PublishBatch operation, so a drained batch is published back-to-back by a
+ * single worker over a pooled connection.
+ */
+class SNSPublishBatcher {
+    static final int MAX_BATCH_ENTRIES = 10;
+
+    private Logger log = Logger.getLogger(SNSPublishBatcher.class);
+    private final AmazonSNS snsClient;
+    private final int queueCapacity;
+    private final long enqueueTimeoutMillis;
+    private final int maxDrainersPerTopic;
+    private final ConcurrentMap<String, TopicQueue> topicQueues = new ConcurrentHashMap<>();
+    private final ExecutorService workerPool;
+    private final DistributionSummary batchFill;
+
+    SNSPublishBatcher(AmazonSNS snsClient, int workerThreads, int queueCapacity, long enqueueTimeoutMillis,
+                      MetricsRegistry metrics) {
+        this.snsClient = snsClient;
+        this.queueCapacity = queueCapacity;
+        this.enqueueTimeoutMillis = enqueueTimeoutMillis;
+        this.maxDrainersPerTopic = workerThreads;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sns-publish-");
+        threadFactory.setDaemon(true);
+        this.workerPool = Executors.newFixedThreadPool(workerThreads, threadFactory);
+        this.batchFill = metrics.summary("aws.batch.fill.percent", "batcher", "sns-publish");
+        metrics.gauge("aws.batch.pending", this::getPendingCount, "batcher", "sns-publish");
+    }
+
+    CompletableFuture<String> publish(String topicArn, String subject, EncodedMessage message) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        PublishRequest request = new PublishRequest()
+                .withTopicArn(topicArn)
+                .withSubject(subject)
+                .withMessage(message.getBody())
+                .withMessageAttributes(message.toSnsAttributes());
+        TopicQueue topicQueue = topicQueues.computeIfAbsent(topicArn, arn -> new TopicQueue());
+        try {
+            if (!topicQueue.pending.offer(new PendingPublish(request, future), enqueueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                future.completeExceptionally(new AwsApiException(503,
+                        new RejectedExecutionException("Publish queue for topic " + topicArn + " is full")));
+                return future;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(new AwsApiException(503, e));
+            return future;
+        }
+        topicQueue.startDrainerIfNeeded();
+        return future;
+    }
+
+    int getPendingCount() {
+        int pending = 0;
+        for (TopicQueue topicQueue : topicQueues.values()) {
+            pending += topicQueue.pending.size();
+        }
+        return pending;
+    }
+
+    void shutdown() {
+        workerPool.shutdown();
+        try {
+            if (!workerPool.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Timed out waiting for pending SNS publishes to be sent.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void publishBatch(List<PendingPublish> batch) {
+        for (PendingPublish publish : batch) {
+            try {
+                publish.future.complete(snsClient.publish(publish.request).getMessageId());
+            } catch (AmazonServiceException e) {
+                publish.future.completeExceptionally(new AwsApiException(e.getStatusCode(), e));
+            } catch (AmazonClientException e) {
+                publish.future.completeExceptionally(new AwsApiException(503, e));
+            }
+        }
+    }
+
+    private final class TopicQueue {
+        private final BlockingQueue<PendingPublish> pending = new LinkedBlockingQueue<>(queueCapacity);
+        private final AtomicInteger activeDrainers = new AtomicInteger();
+
+        void startDrainerIfNeeded() {
+            while (true) {
+                int active = activeDrainers.get();
+                if (active >= maxDrainersPerTopic || active >= pending.size()) {
+                    return;
+                }
+                if (activeDrainers.compareAndSet(active, active + 1)) {
+                    try {
+                        workerPool.execute(this::drain);
+                    } catch (RejectedExecutionException e) {
+                        activeDrainers.decrementAndGet();
+                        failPending(e);
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void drain() {
+            List<PendingPublish> batch = new ArrayList<>(MAX_BATCH_ENTRIES);
+            while (true) {
+                pending.drainTo(batch, MAX_BATCH_ENTRIES);
+                if (batch.isEmpty()) {
+                    activeDrainers.decrementAndGet();
+                    // a publish may have been queued after the drain but before the decrement
+                    if (pending.isEmpty() || !reacquire()) {
+                        return;
+                    }
+                    continue;
+                }
+                batchFill.record(batch.size() * 100L / MAX_BATCH_ENTRIES);
+                publishBatch(batch);
+                batch.clear();
+            }
+        }
+
+        private boolean reacquire() {
+            int active = activeDrainers.get();
+            return active < maxDrainersPerTopic && activeDrainers.compareAndSet(active, active + 1);
+        }
+
+        private void failPending(Exception cause) {
+            PendingPublish publish;
+            while ((publish = pending.poll()) != null) {
+                publish.future.completeExceptionally(new AwsApiException(503, cause));
+            }
+        }
+    }
+
+    private static final class PendingPublish {
+        private final PublishRequest request;
+        private final CompletableFuture<String> future;
+
+        PendingPublish(PublishRequest request, CompletableFuture<String> future) {
+            this.request = request;
+            this.future = future;
+        }
+    }
+}
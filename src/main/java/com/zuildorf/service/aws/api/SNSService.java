@@ -1,58 +1,76 @@
 package com.zuildorf.service.aws.api;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.AnonymousAWSCredentials;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.auth.PropertiesFileCredentialsProvider;
-import com.amazonaws.regions.Region;
-import com.amazonaws.regions.Regions;
-import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.AmazonSNSAsync;
 import com.amazonaws.services.sns.model.*;
+import com.zuildorf.config.AwsClientFactory;
 import com.zuildorf.error.AwsApiException;
-import org.apache.commons.lang3.StringUtils;
+import com.zuildorf.service.cache.TtlCache;
+import com.zuildorf.service.codec.EncodedMessage;
+import com.zuildorf.service.codec.MessageCodec;
+import com.zuildorf.service.logging.HotPathLogger;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import com.zuildorf.service.routing.FilterPolicy;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 
 /**
+ * Topic administration calls have {@code Async} variants on the async SNS client, for request handlers that should not
+ * hold a thread while waiting on AWS.
+ *
  * Created by Milos Leposavic.
  */
 @Component
 public class SNSService {
     private Logger log = Logger.getLogger(SNSService.class);
     private final String defaultTopicName;
-    private final String defaultTopicArn;
-    private final AmazonSNSClient snsClient;
+    private final AmazonSNS snsClient;
+    private final AmazonSNSAsync snsAsyncClient;
+    private final SNSPublishBatcher publishBatcher;
+    private final TtlCache<String, List<Topic>> topicListCache;
+    private final ScheduledExecutorService resolverScheduler;
+    private final TopicResolver topicResolver;
+    private final MessageCodec codec;
+    private final HotPathLogger hotPathLog;
 
     @Autowired
-    public SNSService(@Value("${aws.api.credentials.file.path}") String apiProperties,
-                      @Value("${aws.region}") String region,
-                      @Value("${aws.accessKey}") String accessKey,
-                      @Value("${aws.secretKey}") String secretKey,
-                      @Value("${sns.default.topic.name}") String defaultTopicName) {
+    public SNSService(AwsClientFactory clientFactory,
+                      @Value("${sns.default.topic.name}") String defaultTopicName,
+                      @Value("${sns.publisher.threads}") int publisherThreads,
+                      @Value("${sns.publisher.queue.capacity}") int publisherQueueCapacity,
+                      @Value("${sns.publisher.enqueue.timeout.ms}") long publisherEnqueueTimeoutMillis,
+                      @Value("${cache.metadata.ttl.ms}") long cacheTtlMillis,
+                      @Value("${resolver.refresh.interval.ms}") long resolverRefreshMillis,
+                      MessageCodec codec,
+                      HotPathLogger hotPathLog,
+                      MetricsRegistry metrics) {
         this.defaultTopicName = defaultTopicName;
-        try {
-            if (StringUtils.isNotBlank(apiProperties)) {
-                snsClient = new AmazonSNSClient(new PropertiesFileCredentialsProvider(apiProperties))
-                        .withRegion(Region.getRegion(Regions.fromName(region)));
-            } else if (StringUtils.isNotBlank(accessKey) && StringUtils.isNotBlank(secretKey)) {
-                snsClient = new AmazonSNSClient(new BasicAWSCredentials(accessKey, secretKey))
-                        .withRegion(Region.getRegion(Regions.fromName(region)));
-            } else {
-                log.info("Unable to get aws credential properties, creating \"anonymous\" credentials. Request will not be signed.");
-                snsClient = new AmazonSNSClient(new AWSStaticCredentialsProvider(new AnonymousAWSCredentials()))
-                        .withRegion(Region.getRegion(Regions.fromName(region)));
-            }
-            defaultTopicArn = snsClient.createTopic(new CreateTopicRequest(defaultTopicName))
-                    .getTopicArn();
-        } catch (AmazonServiceException e) {
-            throw new AwsApiException(String.valueOf(e.getStatusCode()), e);
-        }
+        this.codec = codec;
+        this.hotPathLog = hotPathLog;
+        snsClient = clientFactory.getSnsClient();
+        snsAsyncClient = clientFactory.getSnsAsyncClient();
+        topicListCache = new TtlCache<>("sns-topic-list", cacheTtlMillis, 1);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sns-resolver-");
+        threadFactory.setDaemon(true);
+        resolverScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        topicResolver = new TopicResolver(this::listTopics, this::topicExists, resolverScheduler, resolverRefreshMillis);
+        publishBatcher = new SNSPublishBatcher(snsClient, publisherThreads, publisherQueueCapacity, publisherEnqueueTimeoutMillis,
+                metrics);
     }
 
     public String createTopic(String topicName) throws AwsApiException {
@@ -60,34 +78,148 @@ public class SNSService {
             log.info("Creating a new AWS SNS topic called: " + topicName);
             CreateTopicRequest createTopicRequest = new CreateTopicRequest(topicName);
 
-            String createTopicArn = snsClient.createTopic(createTopicRequest).getTopicArn();
-            log.info("Created Topic ARN: " + createTopicArn);
-            return createTopicArn;
+            return topicCreated(snsClient.createTopic(createTopicRequest).getTopicArn());
         } catch (AmazonServiceException e) {
-            throw new AwsApiException(String.valueOf(e.getStatusCode()), e);
+            throw new AwsApiException(e.getStatusCode(), e);
         }
     }
 
-    public String deleteTopic(String topicARN) throws AwsApiException {
+    public CompletableFuture<String> createTopicAsync(String topicName) {
+        log.info("Creating a new AWS SNS topic called: " + topicName);
+        return new AwsAsyncCall<CreateTopicRequest, CreateTopicResult>()
+                .send(handler -> snsAsyncClient.createTopicAsync(new CreateTopicRequest(topicName), handler))
+                .thenApply(result -> topicCreated(result.getTopicArn()));
+    }
+
+    private String topicCreated(String createTopicArn) {
+        log.info("Created Topic ARN: " + createTopicArn);
+        topicResolver.register(createTopicArn);
+        topicListCache.invalidateAll();
+        return createTopicArn;
+    }
+
+    public String deleteTopic(String topic) throws AwsApiException {
+        String topicARN = topicResolver.resolveArn(topic);
         try {
             log.info("Deleting topic with ARN: " + topicARN);
             DeleteTopicRequest deleteTopicRequest = new DeleteTopicRequest().withTopicArn(topicARN);
 
-            DeleteTopicResult deleteTopicResult = snsClient.deleteTopic(deleteTopicRequest);
-            log.info("Topic deleted successfully.");
-            return snsClient.getCachedResponseMetadata(deleteTopicRequest).toString();
+            return topicDeleted(topicARN, snsClient.deleteTopic(deleteTopicRequest));
         } catch (AmazonServiceException e) {
-            throw new AwsApiException(String.valueOf(e.getStatusCode()), e);
+            throw new AwsApiException(e.getStatusCode(), e);
+        }
+    }
+
+    public CompletableFuture<String> deleteTopicAsync(String topic) {
+        String topicARN;
+        try {
+            topicARN = topicResolver.resolveArn(topic);
+        } catch (AwsApiException e) {
+            return AwsAsyncCall.failed(e);
         }
+        log.info("Deleting topic with ARN: " + topicARN);
+        return new AwsAsyncCall<DeleteTopicRequest, DeleteTopicResult>()
+                .send(handler -> snsAsyncClient.deleteTopicAsync(new DeleteTopicRequest().withTopicArn(topicARN), handler))
+                .thenApply(result -> topicDeleted(topicARN, result));
     }
 
+    private String topicDeleted(String topicARN, DeleteTopicResult result) {
+        log.info("Topic deleted successfully.");
+        topicResolver.forget(topicARN);
+        topicListCache.invalidateAll();
+        return result.getSdkResponseMetadata().toString();
+    }
+
+    /**
+     * Returns every topic, following NextToken across pages. The assembled list is cached for a short time so that
+     * polling clients do not each page through ListTopics.
+     */
     public List<Topic> listTopics() throws AwsApiException {
+        return topicListCache.get("all", this::loadTopics);
+    }
+
+    public CompletableFuture<List<Topic>> listTopicsAsync() {
+        return topicListCache.getAsync("all", () -> loadTopicsAsync(null, new ArrayList<>()));
+    }
+
+    private CompletableFuture<List<Topic>> loadTopicsAsync(String nextToken, List<Topic> topics) {
+        return new AwsAsyncCall<ListTopicsRequest, ListTopicsResult>()
+                .send(handler -> snsAsyncClient.listTopicsAsync(new ListTopicsRequest(nextToken), handler))
+                .thenCompose(result -> {
+                    topics.addAll(result.getTopics());
+                    return result.getNextToken() == null
+                            ? CompletableFuture.completedFuture(Collections.unmodifiableList(topics))
+                            : loadTopicsAsync(result.getNextToken(), topics);
+                });
+    }
+
+    private List<Topic> loadTopics() throws AwsApiException {
         try {
             log.info("Retrieving all SNS topics.");
-            ListTopicsResult listTopicsResult = snsClient.listTopics(new ListTopicsRequest());
-            return listTopicsResult.getTopics();
+            List<Topic> topics = new ArrayList<>();
+            String nextToken = null;
+            do {
+                ListTopicsResult listTopicsResult = snsClient.listTopics(new ListTopicsRequest(nextToken));
+                topics.addAll(listTopicsResult.getTopics());
+                nextToken = listTopicsResult.getNextToken();
+            } while (nextToken != null);
+            return Collections.unmodifiableList(topics);
+        } catch (AmazonServiceException e) {
+            throw new AwsApiException(e.getStatusCode(), e);
+        } catch (AmazonClientException e) {
+            // SNS could not be reached, the lookup may succeed later
+            throw new AwsApiException(503, e);
+        }
+    }
+
+    /**
+     * @return the arn of the topic's subscription for the given protocol and endpoint, or null if there is none
+     */
+    public String findSubscription(String topicARN, String protocol, String endpoint) throws AwsApiException {
+        try {
+            String nextToken = null;
+            do {
+                ListSubscriptionsByTopicResult result = snsClient.listSubscriptionsByTopic(
+                        new ListSubscriptionsByTopicRequest(topicARN, nextToken));
+                for (Subscription subscription : result.getSubscriptions()) {
+                    if (protocol.equals(subscription.getProtocol()) && endpoint.equals(subscription.getEndpoint())) {
+                        return subscription.getSubscriptionArn();
+                    }
+                }
+                nextToken = result.getNextToken();
+            } while (nextToken != null);
+            return null;
         } catch (AmazonServiceException e) {
-            throw new AwsApiException(String.valueOf(e.getStatusCode()), e);
+            throw new AwsApiException(e.getStatusCode(), e);
+        }
+    }
+
+    /**
+     * Subscribes an endpoint to a topic with a filter policy, so SNS only delivers messages whose attributes match it.
+     *
+     * @param filterPolicy an SNS filter policy, or null to deliver every message
+     */
+    public String subscribeToTopic(String topicARN, String protocol, String subscriberARN, String filterPolicy) throws AwsApiException {
+        if (filterPolicy != null) {
+            try {
+                FilterPolicy.parse(filterPolicy);
+            } catch (IllegalArgumentException e) {
+                throw new AwsApiException(400, e);
+            }
+        }
+        String subscriptionArn = subscribeToTopic(topicARN, protocol, subscriberARN);
+        if (filterPolicy != null) {
+            setSubscriptionAttribute(subscriptionArn, "FilterPolicy", filterPolicy);
+        }
+        return subscriptionArn;
+    }
+
+    public void setSubscriptionAttribute(String subscriptionArn, String name, String value) throws AwsApiException {
+        try {
+            snsClient.setSubscriptionAttributes(new SetSubscriptionAttributesRequest(subscriptionArn, name, value));
+            log.info("Set " + name + " of subscription " + subscriptionArn);
+        } catch (AmazonServiceException e) {
+            throw new AwsApiException(e.getStatusCode(), e);
         }
     }
 
@@ -98,27 +230,73 @@ public class SNSService {
             subscriptionArn = snsClient.subscribe(subRequest).getSubscriptionArn();
             log.info("SubscribeResult info: " + subscriptionArn);
         } catch (AmazonServiceException e) {
-            throw new AwsApiException(String.valueOf(e.getStatusCode()), e);
+            throw new AwsApiException(e.getStatusCode(), e);
         }
         return subscriptionArn;
     }
 
-    public String publishMessageToTopic(String topicARN, String subject, String message) throws AwsApiException {
+    public String publishMessageToTopic(String topic, String subject, String message) throws AwsApiException {
+        long startedAt = System.currentTimeMillis();
+        String topicARN = topicResolver.resolveArn(topic);
+        EncodedMessage encoded = codec.encode(message);
         try {
             PublishRequest publishRequest = new PublishRequest()
                     .withTopicArn(topicARN)
                     .withSubject(subject)
-                    .withMessage(message);
+                    .withMessage(encoded.getBody())
+                    .withMessageAttributes(encoded.toSnsAttributes());
 
             PublishResult publishResult = snsClient.publish(publishRequest);
-            log.info("Published message successfully. Message: " + publishRequest.getMessage());
+            hotPathLog.record("publish", publishResult.getMessageId(), topicARN, encoded.getBody(), startedAt);
             return publishResult.toString();
         } catch (AmazonServiceException e) {
-            throw new AwsApiException(String.valueOf(e.getStatusCode()), e);
+            throw new AwsApiException(e.getStatusCode(), e);
         }
     }
 
-    public AmazonSNSClient getSnsClient() {
+    /**
+     * Queues a message for publishing without blocking on SNS. The returned future completes with the SNS message id,
+     * or exceptionally with an {@link AwsApiException} if the publish fails or the topic queue stays full.
+     */
+    public CompletableFuture<String> publishAsync(String topic, String subject, String message) {
+        try {
+            return publishBatcher.publish(topicResolver.resolveArn(topic), subject, codec.encode(message));
+        } catch (AwsApiException e) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    private boolean topicExists(String topicArn) {
+        try {
+            snsClient.getTopicAttributes(topicArn);
+            return true;
+        } catch (NotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param topic a topic name or arn
+     * @return the topic arn, found through the topic list the first time a name is seen
+     */
+    public String resolveTopicArn(String topic) throws AwsApiException {
+        return topicResolver.resolveArn(topic);
+    }
+
+    public Map<String, Object> getCacheStats() {
+        return topicListCache.getStats();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        log.info("Waiting for pending SNS publishes.");
+        publishBatcher.shutdown();
+        resolverScheduler.shutdownNow();
+    }
+
+    public AmazonSNS getSnsClient() {
         return snsClient;
     }
 
@@ -126,8 +304,11 @@ public class SNSService {
         return defaultTopicName;
     }
 
-    public String getDefaultTopicArn() {
-        return defaultTopicArn;
+    /**
+     * Resolves the default topic's arn. The topic itself is created by {@link AwsResourceBootstrap}.
+     */
+    public String getDefaultTopicArn() throws AwsApiException {
+        return topicResolver.resolveArn(defaultTopicName);
     }
 
 
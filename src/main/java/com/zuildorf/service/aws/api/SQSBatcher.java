@@ -0,0 +1,309 @@
+package com.zuildorf.service.aws.api;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.zuildorf.error.AwsApiException;
+import com.zuildorf.service.metrics.AwsRequestMetricsHandler;
+import com.zuildorf.service.metrics.DistributionSummary;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import org.apache.log4j.Logger;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buffers entries per queue url and hands them to {@link #sendBatch} as batches of up to 10 entries or
+ * {@code maxBatchBytes} of payload, or once the first buffered entry has waited for the linger time. Subclasses
+ * complete each entry's future from the batch result and pass retryable failures to {@link #retryOrFail}, which puts
+ * the entry back into the buffer on its own after a full-jitter exponential backoff, so a throttled batch is not resent
+ * in the very next linger window. Queues reported by {@link #isOrdered} (FIFO queues) instead have one batch in flight
+ * at a time, and a failed entry goes back in front of the entries sent after it. How full each batch is when it leaves
+ * is recorded as a percentage of the entry limit.
+ */
+abstract class SQSBatcher<T, R> {
+    static final int MAX_BATCH_ENTRIES = 10;
+    private static final long RETRY_BACKOFF_BASE_MILLIS = 100;
+    private static final long RETRY_BACKOFF_MAX_MILLIS = 5000;
+
+    protected Logger log = Logger.getLogger(getClass());
+    private final long lingerMillis;
+    private final int maxRetries;
+    private final int maxBatchBytes;
+    private final ConcurrentMap<String, QueueBuffer> buffers = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ScheduledExecutorService lingerScheduler;
+    private final ExecutorService senderPool;
+    private final DistributionSummary batchFill;
+
+    SQSBatcher(String name, long lingerMillis, int maxRetries, int senderThreads, int maxBatchBytes, MetricsRegistry metrics) {
+        this.lingerMillis = lingerMillis;
+        this.maxRetries = maxRetries;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerScheduler = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory(name + "-linger-"));
+        this.senderPool = Executors.newFixedThreadPool(senderThreads, daemonThreadFactory(name + "-"));
+        this.batchFill = metrics.summary("aws.batch.fill.percent", "batcher", name);
+        metrics.gauge("aws.batch.pending", pending::get, "batcher", name);
+    }
+
+    protected abstract void sendBatch(String queueUrl, List<Entry<T, R>> batch);
+
+    /**
+     * @return whether entries for the queue must reach it in the order they were submitted, in which case only one
+     * batch is in flight at a time and failed entries are retried before any later entry is sent
+     */
+    protected boolean isOrdered(String queueUrl) {
+        return false;
+    }
+
+    protected CompletableFuture<R> submit(String queueUrl, T payload, int size) {
+        Entry<T, R> entry = new Entry<>(queueUrl, payload, size);
+        pending.incrementAndGet();
+        entry.future.whenComplete((result, error) -> pending.decrementAndGet());
+        enqueue(entry);
+        return entry.future;
+    }
+
+    int getPendingCount() {
+        return pending.get();
+    }
+
+    void shutdown() {
+        for (QueueBuffer buffer : buffers.values()) {
+            buffer.flush();
+        }
+        lingerScheduler.shutdown();
+        try {
+            // scheduled retries still run, and ordered queues keep sending their remaining batches one at a time
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+            while (pending.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            senderPool.shutdown();
+            if (pending.get() > 0 || !senderPool.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                log.warn("Timed out waiting for pending SQS batches to be sent.");
+            }
+        } catch (InterruptedException e) {
+            senderPool.shutdown();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected void retryOrFail(Entry<T, R> entry, AmazonClientException cause) {
+        if (entry.attempts++ < maxRetries) {
+            QueueBuffer buffer = buffers.get(entry.queueUrl);
+            if (buffer != null && buffer.ordered) {
+                log.warn("Retrying failed SQS batch entry for queue " + entry.queueUrl + ": " + cause.getMessage());
+                buffer.retryFirst(entry);
+                return;
+            }
+            long delay = retryDelayMillis(entry.attempts);
+            log.warn("Retrying failed SQS batch entry for queue " + entry.queueUrl + " in " + delay + "ms: " + cause.getMessage());
+            try {
+                lingerScheduler.schedule(() -> enqueue(entry), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // shutting down, send it with the final flush
+                enqueue(entry);
+            }
+        } else {
+            fail(entry, cause);
+        }
+    }
+
+    protected void fail(Entry<T, R> entry, AmazonClientException cause) {
+        if (cause instanceof AmazonServiceException) {
+            entry.future.completeExceptionally(
+                    new AwsApiException(((AmazonServiceException) cause).getStatusCode(), cause));
+        } else {
+            entry.future.completeExceptionally(new AwsApiException(503, cause));
+        }
+    }
+
+    /**
+     * Routes a whole-batch failure: server errors, throttling and client-side errors are retried per entry, any other
+     * service error fails the entries.
+     */
+    protected void failBatch(List<Entry<T, R>> batch, AmazonClientException cause) {
+        boolean retryable = !(cause instanceof AmazonServiceException)
+                || ((AmazonServiceException) cause).getStatusCode() >= 500
+                || AwsRequestMetricsHandler.isThrottling((AmazonServiceException) cause);
+        for (Entry<T, R> entry : batch) {
+            if (retryable) {
+                retryOrFail(entry, cause);
+            } else {
+                fail(entry, cause);
+            }
+        }
+    }
+
+    /**
+     * Completes a failed batch result entry, retrying it unless SQS reports the failure as the sender's fault and it
+     * is not throttling.
+     */
+    protected void handleFailedEntry(Entry<T, R> entry, BatchResultErrorEntry failure) {
+        AmazonServiceException cause = toServiceException(failure);
+        if (failure.isSenderFault() && !AwsRequestMetricsHandler.isThrottling(cause)) {
+            fail(entry, cause);
+        } else {
+            retryOrFail(entry, cause);
+        }
+    }
+
+    /**
+     * Full jitter: a uniformly random delay up to the exponential ceiling, so entries failed by one throttled batch
+     * do not come back together.
+     */
+    private static long retryDelayMillis(int attempts) {
+        long ceiling = Math.min(RETRY_BACKOFF_MAX_MILLIS, RETRY_BACKOFF_BASE_MILLIS << Math.min(attempts - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static AmazonServiceException toServiceException(BatchResultErrorEntry failure) {
+        AmazonServiceException e = new AmazonServiceException(failure.getMessage());
+        e.setErrorCode(failure.getCode());
+        e.setErrorType(failure.isSenderFault() ? AmazonServiceException.ErrorType.Client : AmazonServiceException.ErrorType.Service);
+        e.setStatusCode(failure.isSenderFault() ? 400 : 500);
+        e.setServiceName("AmazonSQS");
+        return e;
+    }
+
+    private void enqueue(Entry<T, R> entry) {
+        buffers.computeIfAbsent(entry.queueUrl, QueueBuffer::new).add(entry);
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+
+    private final class QueueBuffer {
+        private final String queueUrl;
+        private final boolean ordered;
+        private final Deque<Entry<T, R>> entries = new ArrayDeque<>();
+        private final List<Entry<T, R>> retrying = new ArrayList<>();
+        private int bytes;
+        private boolean inFlight;
+        private ScheduledFuture<?> lingerTask;
+
+        QueueBuffer(String queueUrl) {
+            this.queueUrl = queueUrl;
+            this.ordered = isOrdered(queueUrl);
+        }
+
+        synchronized void add(Entry<T, R> entry) {
+            if (bytes + entry.size > maxBatchBytes) {
+                flush();
+            }
+            entries.addLast(entry);
+            bytes += entry.size;
+            if (entries.size() >= MAX_BATCH_ENTRIES || bytes >= maxBatchBytes) {
+                flush();
+            } else if (lingerTask == null && !inFlight) {
+                if (lingerScheduler.isShutdown()) {
+                    flush();
+                } else {
+                    lingerTask = lingerScheduler.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        /**
+         * Sends everything buffered, except on an ordered queue, which sends one batch and keeps the rest until that
+         * batch and the retries of its failed entries are done.
+         */
+        synchronized void flush() {
+            if (lingerTask != null) {
+                lingerTask.cancel(false);
+                lingerTask = null;
+            }
+            while (!entries.isEmpty() && !inFlight) {
+                List<Entry<T, R>> batch = takeBatch();
+                batchFill.record(batch.size() * 100L / MAX_BATCH_ENTRIES);
+                inFlight = ordered;
+                try {
+                    senderPool.execute(() -> send(batch));
+                } catch (RejectedExecutionException e) {
+                    inFlight = false;
+                    for (Entry<T, R> entry : batch) {
+                        entry.future.completeExceptionally(new AwsApiException(503, e));
+                    }
+                }
+            }
+        }
+
+        synchronized void retryFirst(Entry<T, R> entry) {
+            retrying.add(entry);
+        }
+
+        private List<Entry<T, R>> takeBatch() {
+            List<Entry<T, R>> batch = new ArrayList<>(MAX_BATCH_ENTRIES);
+            int batchBytes = 0;
+            while (!entries.isEmpty() && batch.size() < MAX_BATCH_ENTRIES
+                    && (batch.isEmpty() || batchBytes + entries.peekFirst().size <= maxBatchBytes)) {
+                Entry<T, R> entry = entries.pollFirst();
+                batch.add(entry);
+                batchBytes += entry.size;
+            }
+            bytes -= batchBytes;
+            return batch;
+        }
+
+        private void send(List<Entry<T, R>> batch) {
+            try {
+                sendBatch(queueUrl, batch);
+            } finally {
+                if (ordered) {
+                    batchDone();
+                }
+            }
+        }
+
+        /**
+         * Puts the failed entries of the batch back in front of everything sent after them and sends them again after
+         * the backoff, before any later entry.
+         */
+        private synchronized void batchDone() {
+            if (retrying.isEmpty()) {
+                inFlight = false;
+                flush();
+                return;
+            }
+            int attempts = 0;
+            for (int i = retrying.size() - 1; i >= 0; i--) {
+                Entry<T, R> entry = retrying.get(i);
+                entries.addFirst(entry);
+                bytes += entry.size;
+                attempts = Math.max(attempts, entry.attempts);
+            }
+            retrying.clear();
+            try {
+                lingerScheduler.schedule(this::resume, retryDelayMillis(attempts), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                resume();
+            }
+        }
+
+        private synchronized void resume() {
+            inFlight = false;
+            flush();
+        }
+    }
+
+    static final class Entry<T, R> {
+        final String queueUrl;
+        final T payload;
+        final int size;
+        final long enqueuedNanos = System.nanoTime();
+        final CompletableFuture<R> future = new CompletableFuture<>();
+        private int attempts;
+
+        Entry(String queueUrl, T payload, int size) {
+            this.queueUrl = queueUrl;
+            this.payload = payload;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.zuildorf.service.aws.api;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.*;
+import com.zuildorf.service.metrics.MetricsRegistry;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Acknowledges consumed messages by deleting their receipt handles in DeleteMessageBatch calls of up to 10, and keeps
+ * counters for pending acknowledgements and the time from enqueue to confirmed delete.
+ */
+class SQSDeleteBatcher extends SQSBatcher<String, Void> {
+    private final AmazonSQS sqsClient;
+    private final LongAdder acknowledged = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    SQSDeleteBatcher(AmazonSQS sqsClient, long lingerMillis, int maxRetries, int senderThreads, MetricsRegistry metrics) {
+        super("sqs-delete", lingerMillis, maxRetries, senderThreads, Integer.MAX_VALUE, metrics);
+        this.sqsClient = sqsClient;
+    }
+
+    CompletableFuture<Void> delete(String queueUrl, String receiptHandle) {
+        CompletableFuture<Void> future = submit(queueUrl, receiptHandle, 0);
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                failed.increment();
+            }
+        });
+        return future;
+    }
+
+    Map<String, Object> getStats() {
+        long count = acknowledged.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", getPendingCount());
+        stats.put("acknowledged", count);
+        stats.put("failed", failed.sum());
+        stats.put("batches", batches.sum());
+        stats.put("averageLatencyMs", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.sum() / count));
+        stats.put("maxLatencyMs", TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get()));
+        return stats;
+    }
+
+    @Override
+    protected void sendBatch(String queueUrl, List<Entry<String, Void>> batch) {
+        List<DeleteMessageBatchRequestEntry> requestEntries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            requestEntries.add(new DeleteMessageBatchRequestEntry(String.valueOf(i), batch.get(i).payload));
+        }
+        try {
+            DeleteMessageBatchResult result = sqsClient.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, requestEntries));
+            batches.increment();
+            long now = System.nanoTime();
+            for (DeleteMessageBatchResultEntry success : result.getSuccessful()) {
+                Entry<String, Void> entry = batch.get(Integer.parseInt(success.getId()));
+                recordLatency(now - entry.enqueuedNanos);
+                entry.future.complete(null);
+            }
+            for (BatchResultErrorEntry failure : result.getFailed()) {
+                handleFailedEntry(batch.get(Integer.parseInt(failure.getId())), failure);
+            }
+        } catch (AmazonClientException e) {
+            failBatch(batch, e);
+        }
+    }
+
+    private void recordLatency(long latencyNanos) {
+        acknowledged.increment();
+        totalLatencyNanos.add(latencyNanos);
+        maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+}
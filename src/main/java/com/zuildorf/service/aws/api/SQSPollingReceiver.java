@@ -0,0 +1,331 @@
+package com.zuildorf.service.aws.api;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.zuildorf.error.AwsApiException;
+import com.zuildorf.service.codec.MessageCodec;
+import com.zuildorf.service.logging.HotPathLogger;
+import com.zuildorf.service.metrics.Counter;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import com.zuildorf.service.pipeline.MessageContext;
+import com.zuildorf.service.pipeline.MessagePipeline;
+import com.zuildorf.service.pipeline.SkippedMessageException;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Receives from the default queue without the JMS bridge. Poller threads long-poll ReceiveMessage and put messages in
+ * a bounded buffer, which a dispatcher feeds into the {@link MessagePipeline}. The number of pollers grows while
+ * receives come back full and the buffer has room, and shrinks while receives come back empty. Every received message
+ * is tracked by the {@link SQSVisibilityHeartbeat} from the moment it is received until it has been processed, so the
+ * time it waits in the buffer is covered as well.
+ */
+@Component
+@ConditionalOnProperty(name = "sqs.receiver.mode", havingValue = "native")
+public class SQSPollingReceiver implements SmartLifecycle {
+    private static final int MAX_MESSAGES_PER_RECEIVE = 10;
+    private static final int WAIT_TIME_SECONDS = 20;
+    private static final long DRAIN_TIMEOUT_MILLIS = 30000;
+
+    private Logger log = Logger.getLogger(SQSPollingReceiver.class);
+    private final SQSService sqsService;
+    private final MessagePipeline pipeline;
+    private final SQSVisibilityHeartbeat visibilityHeartbeat;
+    private final MessageCodec codec;
+    private final HotPathLogger hotPathLog;
+    private final int minPollers;
+    private final int maxPollers;
+    private final boolean batchAcknowledge;
+    private final BlockingQueue<Received> buffer;
+    private final ExecutorService pollerPool;
+    private final ScheduledExecutorService scheduler;
+    private final Thread dispatcher;
+    private final AtomicInteger targetPollers;
+    private final AtomicInteger activePollers = new AtomicInteger();
+    private final LongAdder receiveCalls = new LongAdder();
+    private final LongAdder emptyReceives = new LongAdder();
+    private final Counter messagesReceived;
+    private final LongAdder messagesProcessed = new LongAdder();
+    private final LongAdder messagesFailed = new LongAdder();
+    private volatile String queueUrl;
+    private volatile boolean running;
+    private long lastReceiveCalls;
+    private long lastMessagesReceived;
+
+    @Autowired
+    public SQSPollingReceiver(SQSService sqsService,
+                              MessagePipeline pipeline,
+                              SQSVisibilityHeartbeat visibilityHeartbeat,
+                              @Value("${sqs.receiver.pollers.min}") int minPollers,
+                              @Value("${sqs.receiver.pollers.max}") int maxPollers,
+                              @Value("${sqs.receiver.buffer.capacity}") int bufferCapacity,
+                              @Value("${sqs.consumer.ack.mode}") String ackMode,
+                              MessageCodec codec,
+                              HotPathLogger hotPathLog,
+                              MetricsRegistry metrics) {
+        this.sqsService = sqsService;
+        this.pipeline = pipeline;
+        this.visibilityHeartbeat = visibilityHeartbeat;
+        this.codec = codec;
+        this.hotPathLog = hotPathLog;
+        this.minPollers = minPollers;
+        this.maxPollers = maxPollers;
+        this.batchAcknowledge = "batch".equalsIgnoreCase(ackMode);
+        this.buffer = new ArrayBlockingQueue<>(bufferCapacity);
+        this.targetPollers = new AtomicInteger(minPollers);
+        this.pollerPool = Executors.newCachedThreadPool(daemonThreadFactory("sqs-poller-"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("sqs-receiver-scheduler-"));
+        this.dispatcher = daemonThreadFactory("sqs-receiver-dispatcher-").newThread(this::dispatch);
+        this.messagesReceived = metrics.counter("consumer.messages.received", "receiver", "native");
+        metrics.gauge("consumer.receiver.buffered", buffer::size, "receiver", "native");
+        metrics.gauge("consumer.receiver.pollers", activePollers::get, "receiver", "native");
+    }
+
+    @Override
+    public synchronized void start() {
+        running = true;
+        for (int i = 0; i < minPollers; i++) {
+            startPoller();
+        }
+        dispatcher.start();
+        scheduler.scheduleWithFixedDelay(this::adjustPollers, 5, 5, TimeUnit.SECONDS);
+        log.info("Native SQS receiver started with " + minPollers + " pollers on " + sqsService.getDefaultQueueName());
+    }
+
+    /**
+     * Stops receiving, then waits for buffered and in-flight messages to finish processing.
+     */
+    @Override
+    public synchronized void stop() {
+        running = false;
+        pollerPool.shutdown();
+        try {
+            pollerPool.awaitTermination(WAIT_TIME_SECONDS + 5, TimeUnit.SECONDS);
+            long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+            while ((!buffer.isEmpty() || pipeline.getInFlightCount() > 0) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dispatcher.interrupt();
+        scheduler.shutdownNow();
+        log.info("Native SQS receiver stopped.");
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pollers", activePollers.get());
+        stats.put("receiveCalls", receiveCalls.sum());
+        stats.put("emptyReceives", emptyReceives.sum());
+        stats.put("messagesReceived", messagesReceived.getCount());
+        stats.put("messagesProcessed", messagesProcessed.sum());
+        stats.put("messagesFailed", messagesFailed.sum());
+        stats.put("buffered", buffer.size());
+        stats.put("inFlight", pipeline.getInFlightCount());
+        return stats;
+    }
+
+    private void startPoller() {
+        int index = activePollers.getAndIncrement();
+        pollerPool.execute(() -> poll(index));
+    }
+
+    private void poll(int index) {
+        try {
+            while (running && index < targetPollers.get()) {
+                try {
+                    if (queueUrl == null) {
+                        // resolved on first use, the queue may still be provisioning when the receiver starts
+                        queueUrl = sqsService.getDefaultQueueUrl();
+                    }
+                    List<Message> messages = sqsService.receiveMessages(queueUrl, MAX_MESSAGES_PER_RECEIVE,
+                            WAIT_TIME_SECONDS, visibilityHeartbeat.getVisibilityTimeoutSeconds());
+                    receiveCalls.increment();
+                    if (messages.isEmpty()) {
+                        emptyReceives.increment();
+                    }
+                    messagesReceived.add(messages.size());
+                    long receivedAt = System.currentTimeMillis();
+                    for (Message message : messages) {
+                        buffer.put(new Received(message,
+                                visibilityHeartbeat.track(queueUrl, message.getReceiptHandle(), receivedAt)));
+                    }
+                } catch (AwsApiException e) {
+                    log.warn("Receive from " + sqsService.getDefaultQueueName() + " failed: " + e.getCause().getMessage());
+                    Thread.sleep(1000);
+                } catch (RuntimeException e) {
+                    // a poller that exits here would not be replaced while the others see no traffic
+                    log.error("Unexpected error receiving from " + sqsService.getDefaultQueueName(), e);
+                    Thread.sleep(1000);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            activePollers.decrementAndGet();
+        }
+    }
+
+    private void dispatch() {
+        try {
+            while (running || !buffer.isEmpty()) {
+                Received received = buffer.poll(1, TimeUnit.SECONDS);
+                if (received != null) {
+                    process(received.message, received.lease);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // messages left behind become visible again once their current timeout runs out
+        Received received;
+        while ((received = buffer.poll()) != null) {
+            received.lease.release();
+        }
+    }
+
+    private void process(Message message, SQSVisibilityHeartbeat.Lease lease) throws InterruptedException {
+        MessageContext context;
+        CompletableFuture<MessageContext> processed;
+        try {
+            context = toContext(message);
+            processed = pipeline.submit(context);
+        } catch (InterruptedException | RuntimeException e) {
+            lease.release();
+            throw e;
+        }
+        processed.whenComplete((result, error) -> {
+            lease.release();
+            if (error != null) {
+                if (error instanceof SkippedMessageException || error.getCause() instanceof SkippedMessageException) {
+                    returnToQueue(message);
+                    return;
+                }
+                messagesFailed.increment();
+                hotPathLog.recordFailure("consume", context.getMessageId(), queueUrl, message.getBody(), context.getReceivedAt(), error);
+                return;
+            }
+            messagesProcessed.increment();
+            hotPathLog.record("consume", context.getMessageId(), queueUrl, message.getBody(), context.getReceivedAt());
+            acknowledge(message);
+        });
+    }
+
+    private void acknowledge(Message message) {
+        if (batchAcknowledge) {
+            sqsService.deleteMessageAsync(queueUrl, message.getReceiptHandle()).whenComplete((result, error) -> {
+                if (error != null) {
+                    log.error("Error acknowledging message " + message.getMessageId() + ": " + error.getMessage());
+                }
+            });
+            return;
+        }
+        try {
+            sqsService.deleteMessage(queueUrl, message.getReceiptHandle());
+        } catch (AwsApiException e) {
+            log.error("Error acknowledging message " + message.getMessageId() + ": " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Makes a message skipped behind a failed one of its group visible again right away. FIFO queues do not deliver it
+     * before the failed message, which stays invisible until its own timeout.
+     */
+    private void returnToQueue(Message message) {
+        try {
+            sqsService.changeMessageVisibility(queueUrl, message.getReceiptHandle(), 0);
+        } catch (AwsApiException e) {
+            log.warn("Unable to return skipped message " + message.getMessageId() + ", it becomes visible after its timeout: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a poller while receives come back close to full and the buffer is less than half used, and removes one
+     * while most receives come back empty. Pollers that died are replaced up to the minimum first.
+     */
+    private void adjustPollers() {
+        while (running && activePollers.get() < minPollers) {
+            log.warn("Restarting an SQS poller, " + activePollers.get() + " of " + minPollers + " running");
+            startPoller();
+        }
+        long calls = receiveCalls.sum();
+        long received = messagesReceived.getCount();
+        long intervalCalls = calls - lastReceiveCalls;
+        long intervalReceived = received - lastMessagesReceived;
+        lastReceiveCalls = calls;
+        lastMessagesReceived = received;
+        if (intervalCalls == 0) {
+            return;
+        }
+        double messagesPerReceive = (double) intervalReceived / intervalCalls;
+        int target = targetPollers.get();
+        if (messagesPerReceive >= MAX_MESSAGES_PER_RECEIVE * 0.8 && buffer.remainingCapacity() > buffer.size() && target < maxPollers) {
+            targetPollers.incrementAndGet();
+            startPoller();
+            log.info("Increased SQS pollers to " + (target + 1));
+        } else if (messagesPerReceive < 1 && target > minPollers) {
+            targetPollers.decrementAndGet();
+            log.info("Decreased SQS pollers to " + (target - 1));
+        }
+    }
+
+    private MessageContext toContext(Message message) {
+        Map<String, String> attributes = new HashMap<>(message.getAttributes());
+        for (Map.Entry<String, MessageAttributeValue> attribute : message.getMessageAttributes().entrySet()) {
+            if (attribute.getValue().getStringValue() != null) {
+                attributes.put(attribute.getKey(), attribute.getValue().getStringValue());
+            }
+        }
+        return codec.toContext(message.getMessageId(), message.getAttributes().get("MessageGroupId"),
+                message.getBody(), attributes);
+    }
+
+    private static final class Received {
+        private final Message message;
+        private final SQSVisibilityHeartbeat.Lease lease;
+
+        private Received(Message message, SQSVisibilityHeartbeat.Lease lease) {
+            this.message = message;
+            this.lease = lease;
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+}
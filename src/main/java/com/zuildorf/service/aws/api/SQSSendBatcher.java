@@ -0,0 +1,79 @@
+package com.zuildorf.service.aws.api;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.*;
+import com.zuildorf.error.AwsApiException;
+import com.zuildorf.service.metrics.MetricsRegistry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sends buffered messages as SendMessageBatch calls of up to 10 entries or 256 KB, whichever limit is hit first. Each
+ * buffered entry carries its body and message attributes; its batch id is assigned when the batch is sent. Messages for
+ * FIFO queues are sent one batch at a time, so they reach the queue in the order they were sent.
+ */
+class SQSSendBatcher extends SQSBatcher<SendMessageBatchRequestEntry, String> {
+    static final int MAX_BATCH_BYTES = 256 * 1024;
+
+    private final AmazonSQS sqsClient;
+
+    SQSSendBatcher(AmazonSQS sqsClient, long lingerMillis, int maxRetries, int senderThreads, MetricsRegistry metrics) {
+        super("sqs-send", lingerMillis, maxRetries, senderThreads, MAX_BATCH_BYTES, metrics);
+        this.sqsClient = sqsClient;
+    }
+
+    CompletableFuture<String> send(String queueUrl, SendMessageBatchRequestEntry message) {
+        int size = sizeOf(message);
+        if (size > MAX_BATCH_BYTES) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(new AwsApiException(400,
+                    new IllegalArgumentException("Message of " + size + " bytes exceeds the SQS limit of " + MAX_BATCH_BYTES + " bytes")));
+            return future;
+        }
+        return submit(queueUrl, message, size);
+    }
+
+    @Override
+    protected boolean isOrdered(String queueUrl) {
+        return SQSService.isFifo(queueUrl);
+    }
+
+    @Override
+    protected void sendBatch(String queueUrl, List<Entry<SendMessageBatchRequestEntry, String>> batch) {
+        List<SendMessageBatchRequestEntry> requestEntries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            requestEntries.add(batch.get(i).payload.withId(String.valueOf(i)));
+        }
+        try {
+            SendMessageBatchResult result = sqsClient.sendMessageBatch(new SendMessageBatchRequest(queueUrl, requestEntries));
+            for (SendMessageBatchResultEntry success : result.getSuccessful()) {
+                batch.get(Integer.parseInt(success.getId())).future.complete(success.getMessageId());
+            }
+            for (BatchResultErrorEntry failure : result.getFailed()) {
+                handleFailedEntry(batch.get(Integer.parseInt(failure.getId())), failure);
+            }
+        } catch (AmazonClientException e) {
+            failBatch(batch, e);
+        }
+    }
+
+    /**
+     * @return the size SQS counts against its limit: the body plus every attribute's name, type and value
+     */
+    static int sizeOf(SendMessageBatchRequestEntry message) {
+        int size = message.getMessageBody().getBytes(StandardCharsets.UTF_8).length;
+        for (Map.Entry<String, MessageAttributeValue> attribute : message.getMessageAttributes().entrySet()) {
+            MessageAttributeValue value = attribute.getValue();
+            size += attribute.getKey().length() + value.getDataType().length();
+            if (value.getStringValue() != null) {
+                size += value.getStringValue().getBytes(StandardCharsets.UTF_8).length;
+            } else if (value.getBinaryValue() != null) {
+                size += value.getBinaryValue().remaining();
+            }
+        }
+        return size;
+    }
+}
@@ -1,10 +1,7 @@
 package com.zuildorf.service.aws.api;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.AnonymousAWSCredentials;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.auth.PropertiesFileCredentialsProvider;
 import com.amazonaws.auth.policy.Policy;
 import com.amazonaws.auth.policy.Principal;
 import com.amazonaws.auth.policy.Resource;
@@ -12,148 +9,438 @@ import com.amazonaws.auth.policy.Statement;
 import com.amazonaws.auth.policy.actions.SQSActions;
 import com.amazonaws.auth.policy.conditions.ArnCondition;
 import com.amazonaws.auth.policy.conditions.ConditionFactory;
-import com.amazonaws.regions.Region;
-import com.amazonaws.regions.Regions;
-import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
 import com.amazonaws.services.sqs.model.*;
+import com.zuildorf.config.AwsClientFactory;
 import com.zuildorf.error.AwsApiException;
-import org.apache.commons.lang3.StringUtils;
+import com.zuildorf.service.cache.TtlCache;
+import com.zuildorf.service.codec.EncodedMessage;
+import com.zuildorf.service.codec.MessageCodec;
+import com.zuildorf.service.metrics.MetricsRegistry;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
+ * Queue administration calls have {@code Async} variants on the async SQS client, for request handlers that should not
+ * hold a thread while waiting on AWS. Queue names are still resolved to urls synchronously, almost always from the
+ * resolver's cache.
+ *
  * Created by Milos Leposavic.
  */
 @Component
 public class SQSService {
+    private static final String FIFO_SUFFIX = ".fifo";
+
     private Logger log = Logger.getLogger(SQSService.class);
-    private final AmazonSQSClient sqsClient;
+    private final AmazonSQS sqsClient;
+    private final AmazonSQSAsync sqsAsyncClient;
     private final String defaultQueueName;
-    private final String defaultQueueUrl;
-    private final String defaultQueueArn;
+    private final SQSSendBatcher sendBatcher;
+    private final SQSDeleteBatcher deleteBatcher;
+    private final TtlCache<String, Map<String, String>> queueInfoCache;
+    private final TtlCache<String, List<String>> queueListCache;
+    private final ScheduledExecutorService resolverScheduler;
+    private final QueueResolver queueResolver;
+    private final MessageCodec codec;
     private SNSService snsService;
 
     @Autowired
-    public SQSService(@Value("${aws.api.credentials.file.path}") String apiProperties,
-                      @Value("${aws.region}") String region,
-                      @Value("${aws.accessKey}") String accessKey,
-                      @Value("${aws.secretKey}") String secretKey,
+    public SQSService(AwsClientFactory clientFactory,
                       @Value("${sqs.default.queue.name}") String defaultQueueName,
-                      SNSService sns) {
+                      @Value("${sqs.producer.linger.ms}") long producerLingerMillis,
+                      @Value("${sqs.producer.max.retries}") int producerMaxRetries,
+                      @Value("${sqs.producer.sender.threads}") int producerSenderThreads,
+                      @Value("${sqs.consumer.ack.linger.ms}") long ackLingerMillis,
+                      @Value("${sqs.consumer.ack.max.retries}") int ackMaxRetries,
+                      @Value("${sqs.consumer.ack.threads}") int ackThreads,
+                      @Value("${cache.metadata.ttl.ms}") long cacheTtlMillis,
+                      @Value("${cache.metadata.max.entries}") int cacheMaxEntries,
+                      @Value("${resolver.refresh.interval.ms}") long resolverRefreshMillis,
+                      SNSService sns,
+                      MessageCodec codec,
+                      MetricsRegistry metrics) {
         snsService = sns;
-        try {
-            if (StringUtils.isNotBlank(apiProperties)) {
-                sqsClient = new AmazonSQSClient(new PropertiesFileCredentialsProvider(apiProperties))
-                        .withRegion(Region.getRegion(Regions.fromName(region)));
-            } else if (StringUtils.isNotBlank(accessKey) && StringUtils.isNotBlank(secretKey)) {
-                sqsClient = new AmazonSQSClient(new BasicAWSCredentials(accessKey, secretKey))
-                        .withRegion(Region.getRegion(Regions.fromName(region)));
-            } else {
-                log.info("Unable to get aws credential properties, creating \"anonymous\" credentials. Request will not be signed.");
-                sqsClient = new AmazonSQSClient(new AWSStaticCredentialsProvider(new AnonymousAWSCredentials()))
-                        .withRegion(Region.getRegion(Regions.fromName(region)));
-            }
-
-            this.defaultQueueName = defaultQueueName;
-            defaultQueueUrl = sqsClient.createQueue(defaultQueueName).getQueueUrl();
-            log.info("Default queue url: " + defaultQueueUrl);
+        this.codec = codec;
+        sqsClient = clientFactory.getSqsClient();
+        sqsAsyncClient = clientFactory.getSqsAsyncClient();
+        queueInfoCache = new TtlCache<>("sqs-queue-info", cacheTtlMillis, cacheMaxEntries);
+        queueListCache = new TtlCache<>("sqs-queue-list", cacheTtlMillis, 1);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sqs-resolver-");
+        threadFactory.setDaemon(true);
+        resolverScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        queueResolver = new QueueResolver(sqsClient, resolverScheduler, resolverRefreshMillis);
+        sendBatcher = new SQSSendBatcher(sqsClient, producerLingerMillis, producerMaxRetries, producerSenderThreads, metrics);
+        deleteBatcher = new SQSDeleteBatcher(sqsClient, ackLingerMillis, ackMaxRetries, ackThreads, metrics);
+        this.defaultQueueName = defaultQueueName;
+    }
 
-            defaultQueueArn = sqsClient.getQueueAttributes(new GetQueueAttributesRequest(defaultQueueUrl)
-                    .withAttributeNames(new ArrayList<>(Collections.singletonList("All"))))
-                    .getAttributes().get(("QueueArn"));
-            log.info("Default queue arn: " + defaultQueueArn);
+    public String createQueue(String queueName) throws AwsApiException {
+        return createQueue(queueName, false);
+    }
 
-            // subscribing default queue to topic
-            subscribeDefaultQueueToDefaultTopic();
+    /**
+     * Creates a queue, as a FIFO queue if its name ends in {@code .fifo}.
+     *
+     * @param contentBasedDeduplication for FIFO queues, whether SQS deduplicates messages sent without a deduplication
+     *                                  id by a hash of their body
+     */
+    public String createQueue(String queueName, boolean contentBasedDeduplication) throws AwsApiException {
+        try {
+            log.info("Creating SQS queue: " + queueName);
+            return queueCreated(queueName, sqsClient.createQueue(createQueueRequest(queueName, contentBasedDeduplication)));
         } catch (AmazonServiceException e) {
-            throw new AwsApiException(String.valueOf(e.getStatusCode()), e);
+            throw new AwsApiException(e.getStatusCode(), e);
         }
     }
 
-    public String createQueue(String queueName) throws AwsApiException {
+    public CompletableFuture<String> createQueueAsync(String queueName, boolean contentBasedDeduplication) {
+        log.info("Creating SQS queue: " + queueName);
+        CreateQueueRequest request = createQueueRequest(queueName, contentBasedDeduplication);
+        return new AwsAsyncCall<CreateQueueRequest, CreateQueueResult>()
+                .send(handler -> sqsAsyncClient.createQueueAsync(request, handler))
+                .thenApply(result -> queueCreated(queueName, result));
+    }
+
+    private static CreateQueueRequest createQueueRequest(String queueName, boolean contentBasedDeduplication) {
+        CreateQueueRequest request = new CreateQueueRequest(queueName);
+        if (isFifo(queueName)) {
+            request.addAttributesEntry("FifoQueue", "true")
+                    .addAttributesEntry("ContentBasedDeduplication", String.valueOf(contentBasedDeduplication));
+        }
+        return request;
+    }
+
+    private String queueCreated(String queueName, CreateQueueResult createQueueResult) {
+        log.info("Created queue url: " + createQueueResult.getQueueUrl());
+        queueResolver.register(queueName, createQueueResult.getQueueUrl());
+        queueListCache.invalidateAll();
+        return createQueueResult.getQueueUrl();
+    }
+
+    /**
+     * Returns the queue's attributes, served from a short-lived cache so that polling clients do not each cost a
+     * GetQueueAttributes call.
+     */
+    public Map<String, String> getQueueInfo(String queue) throws AwsApiException {
+        String queueURL = queueResolver.resolveUrl(queue);
+        return queueInfoCache.get(queueURL, () -> loadQueueInfo(queueURL));
+    }
+
+    public CompletableFuture<Map<String, String>> getQueueInfoAsync(String queue) {
         try {
-            log.info("Creating SQS queue: " + queueName);
-            CreateQueueResult createQueueResult = sqsClient.createQueue(new CreateQueueRequest(queueName));
-            log.info("Created queue url: " + createQueueResult.getQueueUrl());
-            return createQueueResult.getQueueUrl();
-        } catch (AmazonServiceException e) {
-            throw new AwsApiException(String.valueOf(e.getStatusCode()), e);
+            String queueURL = queueResolver.resolveUrl(queue);
+            return queueInfoCache.getAsync(queueURL, () -> new AwsAsyncCall<GetQueueAttributesRequest, GetQueueAttributesResult>()
+                    .send(handler -> sqsAsyncClient.getQueueAttributesAsync(queueInfoRequest(queueURL), handler))
+                    .thenApply(result -> Collections.unmodifiableMap(result.getAttributes())));
+        } catch (AwsApiException e) {
+            return AwsAsyncCall.failed(e);
         }
     }
 
-    public Map<String, String> getQueueInfo(String queueURL) throws AwsApiException {
+    /**
+     * @param queue a queue name or url
+     * @return the queue url, looked up through GetQueueUrl the first time a name is seen
+     */
+    public String resolveQueueUrl(String queue) throws AwsApiException {
+        return queueResolver.resolveUrl(queue);
+    }
+
+    public String resolveQueueArn(String queue) throws AwsApiException {
+        return queueResolver.resolveArn(queue);
+    }
+
+    private Map<String, String> loadQueueInfo(String queueURL) throws AwsApiException {
         try {
-            GetQueueAttributesRequest request = new GetQueueAttributesRequest()
-                    .withQueueUrl(queueURL)
-                    .withAttributeNames(new ArrayList<>(Collections.singletonList("All")));
-            GetQueueAttributesResult result = sqsClient.getQueueAttributes(request);
+            GetQueueAttributesResult result = sqsClient.getQueueAttributes(queueInfoRequest(queueURL));
 
-            return result.getAttributes();
+            return Collections.unmodifiableMap(result.getAttributes());
         } catch (AmazonServiceException e) {
-            throw new AwsApiException(String.valueOf(e.getStatusCode()), e);
+            throw new AwsApiException(e.getStatusCode(), e);
         }
     }
 
+    private static GetQueueAttributesRequest queueInfoRequest(String queueURL) {
+        return new GetQueueAttributesRequest()
+                .withQueueUrl(queueURL)
+                .withAttributeNames(new ArrayList<>(Collections.singletonList("All")));
+    }
+
+    /**
+     * Returns the url of every queue, cached like {@link #getQueueInfo}. ListQueues in this SDK version has no
+     * pagination and returns at most 1000 urls.
+     */
     public List<String> listQueues() throws AwsApiException {
+        return queueListCache.get("all", this::loadQueues);
+    }
+
+    public CompletableFuture<List<String>> listQueuesAsync() {
+        return queueListCache.getAsync("all", () -> new AwsAsyncCall<ListQueuesRequest, ListQueuesResult>()
+                .send(handler -> sqsAsyncClient.listQueuesAsync(new ListQueuesRequest(), handler))
+                .thenApply(result -> Collections.unmodifiableList(result.getQueueUrls())));
+    }
+
+    private List<String> loadQueues() throws AwsApiException {
         try {
             ListQueuesResult result = sqsClient.listQueues(new ListQueuesRequest());
-            return result.getQueueUrls();
+            return Collections.unmodifiableList(result.getQueueUrls());
         } catch (AmazonServiceException e) {
-            throw new AwsApiException(String.valueOf(e.getStatusCode()), e);
+            throw new AwsApiException(e.getStatusCode(), e);
         }
     }
 
-    public String deleteQueue(String queueURL) throws AwsApiException {
+    public String deleteQueue(String queue) throws AwsApiException {
+        String queueURL = queueResolver.resolveUrl(queue);
         try {
             log.info("Deleting Amazon SQS Queue. Queue URL: " + queueURL);
+            return queueDeleted(queueURL, sqsClient.deleteQueue(new DeleteQueueRequest(queueURL)));
+        } catch (AmazonServiceException e) {
+            throw new AwsApiException(e.getStatusCode(), e);
+        }
+    }
+
+    public CompletableFuture<String> deleteQueueAsync(String queue) {
+        String queueURL;
+        try {
+            queueURL = queueResolver.resolveUrl(queue);
+        } catch (AwsApiException e) {
+            return AwsAsyncCall.failed(e);
+        }
+        log.info("Deleting Amazon SQS Queue. Queue URL: " + queueURL);
+        return new AwsAsyncCall<DeleteQueueRequest, DeleteQueueResult>()
+                .send(handler -> sqsAsyncClient.deleteQueueAsync(new DeleteQueueRequest(queueURL), handler))
+                .thenApply(result -> queueDeleted(queueURL, result));
+    }
+
+    private String queueDeleted(String queueURL, DeleteQueueResult result) {
+        String resp = result.getSdkResponseMetadata().toString();
+        log.info("Queue deleted successfully: " + resp);
+        queueInfoCache.invalidate(queueURL);
+        queueListCache.invalidateAll();
+        queueResolver.forget(queueURL);
+        return resp;
+    }
+
+    /**
+     * Queues a message for delivery. Messages sent to the same queue are coalesced into SendMessageBatch calls, and
+     * the returned future completes with the SQS message id once the batch containing the message has been sent. The
+     * body goes through the {@link MessageCodec}, so large bodies are compressed or offloaded before batching.
+     */
+    public CompletableFuture<String> sendMessageAsync(String queue, String message) {
+        return sendMessageAsync(queue, message, null, null);
+    }
+
+    /**
+     * Like {@link #sendMessageAsync(String, String)}, for FIFO queues.
+     *
+     * @param groupId         the message group, within which SQS delivers messages in the order they were sent
+     * @param deduplicationId if set, messages with the same id sent within five minutes are delivered once; may be
+     *                        left out for queues with content-based deduplication
+     */
+    public CompletableFuture<String> sendMessageAsync(String queue, String message, String groupId, String deduplicationId) {
+        try {
+            EncodedMessage encoded = codec.encode(message);
+            return sendBatcher.send(queueResolver.resolveUrl(queue), new SendMessageBatchRequestEntry()
+                    .withMessageBody(encoded.getBody())
+                    .withMessageAttributes(encoded.toSqsAttributes())
+                    .withMessageGroupId(groupId)
+                    .withMessageDeduplicationId(deduplicationId));
+        } catch (AwsApiException e) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
 
-            String resp = sqsClient.deleteQueue(new DeleteQueueRequest(queueURL))
-                    .getSdkResponseMetadata()
-                    .toString();
-            log.info("Queue deleted successfully: " + resp);
-            return resp;
+    /**
+     * Sends a received message on to another queue as it is, body and message attributes unchanged and without going
+     * through the codec, batched like {@link #sendMessageAsync}. Forwarding to a FIFO queue keeps the message's group
+     * and deduplication ids.
+     */
+    public CompletableFuture<String> forwardMessageAsync(String queue, Message message) {
+        try {
+            SendMessageBatchRequestEntry entry = new SendMessageBatchRequestEntry()
+                    .withMessageBody(message.getBody())
+                    .withMessageAttributes(message.getMessageAttributes());
+            if (isFifo(queue)) {
+                entry.withMessageGroupId(message.getAttributes().get("MessageGroupId"))
+                        .withMessageDeduplicationId(message.getAttributes().get("MessageDeduplicationId"));
+            }
+            return sendBatcher.send(queueResolver.resolveUrl(queue), entry);
+        } catch (AwsApiException e) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    public String sendMessage(String queue, String message) throws AwsApiException {
+        try {
+            return sendMessageAsync(queue, message).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof AwsApiException) {
+                throw (AwsApiException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public List<Message> receiveMessages(String queueURL, int maxNumberOfMessages, int waitTimeSeconds,
+                                         int visibilityTimeoutSeconds) throws AwsApiException {
+        try {
+            ReceiveMessageRequest request = new ReceiveMessageRequest(queueURL)
+                    .withMaxNumberOfMessages(maxNumberOfMessages)
+                    .withWaitTimeSeconds(waitTimeSeconds)
+                    .withVisibilityTimeout(visibilityTimeoutSeconds)
+                    .withAttributeNames("All")
+                    .withMessageAttributeNames("All");
+            return sqsClient.receiveMessage(request).getMessages();
         } catch (AmazonServiceException e) {
-            throw new AwsApiException(String.valueOf(e.getStatusCode()), e);
+            throw new AwsApiException(e.getStatusCode(), e);
+        } catch (AmazonClientException e) {
+            // SQS could not be reached, the next receive may succeed
+            throw new AwsApiException(503, e);
         }
     }
 
-    private String subscribeDefaultQueueToDefaultTopic() throws AwsApiException {
-        String queueArn;
+    public void changeMessageVisibility(String queueURL, String receiptHandle, int visibilityTimeoutSeconds) throws AwsApiException {
         try {
-            // before subscribing, policy must be set on sqs queue, to allow the topic to send messages
-            Policy policy = new Policy("AllowTopicToSendMessagesToSQS")
-                    .withStatements(
-                            new Statement(Statement.Effect.Allow)
-                                    .withPrincipals(Principal.All)
-                                    .withActions(SQSActions.SendMessage)
-                                    .withResources(new Resource(defaultQueueArn))
-                                    .withConditions(new ArnCondition(ArnCondition.ArnComparisonType.ArnEquals, ConditionFactory.SOURCE_ARN_CONDITION_KEY, snsService.getDefaultTopicArn()))
-                    );
+            sqsClient.changeMessageVisibility(new ChangeMessageVisibilityRequest(queueURL, receiptHandle, visibilityTimeoutSeconds));
+        } catch (AmazonServiceException e) {
+            throw new AwsApiException(e.getStatusCode(), e);
+        }
+    }
+
+    public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(String queueURL,
+                                                                         List<ChangeMessageVisibilityBatchRequestEntry> entries) throws AwsApiException {
+        try {
+            return sqsClient.changeMessageVisibilityBatch(new ChangeMessageVisibilityBatchRequest(queueURL, entries));
+        } catch (AmazonServiceException e) {
+            throw new AwsApiException(e.getStatusCode(), e);
+        }
+    }
+
+    public void deleteMessage(String queueURL, String receiptHandle) throws AwsApiException {
+        try {
+            sqsClient.deleteMessage(new DeleteMessageRequest(queueURL, receiptHandle));
+        } catch (AmazonServiceException e) {
+            throw new AwsApiException(e.getStatusCode(), e);
+        }
+    }
+
+    /**
+     * Acknowledges a consumed message. Receipt handles for the same queue are coalesced into DeleteMessageBatch calls,
+     * and the returned future completes once the delete has been confirmed.
+     */
+    public CompletableFuture<Void> deleteMessageAsync(String queueURL, String receiptHandle) {
+        return deleteBatcher.delete(queueURL, receiptHandle);
+    }
+
+    public List<Map<String, Object>> getCacheStats() {
+        return Arrays.asList(queueInfoCache.getStats(), queueListCache.getStats());
+    }
+
+    public Map<String, Object> getAcknowledgementStats() {
+        return deleteBatcher.getStats();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        log.info("Flushing pending SQS message batches.");
+        sendBatcher.shutdown();
+        deleteBatcher.shutdown();
+        resolverScheduler.shutdownNow();
+    }
+
+    public Map<String, String> subscribeQueueToTopics(String queue, Collection<String> topics) throws AwsApiException {
+        return subscribeQueueToTopics(queue, topics, null, false);
+    }
+
+    /**
+     * Subscribes a queue to one or more topics. The queue's policy is replaced with one allowing exactly these topics
+     * to send to it, so every topic the queue should stay subscribed to has to be passed in the same call. Topics the
+     * queue is already subscribed to are not subscribed again, but get the given filter policy and delivery mode.
+     *
+     * @param filterPolicy       an SNS filter policy applied to every subscription, or null to leave it unset
+     * @param rawMessageDelivery deliver the published body and attributes as they are instead of in the notification
+     *                           envelope, which lets consumers route on the attributes
+     * @return the subscription arn for every topic arn
+     */
+    public Map<String, String> subscribeQueueToTopics(String queue, Collection<String> topics, String filterPolicy,
+                                                      boolean rawMessageDelivery) throws AwsApiException {
+        String queueUrl = queueResolver.resolveUrl(queue);
+        String queueArn = queueResolver.resolveArn(queue);
+        List<String> topicArns = new ArrayList<>(topics.size());
+        for (String topic : topics) {
+            topicArns.add(snsService.resolveTopicArn(topic));
+        }
+        try {
+            // before subscribing, policy must be set on sqs queue, to allow the topics to send messages
+            Policy policy = new Policy("AllowTopicsToSendMessagesToSQS");
+            List<Statement> statements = new ArrayList<>(topicArns.size());
+            for (String topicArn : topicArns) {
+                statements.add(new Statement(Statement.Effect.Allow)
+                        .withPrincipals(Principal.All)
+                        .withActions(SQSActions.SendMessage)
+                        .withResources(new Resource(queueArn))
+                        .withConditions(new ArnCondition(ArnCondition.ArnComparisonType.ArnEquals, ConditionFactory.SOURCE_ARN_CONDITION_KEY, topicArn)));
+            }
+            policy.setStatements(statements);
             Map<String, String> attributes = new HashMap<>();
             attributes.put("Policy", policy.toJson());
-            SetQueueAttributesResult setQueueAttributesResult = sqsClient.setQueueAttributes(defaultQueueUrl, attributes);
-            log.info("Created policy allowing the sending of messages from the topic to the queue: " + setQueueAttributesResult.toString());
-
-            // after setting the policy, subscribe the queue
-            return snsService.subscribeToTopic(snsService.getDefaultTopicArn(), "sqs", defaultQueueArn);
+            sqsClient.setQueueAttributes(queueUrl, attributes);
+            queueInfoCache.invalidate(queueUrl);
+            log.info("Set policy allowing " + topicArns + " to send messages to " + queueArn);
         } catch (AmazonServiceException e) {
-            throw new AwsApiException(String.valueOf(e.getStatusCode()), e);
+            throw new AwsApiException(e.getStatusCode(), e);
         }
+
+        // after setting the policy, subscribe the queue
+        Map<String, String> subscriptions = new LinkedHashMap<>();
+        for (String topicArn : topicArns) {
+            String subscriptionArn = snsService.findSubscription(topicArn, "sqs", queueArn);
+            if (subscriptionArn == null) {
+                subscriptionArn = snsService.subscribeToTopic(topicArn, "sqs", queueArn, filterPolicy);
+            } else if (filterPolicy != null) {
+                snsService.setSubscriptionAttribute(subscriptionArn, "FilterPolicy", filterPolicy);
+            }
+            if (rawMessageDelivery) {
+                snsService.setSubscriptionAttribute(subscriptionArn, "RawMessageDelivery", "true");
+            }
+            subscriptions.put(topicArn, subscriptionArn);
+        }
+        return subscriptions;
+    }
+
+    /**
+     * @param queue a queue name or url
+     */
+    public static boolean isFifo(String queue) {
+        return queue.endsWith(FIFO_SUFFIX);
     }
 
     public String getDefaultQueueName() {
         return defaultQueueName;
     }
 
-    public String getDefaultQueueUrl() {
-        return defaultQueueUrl;
+    /**
+     * Resolves the default queue's url. The queue itself is created by {@link AwsResourceBootstrap}.
+     */
+    public String getDefaultQueueUrl() throws AwsApiException {
+        return queueResolver.resolveUrl(defaultQueueName);
     }
 
-    public String getDefaultQueueArn() {
-        return defaultQueueArn;
+    public String getDefaultQueueArn() throws AwsApiException {
+        return queueResolver.resolveArn(defaultQueueName);
     }
 }
@@ -0,0 +1,224 @@
+package com.zuildorf.service.aws.api;
+
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.zuildorf.error.AwsApiException;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps in-flight messages invisible while their handlers run. Tracked receipt handles sit in a hashed timer wheel
+ * driven by a single thread; when a handle comes due its visibility timeout is extended through a
+ * ChangeMessageVisibilityBatch call for its queue and it is put back on the wheel. Releasing a lease only flags it, the
+ * wheel drops it the next time its slot is visited.
+ */
+@Component
+public class SQSVisibilityHeartbeat {
+    private static final int WHEEL_SIZE = 512;
+    private static final int MAX_BATCH_ENTRIES = 10;
+
+    private Logger log = Logger.getLogger(SQSVisibilityHeartbeat.class);
+    private final SQSService sqsService;
+    private final int visibilityTimeoutSeconds;
+    private final long tickMillis;
+    private final long extendEveryTicks;
+    private final long maxExtensionMillis;
+    private final List<List<Lease>> wheel;
+    private final Queue<Lease> registrations = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger tracked = new AtomicInteger();
+    private final LongAdder extensions = new LongAdder();
+    private final LongAdder extensionFailures = new LongAdder();
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long currentTick;
+
+    @Autowired
+    public SQSVisibilityHeartbeat(SQSService sqsService,
+                                  @Value("${sqs.visibility.timeout.seconds}") int visibilityTimeoutSeconds,
+                                  @Value("${sqs.visibility.heartbeat.tick.ms}") long tickMillis,
+                                  @Value("${sqs.visibility.heartbeat.max.extension.seconds}") long maxExtensionSeconds,
+                                  MetricsRegistry metrics) {
+        this.sqsService = sqsService;
+        this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+        this.tickMillis = tickMillis;
+        // extend halfway through the timeout so one slow or failed batch call still leaves time for the next
+        this.extendEveryTicks = Math.max(1, TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds) / 2 / tickMillis);
+        this.maxExtensionMillis = TimeUnit.SECONDS.toMillis(maxExtensionSeconds);
+        metrics.gauge("sqs.visibility.tracked", tracked::get);
+        this.wheel = new ArrayList<>(WHEEL_SIZE);
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sqs-visibility-heartbeat-");
+        threadFactory.setDaemon(true);
+        this.worker = threadFactory.newThread(this::run);
+        this.worker.start();
+    }
+
+    /**
+     * Starts extending the visibility of a received message, the first time half a visibility timeout after it was
+     * received, or on the next tick if that has already passed. The caller must release the lease once the message has
+     * been acknowledged or has failed.
+     *
+     * @param receivedAt when the receive that returned the message completed, in epoch millis, or 0 if unknown
+     */
+    public Lease track(String queueUrl, String receiptHandle, long receivedAt) {
+        Lease lease = new Lease(queueUrl, receiptHandle, receivedAt);
+        tracked.incrementAndGet();
+        registrations.add(lease);
+        return lease;
+    }
+
+    public int getVisibilityTimeoutSeconds() {
+        return visibilityTimeoutSeconds;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("tracked", tracked.get());
+        stats.put("extensions", extensions.sum());
+        stats.put("extensionFailures", extensionFailures.sum());
+        stats.put("visibilityTimeoutSeconds", visibilityTimeoutSeconds);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long nextTickAt = System.currentTimeMillis() + tickMillis;
+        while (running) {
+            try {
+                long sleep = nextTickAt - System.currentTimeMillis();
+                if (sleep > 0) {
+                    Thread.sleep(sleep);
+                }
+                nextTickAt += tickMillis;
+                currentTick++;
+                drainRegistrations();
+                extend(collectDue());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Visibility heartbeat tick failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void drainRegistrations() {
+        Lease lease;
+        while ((lease = registrations.poll()) != null) {
+            long firstExtensionAt = lease.heldSince + extendEveryTicks * tickMillis;
+            schedule(lease, Math.max(1, (firstExtensionAt - System.currentTimeMillis()) / tickMillis));
+        }
+    }
+
+    private void schedule(Lease lease, long ticksFromNow) {
+        long dueTick = currentTick + ticksFromNow;
+        lease.remainingRounds = (ticksFromNow - 1) / WHEEL_SIZE;
+        wheel.get((int) (dueTick % WHEEL_SIZE)).add(lease);
+    }
+
+    private Map<String, List<Lease>> collectDue() {
+        List<Lease> slot = wheel.get((int) (currentTick % WHEEL_SIZE));
+        Map<String, List<Lease>> due = new HashMap<>();
+        Iterator<Lease> iterator = slot.iterator();
+        long now = System.currentTimeMillis();
+        while (iterator.hasNext()) {
+            Lease lease = iterator.next();
+            if (lease.released) {
+                iterator.remove();
+            } else if (now - lease.heldSince > maxExtensionMillis) {
+                log.warn("Giving up extending visibility of a message held for more than " + maxExtensionMillis + "ms");
+                lease.release();
+                iterator.remove();
+            } else if (lease.remainingRounds > 0) {
+                lease.remainingRounds--;
+            } else {
+                iterator.remove();
+                due.computeIfAbsent(lease.queueUrl, url -> new ArrayList<>()).add(lease);
+            }
+        }
+        return due;
+    }
+
+    private void extend(Map<String, List<Lease>> due) {
+        for (Map.Entry<String, List<Lease>> queueLeases : due.entrySet()) {
+            List<Lease> leases = queueLeases.getValue();
+            for (int from = 0; from < leases.size(); from += MAX_BATCH_ENTRIES) {
+                List<Lease> batch = leases.subList(from, Math.min(from + MAX_BATCH_ENTRIES, leases.size()));
+                extendBatch(queueLeases.getKey(), batch);
+            }
+        }
+    }
+
+    private void extendBatch(String queueUrl, List<Lease> batch) {
+        List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            entries.add(new ChangeMessageVisibilityBatchRequestEntry(String.valueOf(i), batch.get(i).receiptHandle)
+                    .withVisibilityTimeout(visibilityTimeoutSeconds));
+        }
+        try {
+            ChangeMessageVisibilityBatchResult result = sqsService.changeMessageVisibilityBatch(queueUrl, entries);
+            for (ChangeMessageVisibilityBatchResultEntry success : result.getSuccessful()) {
+                extensions.increment();
+                schedule(batch.get(Integer.parseInt(success.getId())), extendEveryTicks);
+            }
+            for (BatchResultErrorEntry failure : result.getFailed()) {
+                extensionFailures.increment();
+                Lease lease = batch.get(Integer.parseInt(failure.getId()));
+                if (failure.isSenderFault()) {
+                    // the receipt handle is no longer valid, usually because the message was already deleted
+                    lease.release();
+                } else {
+                    schedule(lease, 1);
+                }
+            }
+        } catch (AwsApiException e) {
+            extensionFailures.add(batch.size());
+            log.warn("Unable to extend message visibility on " + queueUrl + ": " + e.getCause().getMessage());
+            for (Lease lease : batch) {
+                schedule(lease, 1);
+            }
+        }
+    }
+
+    public final class Lease {
+        private final String queueUrl;
+        private final String receiptHandle;
+        private final long heldSince;
+        private volatile boolean released;
+        private long remainingRounds;
+
+        private Lease(String queueUrl, String receiptHandle, long receivedAt) {
+            this.queueUrl = queueUrl;
+            this.receiptHandle = receiptHandle;
+            // with the receive time unknown, the message may be close to its timeout, so it is extended right away
+            this.heldSince = receivedAt > 0 ? receivedAt : System.currentTimeMillis() - extendEveryTicks * tickMillis;
+        }
+
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                tracked.decrementAndGet();
+            }
+        }
+    }
+}
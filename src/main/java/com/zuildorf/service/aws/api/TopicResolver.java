@@ -0,0 +1,84 @@
+package com.zuildorf.service.aws.api;
+
+import com.amazonaws.services.sns.model.Topic;
+import com.zuildorf.error.AwsApiException;
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Maps topic names to topic arns. SNS has no lookup by name, so misses are answered from the topic list. Cached arns
+ * are checked in the background so that topics deleted outside the application are dropped.
+ */
+class TopicResolver {
+    private Logger log = Logger.getLogger(TopicResolver.class);
+    private final Supplier<List<Topic>> topicLister;
+    private final Predicate<String> topicExists;
+    private final ConcurrentMap<String, String> arns = new ConcurrentHashMap<>();
+
+    TopicResolver(Supplier<List<Topic>> topicLister, Predicate<String> topicExists,
+                  ScheduledExecutorService scheduler, long refreshIntervalMillis) {
+        this.topicLister = topicLister;
+        this.topicExists = topicExists;
+        scheduler.scheduleWithFixedDelay(this::refresh, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    static boolean isArn(String topic) {
+        return topic.startsWith("arn:");
+    }
+
+    static String nameFromArn(String topicArn) {
+        return topicArn.substring(topicArn.lastIndexOf(':') + 1);
+    }
+
+    /**
+     * @param topic a topic name or a topic arn, arns are returned unchanged
+     */
+    String resolveArn(String topic) throws AwsApiException {
+        if (isArn(topic)) {
+            return topic;
+        }
+        String arn = arns.get(topic);
+        if (arn == null) {
+            for (Topic candidate : topicLister.get()) {
+                if (nameFromArn(candidate.getTopicArn()).equals(topic)) {
+                    arn = candidate.getTopicArn();
+                    arns.put(topic, arn);
+                    break;
+                }
+            }
+        }
+        if (arn == null) {
+            throw new AwsApiException(404, new IllegalArgumentException("Topic does not exist: " + topic));
+        }
+        return arn;
+    }
+
+    void register(String topicArn) {
+        arns.put(nameFromArn(topicArn), topicArn);
+    }
+
+    void forget(String topic) {
+        arns.remove(isArn(topic) ? nameFromArn(topic) : topic);
+    }
+
+    private void refresh() {
+        for (Map.Entry<String, String> entry : arns.entrySet()) {
+            try {
+                if (!topicExists.test(entry.getValue())) {
+                    log.info("Topic " + entry.getKey() + " no longer exists, removing it from the resolver.");
+                    arns.remove(entry.getKey(), entry.getValue());
+                }
+            } catch (RuntimeException e) {
+                log.warn("Unable to refresh arn of topic " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+}
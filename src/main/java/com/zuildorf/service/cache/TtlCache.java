@@ -0,0 +1,139 @@
+package com.zuildorf.service.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Small in-process cache with a per-entry time to live and least-recently-used eviction once it holds
+ * {@code maxEntries}. Concurrent misses on the same key share one load instead of each calling the loader.
+ */
+public class TtlCache<K, V> {
+    private final String name;
+    private final long ttlMillis;
+    private final LinkedHashMap<K, CachedValue<V>> entries;
+    private final ConcurrentMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public TtlCache(String name, long ttlMillis, final int maxEntries) {
+        this.name = name;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value for the key, calling the loader on a miss or after the entry has expired. Exceptions
+     * thrown by the loader are rethrown to every caller waiting on that load and nothing is cached.
+     */
+    public V get(K key, Supplier<V> loader) {
+        return join(getAsync(key, () -> CompletableFuture.completedFuture(loader.get())));
+    }
+
+    /**
+     * Like {@link #get}, for loaders that complete asynchronously. A hit returns a completed future.
+     */
+    public CompletableFuture<V> getAsync(K key, Supplier<CompletableFuture<V>> loader) {
+        synchronized (entries) {
+            CachedValue<V> entry = entries.get(key);
+            if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+                hits.increment();
+                return CompletableFuture.completedFuture(entry.value);
+            }
+        }
+        misses.increment();
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> existing = loading.putIfAbsent(key, load);
+        if (existing != null) {
+            return existing;
+        }
+        CompletableFuture<V> source;
+        try {
+            source = loader.get();
+        } catch (RuntimeException e) {
+            source = new CompletableFuture<>();
+            source.completeExceptionally(e);
+        }
+        source.whenComplete((value, error) -> {
+            if (error == null) {
+                synchronized (entries) {
+                    entries.put(key, new CachedValue<>(value, System.currentTimeMillis() + ttlMillis));
+                }
+            }
+            loading.remove(key, load);
+            if (error == null) {
+                load.complete(value);
+            } else {
+                load.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            }
+        });
+        return load;
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", name);
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("evictions", evictions.sum());
+        stats.put("ttlMillis", ttlMillis);
+        return stats;
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static final class CachedValue<V> {
+        private final V value;
+        private final long expiresAt;
+
+        CachedValue(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.zuildorf.service.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Holds message bodies that are too large to send through SQS or SNS. The {@link MessageCodec} stores an oversized body
+ * here and sends its key in place of the body. Stores are expected to expire blobs on their own after a retention
+ * period, since a message published to a topic may be consumed from several queues.
+ */
+public interface BlobStore {
+    /**
+     * @return the name recorded with offloaded messages, so consumers can tell which store holds the body
+     */
+    String getName();
+
+    /**
+     * @return the key the blob can be opened with
+     */
+    String put(byte[] data) throws IOException;
+
+    InputStream open(String key) throws IOException;
+}
@@ -0,0 +1,81 @@
+package com.zuildorf.service.codec;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compression applied to a body, named on the wire by the {@link MessageCodec#ENCODING_ATTRIBUTE} attribute.
+ */
+enum Compression {
+    IDENTITY("identity") {
+        @Override
+        OutputStream compressing(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        InputStream decompressing(InputStream in) {
+            return in;
+        }
+    },
+    GZIP("gzip") {
+        @Override
+        OutputStream compressing(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, 8192);
+        }
+
+        @Override
+        InputStream decompressing(InputStream in) throws IOException {
+            return new GZIPInputStream(in, 8192);
+        }
+    },
+    LZ4("lz4") {
+        @Override
+        OutputStream compressing(OutputStream out) {
+            return new LZ4BlockOutputStream(out);
+        }
+
+        @Override
+        InputStream decompressing(InputStream in) {
+            return new LZ4BlockInputStream(in);
+        }
+    };
+
+    private final String encoding;
+
+    Compression(String encoding) {
+        this.encoding = encoding;
+    }
+
+    String getEncoding() {
+        return encoding;
+    }
+
+    abstract OutputStream compressing(OutputStream out) throws IOException;
+
+    abstract InputStream decompressing(InputStream in) throws IOException;
+
+    byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (OutputStream out = compressing(buffer)) {
+            out.write(data);
+        }
+        return buffer.toByteArray();
+    }
+
+    static Compression of(String encoding) {
+        for (Compression compression : values()) {
+            if (compression.encoding.equalsIgnoreCase(encoding)) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported content encoding: " + encoding);
+    }
+}
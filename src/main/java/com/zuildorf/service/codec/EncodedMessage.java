@@ -0,0 +1,63 @@
+package com.zuildorf.service.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A body ready to be sent, with the message attributes that tell a consumer how to decode it.
+ */
+public final class EncodedMessage {
+    private final String body;
+    private final Map<String, String> attributes;
+    private final int size;
+
+    EncodedMessage(String body, Map<String, String> attributes) {
+        this.body = body;
+        this.attributes = Collections.unmodifiableMap(attributes);
+        // SQS and SNS count attribute names and values against the message size limit
+        int size = body.getBytes(StandardCharsets.UTF_8).length;
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            size += attribute.getKey().length() + "String".length() + attribute.getValue().length();
+        }
+        this.size = size;
+    }
+
+    static EncodedMessage plain(String body) {
+        return new EncodedMessage(body, Collections.<String, String>emptyMap());
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @return the size SQS and SNS count against their message size limit
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public Map<String, com.amazonaws.services.sqs.model.MessageAttributeValue> toSqsAttributes() {
+        Map<String, com.amazonaws.services.sqs.model.MessageAttributeValue> sqsAttributes = new HashMap<>();
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            sqsAttributes.put(attribute.getKey(), new com.amazonaws.services.sqs.model.MessageAttributeValue()
+                    .withDataType("String").withStringValue(attribute.getValue()));
+        }
+        return sqsAttributes;
+    }
+
+    public Map<String, com.amazonaws.services.sns.model.MessageAttributeValue> toSnsAttributes() {
+        Map<String, com.amazonaws.services.sns.model.MessageAttributeValue> snsAttributes = new HashMap<>();
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            snsAttributes.put(attribute.getKey(), new com.amazonaws.services.sns.model.MessageAttributeValue()
+                    .withDataType("String").withStringValue(attribute.getValue()));
+        }
+        return snsAttributes;
+    }
+}
@@ -0,0 +1,113 @@
+package com.zuildorf.service.codec;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Keeps offloaded bodies as files in a local or shared directory, one file per blob named by a random key. Files are
+ * written under a temporary name and moved into place, so a reader never sees a partial blob. Blobs older than the
+ * retention period are deleted by an hourly sweep.
+ */
+@Component
+@ConditionalOnProperty(name = "codec.blob.store", havingValue = "local", matchIfMissing = true)
+public class LocalFileBlobStore implements BlobStore {
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f\\-]{36}");
+
+    private Logger log = Logger.getLogger(LocalFileBlobStore.class);
+    private final Path directory;
+    private final long retentionMillis;
+    private final ScheduledExecutorService sweeper;
+
+    @Autowired
+    public LocalFileBlobStore(@Value("${codec.blob.local.directory}") String directory,
+                              @Value("${codec.blob.retention.hours}") long retentionHours) {
+        this.directory = Paths.get(directory).toAbsolutePath();
+        this.retentionMillis = TimeUnit.HOURS.toMillis(retentionHours);
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create blob directory " + this.directory, e);
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("blob-store-sweeper-");
+        threadFactory.setDaemon(true);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.sweeper.scheduleWithFixedDelay(this::sweep, 1, 60, TimeUnit.MINUTES);
+        log.info("Storing offloaded message bodies in " + this.directory + " for " + retentionHours + " hours");
+    }
+
+    @Override
+    public String getName() {
+        return "local";
+    }
+
+    @Override
+    public String put(byte[] data) throws IOException {
+        String key = UUID.randomUUID().toString();
+        Path temporary = directory.resolve(key + ".tmp");
+        Files.write(temporary, data);
+        Files.move(temporary, directory.resolve(key), StandardCopyOption.ATOMIC_MOVE);
+        return key;
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        if (!KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("Not a blob key: " + key);
+        }
+        try {
+            return Files.newInputStream(directory.resolve(key));
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException("Blob " + key + " does not exist or has expired");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    private void sweep() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        try (Stream<Path> blobs = Files.list(directory)) {
+            long deleted = blobs.filter(blob -> isOlderThan(blob, cutoff)).filter(LocalFileBlobStore::delete).count();
+            if (deleted > 0) {
+                log.info("Deleted " + deleted + " expired message blobs");
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Unable to sweep expired message blobs: " + e.getMessage());
+        }
+    }
+
+    private static boolean isOlderThan(Path blob, long cutoff) {
+        try {
+            return Files.getLastModifiedTime(blob).toMillis() < cutoff;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean delete(Path blob) {
+        try {
+            return Files.deleteIfExists(blob);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.zuildorf.service.codec;
+
+import com.zuildorf.error.AwsApiException;
+import com.zuildorf.service.metrics.Counter;
+import com.zuildorf.service.metrics.DistributionSummary;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import com.zuildorf.service.pipeline.MessageContext;
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Encodes outgoing message bodies and decodes received ones, shared by the SQS and SNS producers and both consumers.
+ * Bodies past the compression threshold are compressed and sent Base64 encoded whenever that makes them smaller, and
+ * bodies that would still exceed the offload threshold are written to the {@link BlobStore} and replaced by the blob
+ * key. Attributes on the message record what was done, so plain messages from other producers pass through unchanged.
+ * Consumers get a {@link MessageContext} whose body is decompressed as it is read instead of up front.
+ */
+@Component
+public class MessageCodec {
+    public static final String ENCODING_ATTRIBUTE = "ContentEncoding";
+    public static final String BLOB_STORE_ATTRIBUTE = "BlobStore";
+
+    private Logger log = Logger.getLogger(MessageCodec.class);
+    private final Compression compression;
+    private final int compressionThreshold;
+    private final int offloadThreshold;
+    private final BlobStore blobStore;
+    private final Map<Compression, Counter> encoded = new EnumMap<>(Compression.class);
+    private final Map<Compression, Counter> decoded = new EnumMap<>(Compression.class);
+    private final Counter offloaded;
+    private final DistributionSummary encodedPercent;
+
+    /**
+     * @param offloadThreshold the largest body, after compression, sent inline. It should leave room below the 256 KB
+     *                         limit for the other message attributes and, for SNS, the notification envelope.
+     */
+    @Autowired
+    public MessageCodec(@Value("${codec.compression}") String compression,
+                        @Value("${codec.compression.threshold.bytes}") int compressionThreshold,
+                        @Value("${codec.offload.threshold.bytes}") int offloadThreshold,
+                        Optional<BlobStore> blobStore,
+                        MetricsRegistry metrics) {
+        this.compression = "none".equalsIgnoreCase(compression) ? Compression.IDENTITY : Compression.of(compression);
+        this.compressionThreshold = compressionThreshold;
+        this.offloadThreshold = offloadThreshold;
+        this.blobStore = blobStore.orElse(null);
+        for (Compression value : Compression.values()) {
+            encoded.put(value, metrics.counter("codec.messages", "direction", "encode", "encoding", value.getEncoding()));
+            decoded.put(value, metrics.counter("codec.messages", "direction", "decode", "encoding", value.getEncoding()));
+        }
+        this.offloaded = metrics.counter("codec.offloaded");
+        this.encodedPercent = metrics.summary("codec.encoded.percent");
+        log.info("Message codec: " + this.compression.getEncoding() + " above " + compressionThreshold
+                + " bytes, offloading above " + offloadThreshold + " bytes to "
+                + (this.blobStore == null ? "nowhere (disabled)" : this.blobStore.getName() + " blob store"));
+    }
+
+    public EncodedMessage encode(String body) throws AwsApiException {
+        byte[] plain = body.getBytes(StandardCharsets.UTF_8);
+        if (plain.length < compressionThreshold && plain.length <= offloadThreshold) {
+            return record(EncodedMessage.plain(body), Compression.IDENTITY, plain.length);
+        }
+        try {
+            byte[] compressed = compression == Compression.IDENTITY ? plain : compression.compress(plain);
+            boolean compressedSmaller = compressed.length < plain.length;
+            if (compressedSmaller) {
+                String inline = Base64.getEncoder().encodeToString(compressed);
+                // Base64 adds a third, which can eat the gain on bodies that barely compress
+                if (inline.length() < plain.length && inline.length() <= offloadThreshold) {
+                    return record(new EncodedMessage(inline, Collections.singletonMap(ENCODING_ATTRIBUTE,
+                            compression.getEncoding())), compression, plain.length);
+                }
+            }
+            if (plain.length <= offloadThreshold) {
+                return record(EncodedMessage.plain(body), Compression.IDENTITY, plain.length);
+            }
+            Compression applied = compressedSmaller ? compression : Compression.IDENTITY;
+            return record(offload(plain.length, compressedSmaller ? compressed : plain, applied), applied, plain.length);
+        } catch (IOException e) {
+            throw new AwsApiException(500, e);
+        }
+    }
+
+    /**
+     * Builds the pipeline context for a received message. An SNS notification envelope is unwrapped first, so stages
+     * see the published body and the publisher's attributes whether or not the subscription uses raw delivery. If the
+     * body was encoded by this codec, the context reads the decoded body from a stream that is only opened when a
+     * stage asks for the body.
+     */
+    public MessageContext toContext(String messageId, String groupId, String body, Map<String, String> attributes) {
+        if (body != null && !attributes.containsKey(ENCODING_ATTRIBUTE) && !attributes.containsKey("TopicArn")
+                && body.startsWith("{") && body.contains("\"TopicArn\"")) {
+            MessageContext unwrapped = fromNotification(messageId, groupId, body, attributes);
+            if (unwrapped != null) {
+                return unwrapped;
+            }
+        }
+        String encoding = attributes.get(ENCODING_ATTRIBUTE);
+        if (encoding == null || body == null) {
+            return new MessageContext(messageId, groupId, body, attributes);
+        }
+        String storeName = attributes.get(BLOB_STORE_ATTRIBUTE);
+        return new MessageContext(messageId, groupId, () -> open(body, encoding, storeName), attributes);
+    }
+
+    private EncodedMessage record(EncodedMessage message, Compression applied, int originalSize) {
+        encoded.get(applied).increment();
+        encodedPercent.record(message.getSize() * 100L / Math.max(1, originalSize));
+        return message;
+    }
+
+    private EncodedMessage offload(int originalSize, byte[] data, Compression applied) throws IOException {
+        if (blobStore == null) {
+            throw new AwsApiException(413, new IllegalArgumentException("Message of " + originalSize
+                    + " bytes exceeds the inline limit of " + offloadThreshold + " bytes and no blob store is configured"));
+        }
+        String key = blobStore.put(data);
+        offloaded.increment();
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(ENCODING_ATTRIBUTE, applied.getEncoding());
+        attributes.put(BLOB_STORE_ATTRIBUTE, blobStore.getName());
+        return new EncodedMessage(key, attributes);
+    }
+
+    private InputStream open(String body, String encoding, String storeName) throws IOException {
+        Compression applied;
+        try {
+            applied = Compression.of(encoding);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        InputStream source;
+        if (storeName == null) {
+            source = Base64.getDecoder().wrap(new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1)));
+        } else if (blobStore != null && blobStore.getName().equals(storeName)) {
+            source = blobStore.open(body);
+        } else {
+            throw new IOException("Message body is held in the " + storeName + " blob store, which is not configured");
+        }
+        decoded.get(applied).increment();
+        return applied.decompressing(source);
+    }
+
+    /**
+     * SNS delivers to queues without raw message delivery inside a JSON envelope, with the publisher's attributes in
+     * the envelope rather than on the SQS message.
+     */
+    private MessageContext fromNotification(String messageId, String groupId, String body, Map<String, String> attributes) {
+        try {
+            JSONObject envelope = new JSONObject(body);
+            if (!"Notification".equals(envelope.optString("Type")) || !envelope.has("Message")) {
+                return null;
+            }
+            Map<String, String> unwrapped = new HashMap<>(attributes);
+            JSONObject messageAttributes = envelope.optJSONObject("MessageAttributes");
+            if (messageAttributes != null && messageAttributes.length() > 0) {
+                for (String name : JSONObject.getNames(messageAttributes)) {
+                    JSONObject attribute = messageAttributes.optJSONObject(name);
+                    if (attribute != null && attribute.has("Value")) {
+                        unwrapped.put(name, attribute.getString("Value"));
+                    }
+                }
+            }
+            if (envelope.opt("Subject") instanceof String) {
+                unwrapped.put("Subject", envelope.getString("Subject"));
+            }
+            unwrapped.put("TopicArn", envelope.optString("TopicArn"));
+            return toContext(messageId, groupId, envelope.getString("Message"), unwrapped);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.zuildorf.service.dedup;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A fixed-size, open-addressed hash table of fingerprints in a memory-mapped file. Each slot holds a 128-bit
+ * fingerprint and the time it was recorded; an all-zero fingerprint marks an empty slot. Segments only grow, and the
+ * store drops a whole segment once everything in it is older than the window. The in-heap Bloom filter, rebuilt when
+ * an existing file is opened, answers most lookups for keys that were never seen without touching the table.
+ */
+final class DedupSegment {
+    private static final int MAGIC = 0x44445550;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_BYTES = 24;
+    private static final double MAX_LOAD = 0.7;
+
+    private final Path file;
+    private final MappedByteBuffer table;
+    private final int capacity;
+    private final int mask;
+    private final long createdAt;
+    private final BloomFilter bloom;
+    private volatile long newestAt;
+    private int count;
+
+    private DedupSegment(Path file, MappedByteBuffer table, int capacity, long createdAt, double falsePositiveRate) {
+        this.file = file;
+        this.table = table;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.createdAt = createdAt;
+        this.newestAt = createdAt;
+        this.bloom = new BloomFilter((long) (capacity * MAX_LOAD), falsePositiveRate);
+    }
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    static DedupSegment create(Path file, int capacity, long createdAt, double falsePositiveRate) throws IOException {
+        int slots = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+        MappedByteBuffer table = map(file, HEADER_BYTES + (long) slots * SLOT_BYTES);
+        table.putInt(0, MAGIC);
+        table.putInt(4, VERSION);
+        table.putInt(8, slots);
+        table.putLong(16, createdAt);
+        return new DedupSegment(file, table, slots, createdAt, falsePositiveRate);
+    }
+
+    /**
+     * Maps an existing segment and rebuilds its Bloom filter and counters from the table.
+     */
+    static DedupSegment open(Path file, double falsePositiveRate) throws IOException {
+        MappedByteBuffer table = map(file, Files.size(file));
+        if (table.capacity() < HEADER_BYTES || table.getInt(0) != MAGIC || table.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a deduplication segment");
+        }
+        int slots = table.getInt(8);
+        if (Integer.bitCount(slots) != 1 || table.capacity() < HEADER_BYTES + (long) slots * SLOT_BYTES) {
+            throw new IOException(file + " is truncated");
+        }
+        DedupSegment segment = new DedupSegment(file, table, slots, table.getLong(16), falsePositiveRate);
+        for (int slot = 0; slot < slots; slot++) {
+            int offset = HEADER_BYTES + slot * SLOT_BYTES;
+            long high = table.getLong(offset);
+            long low = table.getLong(offset + 8);
+            if (high != 0 || low != 0) {
+                segment.count++;
+                segment.bloom.put(high, low);
+                segment.newestAt = Math.max(segment.newestAt, table.getLong(offset + 16));
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * @return whether the fingerprint was recorded at or after {@code notBefore}
+     */
+    boolean contains(long high, long low, long notBefore) {
+        if (!bloom.mightContain(high, low)) {
+            return false;
+        }
+        synchronized (this) {
+            int slot = find(high, low);
+            return slot >= 0 && table.getLong(offset(slot) + 16) >= notBefore;
+        }
+    }
+
+    /**
+     * @return false if the segment is full and the fingerprint was not recorded
+     */
+    synchronized boolean add(long high, long low, long timestamp) {
+        int slot = find(high, low);
+        if (slot >= 0) {
+            table.putLong(offset(slot) + 16, timestamp);
+        } else {
+            if (isFull()) {
+                return false;
+            }
+            slot = -slot - 1;
+            int offset = offset(slot);
+            table.putLong(offset + 16, timestamp);
+            table.putLong(offset + 8, low);
+            table.putLong(offset, high);
+            count++;
+            bloom.put(high, low);
+        }
+        newestAt = Math.max(newestAt, timestamp);
+        return true;
+    }
+
+    synchronized boolean isFull() {
+        return count >= capacity * MAX_LOAD;
+    }
+
+    synchronized int getCount() {
+        return count;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long getNewestAt() {
+        return newestAt;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    void force() {
+        table.force();
+    }
+
+    /**
+     * @return the slot holding the fingerprint, or {@code -(slot + 1)} for the empty slot it would go into
+     */
+    private int find(long high, long low) {
+        int slot = (int) (high ^ (high >>> 32)) & mask;
+        while (true) {
+            int offset = offset(slot);
+            long slotHigh = table.getLong(offset);
+            long slotLow = table.getLong(offset + 8);
+            if (slotHigh == 0 && slotLow == 0) {
+                return -slot - 1;
+            }
+            if (slotHigh == high && slotLow == low) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int offset(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.zuildorf.service.dedup;
+
+import com.zuildorf.service.metrics.Counter;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import com.zuildorf.service.pipeline.MessageContext;
+import com.zuildorf.service.pipeline.MessageStage;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Drops messages whose key has already been processed, keyed on the SQS message id or on a configured attribute. A key
+ * is recorded only once its message has been processed without error, so a message that fails is still processed when
+ * it is redelivered. A copy arriving while the first is still being processed fails instead of being dropped, which
+ * leaves it to be redelivered and dropped once the first has been recorded.
+ */
+@Component
+@Order(MessageStage.DEDUPLICATE)
+@ConditionalOnProperty(name = "dedup.enabled", havingValue = "true")
+public class DeduplicationStage implements MessageStage {
+    private final DeduplicationStore store;
+    private final String keyAttribute;
+    private final ConcurrentMap<String, MessageContext> inProgress = new ConcurrentHashMap<>();
+    private final Counter duplicates;
+
+    @Autowired
+    public DeduplicationStage(DeduplicationStore store,
+                              @Value("${dedup.key.attribute}") String keyAttribute,
+                              MetricsRegistry metrics) {
+        this.store = store;
+        this.keyAttribute = StringUtils.trimToNull(keyAttribute);
+        this.duplicates = metrics.counter("dedup.duplicates");
+        metrics.gauge("dedup.in.progress", inProgress::size);
+    }
+
+    @Override
+    public boolean process(MessageContext context) {
+        String key = keyOf(context);
+        if (key == null) {
+            return true;
+        }
+        if (store.contains(key)) {
+            duplicates.increment();
+            return false;
+        }
+        if (inProgress.putIfAbsent(key, context) != null) {
+            throw new IllegalStateException("Message " + key + " is already being processed");
+        }
+        return true;
+    }
+
+    @Override
+    public void onComplete(MessageContext context, Throwable error) {
+        String key = keyOf(context);
+        if (key != null && inProgress.remove(key, context) && error == null) {
+            store.record(key);
+        }
+    }
+
+    private String keyOf(MessageContext context) {
+        return keyAttribute == null ? context.getMessageId() : context.getAttribute(keyAttribute);
+    }
+}
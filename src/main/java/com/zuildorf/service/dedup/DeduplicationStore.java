@@ -0,0 +1,193 @@
+package com.zuildorf.service.dedup;
+
+import com.zuildorf.service.metrics.MetricsRegistry;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the keys of processed messages for a time window, across restarts. Keys are reduced to 128-bit MD5
+ * fingerprints and recorded in time-sliced {@link DedupSegment}s: new keys go to the active segment, which is replaced
+ * once its slice has passed or it is full, and segments whose newest entry has left the window are deleted. Heap use is
+ * bounded by the Bloom filters of the segments inside the window, and disk use by their tables.
+ */
+@Component
+@ConditionalOnProperty(name = "dedup.enabled", havingValue = "true")
+public class DeduplicationStore {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dedup";
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 26;
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private Logger log = Logger.getLogger(DeduplicationStore.class);
+    private final Path directory;
+    private final long windowMillis;
+    private final long segmentMillis;
+    private final int segmentCapacity;
+    private final double falsePositiveRate;
+    private final List<DedupSegment> segments = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService maintenance;
+    private volatile DedupSegment active;
+
+    @Autowired
+    public DeduplicationStore(@Value("${dedup.directory}") String directory,
+                              @Value("${dedup.window.minutes}") long windowMinutes,
+                              @Value("${dedup.segment.minutes}") long segmentMinutes,
+                              @Value("${dedup.segment.capacity}") int segmentCapacity,
+                              @Value("${dedup.bloom.false.positive.rate}") double falsePositiveRate,
+                              @Value("${dedup.sync.interval.ms}") long syncIntervalMillis,
+                              MetricsRegistry metrics) throws IOException {
+        this.directory = Paths.get(directory).toAbsolutePath();
+        this.windowMillis = TimeUnit.MINUTES.toMillis(windowMinutes);
+        this.segmentMillis = TimeUnit.MINUTES.toMillis(segmentMinutes);
+        this.segmentCapacity = Math.min(segmentCapacity, MAX_SEGMENT_CAPACITY);
+        this.falsePositiveRate = falsePositiveRate;
+        Files.createDirectories(this.directory);
+        loadSegments();
+        roll(System.currentTimeMillis());
+        metrics.gauge("dedup.segments", segments::size);
+        metrics.gauge("dedup.entries", this::countEntries);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("dedup-maintenance-");
+        threadFactory.setDaemon(true);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.maintenance.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        this.maintenance.scheduleWithFixedDelay(this::expire, 1, 1, TimeUnit.MINUTES);
+        log.info("Deduplicating messages over " + windowMinutes + " minutes in " + this.directory + ", "
+                + segments.size() + " segments");
+    }
+
+    /**
+     * @return whether the key was recorded within the window
+     */
+    public boolean contains(String key) {
+        long[] fingerprint = fingerprint(key);
+        long notBefore = System.currentTimeMillis() - windowMillis;
+        for (DedupSegment segment : segments) {
+            if (segment.getNewestAt() >= notBefore && segment.contains(fingerprint[0], fingerprint[1], notBefore)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void record(String key) {
+        long[] fingerprint = fingerprint(key);
+        long now = System.currentTimeMillis();
+        DedupSegment segment = active;
+        if (now - segment.getCreatedAt() >= segmentMillis || !segment.add(fingerprint[0], fingerprint[1], now)) {
+            synchronized (this) {
+                if (active == segment) {
+                    roll(now);
+                }
+                segment = active;
+            }
+            segment.add(fingerprint[0], fingerprint[1], now);
+        }
+    }
+
+    private long countEntries() {
+        long entries = 0;
+        for (DedupSegment segment : segments) {
+            entries += segment.getCount();
+        }
+        return entries;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        maintenance.shutdownNow();
+        sync();
+    }
+
+    private synchronized void roll(long now) {
+        Path file = directory.resolve(SEGMENT_PREFIX + now + "-" + UUID.randomUUID() + SEGMENT_SUFFIX);
+        try {
+            DedupSegment segment = DedupSegment.create(file, segmentCapacity, now, falsePositiveRate);
+            segments.add(0, segment);
+            active = segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create deduplication segment " + file, e);
+        }
+    }
+
+    private void loadSegments() throws IOException {
+        long notBefore = System.currentTimeMillis() - windowMillis;
+        List<DedupSegment> loaded = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    DedupSegment segment = DedupSegment.open(file, falsePositiveRate);
+                    if (segment.getNewestAt() >= notBefore) {
+                        loaded.add(segment);
+                    } else {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (IOException e) {
+                    log.warn("Discarding unreadable deduplication segment " + file + ": " + e.getMessage());
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        // newest first, recent keys are the likeliest duplicates
+        loaded.sort(Comparator.comparingLong(DedupSegment::getCreatedAt).reversed());
+        segments.addAll(loaded);
+    }
+
+    private void sync() {
+        for (DedupSegment segment : segments) {
+            segment.force();
+        }
+    }
+
+    private void expire() {
+        long notBefore = System.currentTimeMillis() - windowMillis;
+        for (DedupSegment segment : segments) {
+            if (segment != active && segment.getNewestAt() < notBefore) {
+                segments.remove(segment);
+                try {
+                    Files.deleteIfExists(segment.getFile());
+                } catch (IOException e) {
+                    log.warn("Unable to delete expired deduplication segment " + segment.getFile() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static long[] fingerprint(String key) {
+        byte[] digest = MD5.get().digest(key.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buffer = ByteBuffer.wrap(digest);
+        long high = buffer.getLong();
+        long low = buffer.getLong();
+        if (high == 0 && low == 0) {
+            // all zeros marks an empty slot
+            low = 1;
+        }
+        return new long[]{high, low};
+    }
+}
@@ -0,0 +1,109 @@
+package com.zuildorf.service.emulator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory SQS and SNS speaking the query protocol the SDK clients use, for local runs and load tests without AWS.
+ * It listens on its own port so long polls never hold servlet threads: SQS requests go to the root and queue urls,
+ * SNS requests to {@code /sns}. Active under the "emulator" profile, which also points both clients at it.
+ */
+@Component
+@Profile("emulator")
+public class AwsEmulator {
+    private static final String SNS_PATH = "/sns";
+
+    private Logger log = Logger.getLogger(AwsEmulator.class);
+    private final EmulatedSqs sqs;
+    private final EmulatedSns sns;
+    private final HttpServer server;
+    private final ExecutorService handlerPool;
+    private final ScheduledExecutorService sweeper;
+    private final AtomicLong requestIds = new AtomicLong();
+
+    @Autowired
+    public AwsEmulator(@Value("${emulator.port}") int port,
+                       @Value("${emulator.threads}") int threads,
+                       @Value("${emulator.account.id}") String accountId,
+                       @Value("${aws.region}") String region) throws IOException {
+        String baseUrl = "http://localhost:" + port;
+        this.sqs = new EmulatedSqs(baseUrl, region, accountId);
+        this.sns = new EmulatedSns(sqs, region, accountId);
+        this.handlerPool = Executors.newFixedThreadPool(threads, daemonThreadFactory("aws-emulator-"));
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("aws-emulator-sweeper-"));
+        this.sweeper.scheduleWithFixedDelay(sqs::requeueExpired, 50, 50, TimeUnit.MILLISECONDS);
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(handlerPool);
+        this.server.start();
+        log.info("AWS emulator listening on " + baseUrl + " (SNS at " + baseUrl + SNS_PATH + ")");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        server.stop(0);
+        handlerPool.shutdownNow();
+        sweeper.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String requestId = Long.toHexString(requestIds.incrementAndGet());
+        int status = 200;
+        String body;
+        try {
+            String path = exchange.getRequestURI().getPath();
+            QueryParameters params = QueryParameters.parse(exchange.getRequestURI().getRawQuery(),
+                    readBody(exchange.getRequestBody()));
+            String action = params.required("Action");
+            body = path.startsWith(SNS_PATH)
+                    ? sns.handle(action, params, requestId)
+                    : sqs.handle(action, params, path, requestId);
+        } catch (EmulatorException e) {
+            status = e.getStatusCode();
+            body = XmlResponse.error(e, requestId);
+        } catch (RuntimeException e) {
+            log.error("AWS emulator request failed: " + e.getMessage(), e);
+            status = 500;
+            body = XmlResponse.error(new EmulatorException(500, "InternalFailure", String.valueOf(e.getMessage()), false), requestId);
+        }
+        byte[] response = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+        exchange.getResponseHeaders().set("x-amzn-RequestId", requestId);
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+}
@@ -0,0 +1,28 @@
+package com.zuildorf.service.emulator;
+
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class EmulatedMessage {
+    final String messageId;
+    final String body;
+    final String md5OfBody;
+    final SortedMap<String, MessageAttribute> attributes;
+    final String md5OfAttributes;
+    final long sentTimestamp = System.currentTimeMillis();
+    final String groupId;
+    final String deduplicationId;
+    final AtomicInteger receiveCount = new AtomicInteger();
+    volatile long firstReceiveTimestamp;
+
+    EmulatedMessage(String messageId, String body, SortedMap<String, MessageAttribute> attributes,
+                    String groupId, String deduplicationId) {
+        this.messageId = messageId;
+        this.body = body;
+        this.md5OfBody = MessageDigests.ofBody(body);
+        this.attributes = attributes;
+        this.md5OfAttributes = MessageDigests.ofAttributes(attributes);
+        this.groupId = groupId;
+        this.deduplicationId = deduplicationId;
+    }
+}
@@ -0,0 +1,158 @@
+package com.zuildorf.service.emulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One emulated queue. Visible messages sit in a lock-free queue; received and delayed messages sit in a map keyed by
+ * receipt handle with the time they become visible again, and {@link #requeueExpired} moves them back once that time
+ * has passed. Long polls spin with a growing park instead of blocking on a lock.
+ */
+final class EmulatedQueue {
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    final String name;
+    final String url;
+    final String arn;
+    final ConcurrentMap<String, String> attributes = new ConcurrentHashMap<>();
+    private final Queue<EmulatedMessage> visible = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger visibleCount = new AtomicInteger();
+    private final ConcurrentMap<String, Hidden> hidden = new ConcurrentHashMap<>();
+    private final AtomicLong receiptSequence = new AtomicLong();
+
+    EmulatedQueue(String name, String url, String arn, Map<String, String> initialAttributes) {
+        this.name = name;
+        this.url = url;
+        this.arn = arn;
+        attributes.put("VisibilityTimeout", "30");
+        attributes.put("DelaySeconds", "0");
+        attributes.put("ReceiveMessageWaitTimeSeconds", "0");
+        attributes.put("MaximumMessageSize", "262144");
+        attributes.put("MessageRetentionPeriod", "345600");
+        attributes.put("CreatedTimestamp", String.valueOf(System.currentTimeMillis() / 1000));
+        attributes.putAll(initialAttributes);
+        attributes.put("QueueArn", arn);
+    }
+
+    void send(EmulatedMessage message, int delaySeconds) {
+        if (delaySeconds > 0) {
+            hidden.put("delayed:" + message.messageId, new Hidden(message, System.currentTimeMillis() + delaySeconds * 1000L));
+        } else {
+            makeVisible(message);
+        }
+    }
+
+    /**
+     * @return up to {@code max} messages paired with their new receipt handles, waiting up to {@code waitMillis} for
+     * the first one to arrive
+     */
+    List<Received> receive(int max, int visibilityTimeoutSeconds, long waitMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        long parkNanos = TimeUnit.MICROSECONDS.toNanos(100);
+        List<Received> received = new ArrayList<>(max);
+        while (true) {
+            EmulatedMessage message;
+            while (received.size() < max && (message = visible.poll()) != null) {
+                visibleCount.decrementAndGet();
+                long now = System.currentTimeMillis();
+                if (message.receiveCount.getAndIncrement() == 0) {
+                    message.firstReceiveTimestamp = now;
+                }
+                String receiptHandle = message.messageId + "#" + receiptSequence.incrementAndGet();
+                hidden.put(receiptHandle, new Hidden(message, now + visibilityTimeoutSeconds * 1000L));
+                received.add(new Received(message, receiptHandle));
+            }
+            long remaining = deadline - System.nanoTime();
+            if (!received.isEmpty() || remaining <= 0) {
+                return received;
+            }
+            LockSupport.parkNanos(Math.min(parkNanos, remaining));
+            parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+            if (Thread.currentThread().isInterrupted()) {
+                return received;
+            }
+        }
+    }
+
+    boolean delete(String receiptHandle) {
+        return hidden.remove(receiptHandle) != null;
+    }
+
+    /**
+     * @return false if the message is not in flight under this receipt handle
+     */
+    boolean changeVisibility(String receiptHandle, int visibilityTimeoutSeconds) {
+        Hidden current = hidden.get(receiptHandle);
+        if (current == null) {
+            return false;
+        }
+        if (visibilityTimeoutSeconds == 0) {
+            if (hidden.remove(receiptHandle, current)) {
+                makeVisible(current.message);
+            }
+            return true;
+        }
+        return hidden.replace(receiptHandle, current,
+                new Hidden(current.message, System.currentTimeMillis() + visibilityTimeoutSeconds * 1000L));
+    }
+
+    void requeueExpired(long now) {
+        for (Map.Entry<String, Hidden> entry : hidden.entrySet()) {
+            if (entry.getValue().visibleAt <= now && hidden.remove(entry.getKey(), entry.getValue())) {
+                makeVisible(entry.getValue().message);
+            }
+        }
+    }
+
+    void purge() {
+        visible.clear();
+        visibleCount.set(0);
+        hidden.clear();
+    }
+
+    int getVisibleCount() {
+        return visibleCount.get();
+    }
+
+    int getHiddenCount() {
+        return hidden.size();
+    }
+
+    int getVisibilityTimeoutSeconds() {
+        return Integer.parseInt(attributes.get("VisibilityTimeout"));
+    }
+
+    private void makeVisible(EmulatedMessage message) {
+        visible.add(message);
+        visibleCount.incrementAndGet();
+    }
+
+    private static final class Hidden {
+        private final EmulatedMessage message;
+        private final long visibleAt;
+
+        Hidden(EmulatedMessage message, long visibleAt) {
+            this.message = message;
+            this.visibleAt = visibleAt;
+        }
+    }
+
+    static final class Received {
+        final EmulatedMessage message;
+        final String receiptHandle;
+
+        Received(EmulatedMessage message, String receiptHandle) {
+            this.message = message;
+            this.receiptHandle = receiptHandle;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.zuildorf.service.emulator;
+
+import com.zuildorf.service.routing.FilterPolicy;
+import org.json.JSONObject;
+
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SNS query protocol actions. Publishing fans a message out to every SQS subscription of the topic, wrapped in the
+ * standard notification envelope unless the subscription has RawMessageDelivery set, and skipping subscriptions whose
+ * FilterPolicy the message attributes do not match. Subscriptions with other
+ * protocols are accepted and recorded but nothing is delivered to them.
+ */
+final class EmulatedSns {
+    static final String NAMESPACE = "http://sns.amazonaws.com/doc/2010-03-31/";
+
+    private final EmulatedSqs sqs;
+    private final String arnPrefix;
+    private final String accountId;
+    private final ConcurrentMap<String, Topic> topics = new ConcurrentHashMap<>();
+    private final AtomicLong undeliverable = new AtomicLong();
+
+    EmulatedSns(EmulatedSqs sqs, String region, String accountId) {
+        this.sqs = sqs;
+        this.accountId = accountId;
+        this.arnPrefix = "arn:aws:sns:" + region + ":" + accountId + ":";
+    }
+
+    String handle(String action, QueryParameters params, String requestId) {
+        XmlResponse response = new XmlResponse(action, NAMESPACE);
+        switch (action) {
+            case "CreateTopic":
+                String name = params.required("Name");
+                Topic created = topics.computeIfAbsent(name, Topic::new);
+                response.openResult().element("TopicArn", created.arn).closeResult();
+                break;
+            case "DeleteTopic":
+                topics.remove(topicOf(params.required("TopicArn")).name);
+                break;
+            case "ListTopics":
+                response.openResult().open("Topics");
+                for (Topic topic : new TreeMap<>(topics).values()) {
+                    response.open("member").element("TopicArn", topic.arn).close("member");
+                }
+                response.close("Topics").closeResult();
+                break;
+            case "GetTopicAttributes":
+                Topic topic = topicOf(params.required("TopicArn"));
+                response.openResult().open("Attributes");
+                entry(response, "TopicArn", topic.arn);
+                entry(response, "Owner", accountId);
+                entry(response, "SubscriptionsConfirmed", String.valueOf(topic.subscriptions.size()));
+                response.close("Attributes").closeResult();
+                break;
+            case "Subscribe":
+                Subscription subscription = subscribe(topicOf(params.required("TopicArn")),
+                        params.required("Protocol"), params.required("Endpoint"));
+                response.openResult().element("SubscriptionArn", subscription.arn).closeResult();
+                break;
+            case "Unsubscribe":
+                String subscriptionArn = params.required("SubscriptionArn");
+                for (Topic candidate : topics.values()) {
+                    candidate.subscriptions.removeIf(s -> s.arn.equals(subscriptionArn));
+                }
+                break;
+            case "ListSubscriptionsByTopic":
+                response.openResult().open("Subscriptions");
+                writeSubscriptions(topicOf(params.required("TopicArn")), response);
+                response.close("Subscriptions").closeResult();
+                break;
+            case "ListSubscriptions":
+                response.openResult().open("Subscriptions");
+                for (Topic candidate : topics.values()) {
+                    writeSubscriptions(candidate, response);
+                }
+                response.close("Subscriptions").closeResult();
+                break;
+            case "SetSubscriptionAttributes":
+                setSubscriptionAttribute(subscriptionOf(params.required("SubscriptionArn")),
+                        params.required("AttributeName"), params.required("AttributeValue"));
+                break;
+            case "GetSubscriptionAttributes":
+                Subscription existing = subscriptionOf(params.required("SubscriptionArn"));
+                response.openResult().open("Attributes");
+                entry(response, "SubscriptionArn", existing.arn);
+                entry(response, "TopicArn", existing.topicArn);
+                entry(response, "Protocol", existing.protocol);
+                entry(response, "Endpoint", existing.endpoint);
+                for (Map.Entry<String, String> attribute : existing.attributes.entrySet()) {
+                    entry(response, attribute.getKey(), attribute.getValue());
+                }
+                response.close("Attributes").closeResult();
+                break;
+            case "Publish":
+                String messageId = publish(topicOf(params.required("TopicArn")), params.get("Subject"),
+                        params.required("Message"), params.messageAttributes("MessageAttributes.entry"));
+                response.openResult().element("MessageId", messageId).closeResult();
+                break;
+            default:
+                throw EmulatorException.sender("InvalidAction", "The action " + action + " is not valid for this endpoint.");
+        }
+        return response.finish(requestId);
+    }
+
+    long getUndeliverableCount() {
+        return undeliverable.get();
+    }
+
+    private Subscription subscribe(Topic topic, String protocol, String endpoint) {
+        synchronized (topic) {
+            for (Subscription subscription : topic.subscriptions) {
+                if (subscription.protocol.equals(protocol) && subscription.endpoint.equals(endpoint)) {
+                    return subscription;
+                }
+            }
+            Subscription subscription = new Subscription(topic.arn + ":" + EmulatedSqs.newMessageId(), topic.arn, protocol, endpoint);
+            topic.subscriptions.add(subscription);
+            return subscription;
+        }
+    }
+
+    private static void setSubscriptionAttribute(Subscription subscription, String name, String value) {
+        if ("FilterPolicy".equals(name)) {
+            try {
+                subscription.filterPolicy = value.isEmpty() ? null : FilterPolicy.parse(value);
+            } catch (IllegalArgumentException e) {
+                throw EmulatorException.sender("InvalidParameter", "Invalid parameter: FilterPolicy: " + e.getMessage());
+            }
+        }
+        subscription.attributes.put(name, value);
+    }
+
+    private String publish(Topic topic, String subject, String message, SortedMap<String, MessageAttribute> attributes) {
+        String messageId = EmulatedSqs.newMessageId();
+        String envelope = null;
+        Map<String, String> filterAttributes = null;
+        for (Subscription subscription : topic.subscriptions) {
+            if (!"sqs".equals(subscription.protocol)) {
+                continue;
+            }
+            if (subscription.filterPolicy != null) {
+                if (filterAttributes == null) {
+                    filterAttributes = new HashMap<>();
+                    for (Map.Entry<String, MessageAttribute> attribute : attributes.entrySet()) {
+                        if (attribute.getValue().stringValue != null) {
+                            filterAttributes.put(attribute.getKey(), attribute.getValue().stringValue);
+                        }
+                    }
+                }
+                if (!subscription.filterPolicy.matches(filterAttributes)) {
+                    continue;
+                }
+            }
+            EmulatedQueue queue = sqs.byArn(subscription.endpoint);
+            if (queue == null) {
+                undeliverable.incrementAndGet();
+                continue;
+            }
+            if (Boolean.parseBoolean(subscription.attributes.get("RawMessageDelivery"))) {
+                queue.send(new EmulatedMessage(EmulatedSqs.newMessageId(), message, attributes, null, null), 0);
+            } else {
+                if (envelope == null) {
+                    envelope = envelope(topic, messageId, subject, message, attributes);
+                }
+                queue.send(new EmulatedMessage(EmulatedSqs.newMessageId(), envelope, new TreeMap<>(), null, null), 0);
+            }
+        }
+        return messageId;
+    }
+
+    private static String envelope(Topic topic, String messageId, String subject, String message,
+                                   SortedMap<String, MessageAttribute> attributes) {
+        SimpleDateFormat timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        timestamp.setTimeZone(TimeZone.getTimeZone("UTC"));
+        JSONObject envelope = new JSONObject()
+                .put("Type", "Notification")
+                .put("MessageId", messageId)
+                .put("TopicArn", topic.arn)
+                .put("Message", message)
+                .put("Timestamp", timestamp.format(new Date()))
+                .put("SignatureVersion", "1")
+                .put("Signature", "EMULATOR");
+        if (subject != null) {
+            envelope.put("Subject", subject);
+        }
+        if (!attributes.isEmpty()) {
+            JSONObject messageAttributes = new JSONObject();
+            for (Map.Entry<String, MessageAttribute> attribute : attributes.entrySet()) {
+                MessageAttribute value = attribute.getValue();
+                messageAttributes.put(attribute.getKey(), new JSONObject()
+                        .put("Type", value.dataType)
+                        .put("Value", value.stringValue != null ? value.stringValue
+                                : Base64.getEncoder().encodeToString(value.binaryValue)));
+            }
+            envelope.put("MessageAttributes", messageAttributes);
+        }
+        return envelope.toString();
+    }
+
+    private Topic topicOf(String topicArn) {
+        Topic topic = topicArn.startsWith(arnPrefix) ? topics.get(topicArn.substring(arnPrefix.length())) : null;
+        if (topic == null) {
+            throw new EmulatorException(404, "NotFound", "Topic does not exist", true);
+        }
+        return topic;
+    }
+
+    private Subscription subscriptionOf(String subscriptionArn) {
+        for (Topic topic : topics.values()) {
+            for (Subscription subscription : topic.subscriptions) {
+                if (subscription.arn.equals(subscriptionArn)) {
+                    return subscription;
+                }
+            }
+        }
+        throw new EmulatorException(404, "NotFound", "Subscription does not exist", true);
+    }
+
+    private void writeSubscriptions(Topic topic, XmlResponse response) {
+        for (Subscription subscription : topic.subscriptions) {
+            response.open("member")
+                    .element("TopicArn", subscription.topicArn)
+                    .element("Protocol", subscription.protocol)
+                    .element("SubscriptionArn", subscription.arn)
+                    .element("Owner", accountId)
+                    .element("Endpoint", subscription.endpoint)
+                    .close("member");
+        }
+    }
+
+    private static void entry(XmlResponse response, String key, String value) {
+        response.open("entry").element("key", key).element("value", value).close("entry");
+    }
+
+    private final class Topic {
+        private final String name;
+        private final String arn;
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+        Topic(String name) {
+            this.name = name;
+            this.arn = arnPrefix + name;
+        }
+    }
+
+    private static final class Subscription {
+        private final String arn;
+        private final String topicArn;
+        private final String protocol;
+        private final String endpoint;
+        private final ConcurrentMap<String, String> attributes = new ConcurrentHashMap<>();
+        private volatile FilterPolicy filterPolicy;
+
+        Subscription(String arn, String topicArn, String protocol, String endpoint) {
+            this.arn = arn;
+            this.topicArn = topicArn;
+            this.protocol = protocol;
+            this.endpoint = endpoint;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.zuildorf.service.emulator;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * SQS query protocol actions over in-memory queues.
+ */
+final class EmulatedSqs {
+    static final String NAMESPACE = "http://queue.amazonaws.com/doc/2012-11-05/";
+    private static final int MAX_BATCH_ENTRIES = 10;
+    private static final int MAX_WAIT_SECONDS = 20;
+
+    private final String baseUrl;
+    private final String arnPrefix;
+    private final String accountId;
+    private final ConcurrentMap<String, EmulatedQueue> queues = new ConcurrentHashMap<>();
+
+    EmulatedSqs(String baseUrl, String region, String accountId) {
+        this.baseUrl = baseUrl;
+        this.accountId = accountId;
+        this.arnPrefix = "arn:aws:sqs:" + region + ":" + accountId + ":";
+    }
+
+    String handle(String action, QueryParameters params, String path, String requestId) {
+        XmlResponse response = new XmlResponse(action, NAMESPACE);
+        switch (action) {
+            case "CreateQueue":
+                response.openResult().element("QueueUrl", createQueue(params.required("QueueName"),
+                        params.nameValuePairs("Attribute")).url).closeResult();
+                break;
+            case "GetQueueUrl":
+                response.openResult().element("QueueUrl", byName(params.required("QueueName")).url).closeResult();
+                break;
+            case "ListQueues":
+                response.openResult();
+                String prefix = params.get("QueueNamePrefix");
+                for (EmulatedQueue queue : new TreeMap<>(queues).values()) {
+                    if (prefix == null || queue.name.startsWith(prefix)) {
+                        response.element("QueueUrl", queue.url);
+                    }
+                }
+                response.closeResult();
+                break;
+            case "DeleteQueue":
+                queues.remove(queueOf(params, path).name);
+                break;
+            case "PurgeQueue":
+                queueOf(params, path).purge();
+                break;
+            case "GetQueueAttributes":
+                getQueueAttributes(queueOf(params, path), params.list("AttributeName"), response);
+                break;
+            case "SetQueueAttributes":
+                queueOf(params, path).attributes.putAll(params.nameValuePairs("Attribute"));
+                break;
+            case "SendMessage":
+                sendMessage(queueOf(params, path), params, response);
+                break;
+            case "SendMessageBatch":
+                sendMessageBatch(queueOf(params, path), params, response);
+                break;
+            case "ReceiveMessage":
+                receiveMessage(queueOf(params, path), params, response);
+                break;
+            case "DeleteMessage":
+                queueOf(params, path).delete(params.required("ReceiptHandle"));
+                break;
+            case "DeleteMessageBatch":
+                deleteMessageBatch(queueOf(params, path), params, response);
+                break;
+            case "ChangeMessageVisibility":
+                changeVisibility(queueOf(params, path), params.required("ReceiptHandle"), params.getInt("VisibilityTimeout", 0));
+                break;
+            case "ChangeMessageVisibilityBatch":
+                changeVisibilityBatch(queueOf(params, path), params, response);
+                break;
+            default:
+                throw EmulatorException.sender("InvalidAction", "The action " + action + " is not valid for this endpoint.");
+        }
+        return response.finish(requestId);
+    }
+
+    EmulatedQueue createQueue(String name, Map<String, String> attributes) {
+        if (!name.matches("[A-Za-z0-9_-]{1,80}(\\.fifo)?")) {
+            throw EmulatorException.sender("InvalidParameterValue", "Can only include alphanumeric characters, hyphens, or underscores. 1 to 80 in length");
+        }
+        return queues.computeIfAbsent(name, n -> new EmulatedQueue(n, baseUrl + "/" + accountId + "/" + n, arnPrefix + n, attributes));
+    }
+
+    /**
+     * @return the queue with the given arn, or null if there is none
+     */
+    EmulatedQueue byArn(String arn) {
+        if (!arn.startsWith(arnPrefix)) {
+            return null;
+        }
+        return queues.get(arn.substring(arnPrefix.length()));
+    }
+
+    void requeueExpired() {
+        long now = System.currentTimeMillis();
+        for (EmulatedQueue queue : queues.values()) {
+            queue.requeueExpired(now);
+        }
+    }
+
+    static String newMessageId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    private EmulatedQueue byName(String name) {
+        EmulatedQueue queue = queues.get(name);
+        if (queue == null) {
+            throw EmulatorException.sender("AWS.SimpleQueueService.NonExistentQueue", "The specified queue does not exist for this wsdl version.");
+        }
+        return queue;
+    }
+
+    /**
+     * The SDK normally moves the QueueUrl parameter into the request path, so either may identify the queue.
+     */
+    private EmulatedQueue queueOf(QueryParameters params, String path) {
+        String queueUrl = params.get("QueueUrl");
+        String location = queueUrl != null ? queueUrl : path;
+        if (location == null || location.indexOf('/') < 0 || location.endsWith("/")) {
+            throw EmulatorException.sender("MissingParameter", "The request must contain the parameter QueueUrl.");
+        }
+        return byName(location.substring(location.lastIndexOf('/') + 1));
+    }
+
+    private void getQueueAttributes(EmulatedQueue queue, List<String> names, XmlResponse response) {
+        Map<String, String> attributes = new TreeMap<>(queue.attributes);
+        attributes.put("ApproximateNumberOfMessages", String.valueOf(queue.getVisibleCount()));
+        attributes.put("ApproximateNumberOfMessagesNotVisible", String.valueOf(queue.getHiddenCount()));
+        attributes.put("ApproximateNumberOfMessagesDelayed", "0");
+        boolean all = names.contains("All");
+        response.openResult();
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            if (all || names.contains(attribute.getKey())) {
+                response.open("Attribute").element("Name", attribute.getKey()).element("Value", attribute.getValue()).close("Attribute");
+            }
+        }
+        response.closeResult();
+    }
+
+    private EmulatedMessage send(EmulatedQueue queue, QueryParameters entry) {
+        String body = entry.required("MessageBody");
+        if (body.isEmpty()) {
+            throw EmulatorException.sender("InvalidParameterValue", "The request must contain the parameter MessageBody.");
+        }
+        EmulatedMessage message = new EmulatedMessage(newMessageId(), body, entry.messageAttributes("MessageAttribute"),
+                entry.get("MessageGroupId"), entry.get("MessageDeduplicationId"));
+        int delay = entry.getInt("DelaySeconds", Integer.parseInt(queue.attributes.get("DelaySeconds")));
+        queue.send(message, delay);
+        return message;
+    }
+
+    private void sendMessage(EmulatedQueue queue, QueryParameters params, XmlResponse response) {
+        EmulatedMessage message = send(queue, params);
+        response.openResult()
+                .element("MD5OfMessageBody", message.md5OfBody)
+                .element("MD5OfMessageAttributes", message.md5OfAttributes)
+                .element("MessageId", message.messageId)
+                .closeResult();
+    }
+
+    private void sendMessageBatch(EmulatedQueue queue, QueryParameters params, XmlResponse response) {
+        List<QueryParameters> entries = batchEntries(params, "SendMessageBatchRequestEntry");
+        response.openResult();
+        for (QueryParameters entry : entries) {
+            try {
+                EmulatedMessage message = send(queue, entry);
+                response.open("SendMessageBatchResultEntry")
+                        .element("Id", entry.required("Id"))
+                        .element("MessageId", message.messageId)
+                        .element("MD5OfMessageBody", message.md5OfBody)
+                        .element("MD5OfMessageAttributes", message.md5OfAttributes)
+                        .close("SendMessageBatchResultEntry");
+            } catch (EmulatorException e) {
+                batchError(response, entry.get("Id"), e);
+            }
+        }
+        response.closeResult();
+    }
+
+    private void receiveMessage(EmulatedQueue queue, QueryParameters params, XmlResponse response) {
+        int max = params.getInt("MaxNumberOfMessages", 1);
+        if (max < 1 || max > MAX_BATCH_ENTRIES) {
+            throw EmulatorException.sender("InvalidParameterValue", "Value " + max + " for parameter MaxNumberOfMessages is invalid. Reason: Must be between 1 and 10, if provided.");
+        }
+        int wait = Math.min(MAX_WAIT_SECONDS, params.getInt("WaitTimeSeconds",
+                Integer.parseInt(queue.attributes.get("ReceiveMessageWaitTimeSeconds"))));
+        int visibilityTimeout = params.getInt("VisibilityTimeout", queue.getVisibilityTimeoutSeconds());
+        List<String> attributeNames = params.list("AttributeName");
+        List<String> messageAttributeNames = params.list("MessageAttributeName");
+
+        response.openResult();
+        for (EmulatedQueue.Received received : queue.receive(max, visibilityTimeout, wait * 1000L)) {
+            EmulatedMessage message = received.message;
+            response.open("Message")
+                    .element("MessageId", message.messageId)
+                    .element("ReceiptHandle", received.receiptHandle)
+                    .element("MD5OfBody", message.md5OfBody)
+                    .element("Body", message.body);
+            writeSystemAttributes(message, attributeNames, response);
+            writeMessageAttributes(message, messageAttributeNames, response);
+            response.close("Message");
+        }
+        response.closeResult();
+    }
+
+    private static void writeSystemAttributes(EmulatedMessage message, List<String> names, XmlResponse response) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        attributes.put("SenderId", "EMULATOR");
+        attributes.put("SentTimestamp", String.valueOf(message.sentTimestamp));
+        attributes.put("ApproximateReceiveCount", String.valueOf(message.receiveCount.get()));
+        attributes.put("ApproximateFirstReceiveTimestamp", String.valueOf(message.firstReceiveTimestamp));
+        if (message.groupId != null) {
+            attributes.put("MessageGroupId", message.groupId);
+        }
+        if (message.deduplicationId != null) {
+            attributes.put("MessageDeduplicationId", message.deduplicationId);
+        }
+        boolean all = names.contains("All");
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            if (all || names.contains(attribute.getKey())) {
+                response.open("Attribute").element("Name", attribute.getKey()).element("Value", attribute.getValue()).close("Attribute");
+            }
+        }
+    }
+
+    /**
+     * Writes the requested message attributes with the digest of exactly those attributes, which is what the SDK
+     * verifies on receive.
+     */
+    private static void writeMessageAttributes(EmulatedMessage message, List<String> names, XmlResponse response) {
+        if (message.attributes.isEmpty() || names.isEmpty()) {
+            return;
+        }
+        SortedMap<String, MessageAttribute> selected = new TreeMap<>();
+        boolean all = names.contains("All") || names.contains(".*");
+        for (Map.Entry<String, MessageAttribute> attribute : message.attributes.entrySet()) {
+            if (all || names.contains(attribute.getKey())) {
+                selected.put(attribute.getKey(), attribute.getValue());
+            }
+        }
+        if (selected.isEmpty()) {
+            return;
+        }
+        response.element("MD5OfMessageAttributes", MessageDigests.ofAttributes(selected));
+        for (Map.Entry<String, MessageAttribute> attribute : selected.entrySet()) {
+            MessageAttribute value = attribute.getValue();
+            response.open("MessageAttribute").element("Name", attribute.getKey()).open("Value")
+                    .element("StringValue", value.stringValue)
+                    .element("BinaryValue", value.binaryValue == null ? null : Base64.getEncoder().encodeToString(value.binaryValue))
+                    .element("DataType", value.dataType)
+                    .close("Value").close("MessageAttribute");
+        }
+    }
+
+    private void deleteMessageBatch(EmulatedQueue queue, QueryParameters params, XmlResponse response) {
+        response.openResult();
+        for (QueryParameters entry : batchEntries(params, "DeleteMessageBatchRequestEntry")) {
+            queue.delete(entry.required("ReceiptHandle"));
+            response.open("DeleteMessageBatchResultEntry").element("Id", entry.required("Id")).close("DeleteMessageBatchResultEntry");
+        }
+        response.closeResult();
+    }
+
+    private static void changeVisibility(EmulatedQueue queue, String receiptHandle, int visibilityTimeout) {
+        if (!queue.changeVisibility(receiptHandle, visibilityTimeout)) {
+            throw EmulatorException.sender("AWS.SimpleQueueService.MessageNotInflight", "Value " + receiptHandle + " for parameter ReceiptHandle is invalid. Reason: Message does not exist or is not available for visibility timeout change.");
+        }
+    }
+
+    private void changeVisibilityBatch(EmulatedQueue queue, QueryParameters params, XmlResponse response) {
+        response.openResult();
+        for (QueryParameters entry : batchEntries(params, "ChangeMessageVisibilityBatchRequestEntry")) {
+            try {
+                changeVisibility(queue, entry.required("ReceiptHandle"), entry.getInt("VisibilityTimeout", 0));
+                response.open("ChangeMessageVisibilityBatchResultEntry").element("Id", entry.required("Id"))
+                        .close("ChangeMessageVisibilityBatchResultEntry");
+            } catch (EmulatorException e) {
+                batchError(response, entry.get("Id"), e);
+            }
+        }
+        response.closeResult();
+    }
+
+    private static List<QueryParameters> batchEntries(QueryParameters params, String prefix) {
+        List<QueryParameters> entries = params.entries(prefix);
+        if (entries.isEmpty()) {
+            throw EmulatorException.sender("AWS.SimpleQueueService.EmptyBatchRequest", "There should be at least one " + prefix + " in the request.");
+        }
+        if (entries.size() > MAX_BATCH_ENTRIES) {
+            throw EmulatorException.sender("AWS.SimpleQueueService.TooManyEntriesInBatchRequest", "Maximum number of entries per request are 10. You have sent " + entries.size() + ".");
+        }
+        return entries;
+    }
+
+    private static void batchError(XmlResponse response, String id, EmulatorException e) {
+        response.open("BatchResultErrorEntry")
+                .element("Id", id)
+                .element("SenderFault", e.isSenderFault())
+                .element("Code", e.getCode())
+                .element("Message", e.getMessage())
+                .close("BatchResultErrorEntry");
+    }
+}
@@ -0,0 +1,35 @@
+package com.zuildorf.service.emulator;
+
+/**
+ * An error returned to the client as a query protocol ErrorResponse, which the SDK turns back into the matching
+ * AmazonServiceException subclass by its error code.
+ */
+class EmulatorException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private final int statusCode;
+    private final String code;
+    private final boolean senderFault;
+
+    EmulatorException(int statusCode, String code, String message, boolean senderFault) {
+        super(message);
+        this.statusCode = statusCode;
+        this.code = code;
+        this.senderFault = senderFault;
+    }
+
+    static EmulatorException sender(String code, String message) {
+        return new EmulatorException(400, code, message, true);
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    String getCode() {
+        return code;
+    }
+
+    boolean isSenderFault() {
+        return senderFault;
+    }
+}
@@ -0,0 +1,13 @@
+package com.zuildorf.service.emulator;
+
+final class MessageAttribute {
+    final String dataType;
+    final String stringValue;
+    final byte[] binaryValue;
+
+    MessageAttribute(String dataType, String stringValue, byte[] binaryValue) {
+        this.dataType = dataType;
+        this.stringValue = stringValue;
+        this.binaryValue = binaryValue;
+    }
+}
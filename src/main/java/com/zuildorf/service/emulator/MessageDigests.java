@@ -0,0 +1,65 @@
+package com.zuildorf.service.emulator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.SortedMap;
+
+/**
+ * The MD5 digests SQS returns for message bodies and attributes. The SDK recomputes both on send and receive and
+ * rejects responses that do not match, so the attribute digest follows the SDK's encoding exactly: attributes sorted
+ * by name, each as length-prefixed name, data type and value with a transport type byte before the value.
+ */
+final class MessageDigests {
+    private static final byte STRING_TRANSPORT = 1;
+    private static final byte BINARY_TRANSPORT = 2;
+
+    private MessageDigests() {
+    }
+
+    static String ofBody(String body) {
+        return hex(md5().digest(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String ofAttributes(SortedMap<String, MessageAttribute> attributes) {
+        if (attributes.isEmpty()) {
+            return null;
+        }
+        MessageDigest digest = md5();
+        for (SortedMap.Entry<String, MessageAttribute> attribute : attributes.entrySet()) {
+            updateLengthAndBytes(digest, attribute.getKey().getBytes(StandardCharsets.UTF_8));
+            updateLengthAndBytes(digest, attribute.getValue().dataType.getBytes(StandardCharsets.UTF_8));
+            if (attribute.getValue().stringValue != null) {
+                digest.update(STRING_TRANSPORT);
+                updateLengthAndBytes(digest, attribute.getValue().stringValue.getBytes(StandardCharsets.UTF_8));
+            } else if (attribute.getValue().binaryValue != null) {
+                digest.update(BINARY_TRANSPORT);
+                updateLengthAndBytes(digest, attribute.getValue().binaryValue);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static void updateLengthAndBytes(MessageDigest digest, byte[] bytes) {
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+}
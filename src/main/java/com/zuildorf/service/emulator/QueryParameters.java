@@ -0,0 +1,133 @@
+package com.zuildorf.service.emulator;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Decoded parameters of a query protocol request, with helpers for the SDK's indexed list and map encodings such as
+ * {@code AttributeName.1} or {@code SendMessageBatchRequestEntry.2.MessageBody}.
+ */
+final class QueryParameters {
+    private final Map<String, String> values;
+
+    private QueryParameters(Map<String, String> values) {
+        this.values = values;
+    }
+
+    static QueryParameters parse(String... encodedForms) {
+        Map<String, String> values = new HashMap<>();
+        for (String form : encodedForms) {
+            if (form == null || form.isEmpty()) {
+                continue;
+            }
+            for (String pair : form.split("&")) {
+                int separator = pair.indexOf('=');
+                String key = separator < 0 ? pair : pair.substring(0, separator);
+                String value = separator < 0 ? "" : pair.substring(separator + 1);
+                values.put(decode(key), decode(value));
+            }
+        }
+        return new QueryParameters(values);
+    }
+
+    String get(String name) {
+        return values.get(name);
+    }
+
+    String required(String name) {
+        String value = values.get(name);
+        if (value == null) {
+            throw EmulatorException.sender("MissingParameter", "The request must contain the parameter " + name);
+        }
+        return value;
+    }
+
+    int getInt(String name, int defaultValue) {
+        String value = values.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw EmulatorException.sender("InvalidParameterValue", "Value " + value + " for parameter " + name + " is invalid.");
+        }
+    }
+
+    /**
+     * @return the values of {@code prefix.1}, {@code prefix.2}, ... in index order
+     */
+    List<String> list(String prefix) {
+        List<String> list = new ArrayList<>();
+        for (QueryParameters entry : entries(prefix)) {
+            if (entry.get("") != null) {
+                list.add(entry.get(""));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return one set of parameters per index of {@code prefix.N.*}, with the {@code prefix.N.} part removed, in index
+     * order. The value of {@code prefix.N} itself is available under the empty name.
+     */
+    List<QueryParameters> entries(String prefix) {
+        String start = prefix + ".";
+        SortedMap<Integer, Map<String, String>> indexed = new TreeMap<>();
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            String key = value.getKey();
+            if (!key.startsWith(start)) {
+                continue;
+            }
+            int end = key.indexOf('.', start.length());
+            String index = end < 0 ? key.substring(start.length()) : key.substring(start.length(), end);
+            try {
+                indexed.computeIfAbsent(Integer.parseInt(index), i -> new HashMap<>())
+                        .put(end < 0 ? "" : key.substring(end + 1), value.getValue());
+            } catch (NumberFormatException e) {
+                throw EmulatorException.sender("InvalidParameterValue", "Malformed parameter " + key);
+            }
+        }
+        List<QueryParameters> entries = new ArrayList<>(indexed.size());
+        for (Map<String, String> entry : indexed.values()) {
+            entries.add(new QueryParameters(entry));
+        }
+        return entries;
+    }
+
+    /**
+     * @return the {@code prefix.N.Name} / {@code prefix.N.Value} pairs as a map
+     */
+    Map<String, String> nameValuePairs(String prefix) {
+        Map<String, String> pairs = new LinkedHashMap<>();
+        for (QueryParameters entry : entries(prefix)) {
+            pairs.put(entry.required("Name"), entry.required("Value"));
+        }
+        return pairs;
+    }
+
+    /**
+     * Reads message attributes in the SQS ({@code MessageAttribute.N.Name}) or SNS
+     * ({@code MessageAttributes.entry.N.Name}) encoding.
+     */
+    SortedMap<String, MessageAttribute> messageAttributes(String prefix) {
+        SortedMap<String, MessageAttribute> attributes = new TreeMap<>();
+        for (QueryParameters entry : entries(prefix)) {
+            String binary = entry.get("Value.BinaryValue");
+            attributes.put(entry.required("Name"), new MessageAttribute(entry.required("Value.DataType"),
+                    entry.get("Value.StringValue"),
+                    binary == null ? null : Base64.getDecoder().decode(binary)));
+        }
+        return attributes;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.zuildorf.service.emulator;
+
+/**
+ * Builds query protocol XML responses of the form {@code <ActionResponse><ActionResult>...</ActionResult>
+ * <ResponseMetadata>...</ResponseMetadata></ActionResponse>}.
+ */
+final class XmlResponse {
+    private final String action;
+    private final StringBuilder xml = new StringBuilder(512);
+
+    XmlResponse(String action, String namespace) {
+        this.action = action;
+        xml.append("<?xml version=\"1.0\"?><").append(action).append("Response xmlns=\"").append(namespace).append("\">");
+    }
+
+    static String error(EmulatorException e, String requestId) {
+        StringBuilder xml = new StringBuilder(256)
+                .append("<?xml version=\"1.0\"?><ErrorResponse><Error><Type>")
+                .append(e.isSenderFault() ? "Sender" : "Receiver")
+                .append("</Type><Code>").append(escape(e.getCode()))
+                .append("</Code><Message>").append(escape(e.getMessage()))
+                .append("</Message><Detail/></Error><RequestId>").append(requestId).append("</RequestId></ErrorResponse>");
+        return xml.toString();
+    }
+
+    XmlResponse open(String element) {
+        xml.append('<').append(element).append('>');
+        return this;
+    }
+
+    XmlResponse close(String element) {
+        xml.append("</").append(element).append('>');
+        return this;
+    }
+
+    XmlResponse openResult() {
+        return open(action + "Result");
+    }
+
+    XmlResponse closeResult() {
+        return close(action + "Result");
+    }
+
+    /**
+     * Writes a simple element, or nothing if the value is null.
+     */
+    XmlResponse element(String element, Object value) {
+        if (value != null) {
+            open(element);
+            xml.append(escape(value.toString()));
+            close(element);
+        }
+        return this;
+    }
+
+    String finish(String requestId) {
+        xml.append("<ResponseMetadata><RequestId>").append(requestId).append("</RequestId></ResponseMetadata></")
+                .append(action).append("Response>");
+        return xml.toString();
+    }
+
+    static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '<': replacement = "&lt;"; break;
+                case '>': replacement = "&gt;"; break;
+                case '&': replacement = "&amp;"; break;
+                case '"': replacement = "&quot;"; break;
+                case '\'': replacement = "&apos;"; break;
+                case '\r': replacement = "&#xD;"; break;
+                default: replacement = null;
+            }
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 16).append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+}
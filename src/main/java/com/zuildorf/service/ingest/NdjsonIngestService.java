@@ -0,0 +1,273 @@
+package com.zuildorf.service.ingest;
+
+import com.zuildorf.error.AwsApiException;
+import com.zuildorf.service.aws.api.SQSService;
+import com.zuildorf.service.metrics.Counter;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import com.zuildorf.service.spool.SpoolingProducer;
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Feeds newline-delimited JSON into SQS. The body is read one line at a time and every line is sent through the
+ * {@link SpoolingProducer}, with at most {@code ingest.max.in.flight} lines waiting on SQS, so memory use does not depend on
+ * the size of the body. Results are written back as NDJSON while the body is still being read: one object per failed
+ * line, a progress object at a fixed interval and a summary once every line has been sent or has failed.
+ */
+@Component
+public class NdjsonIngestService {
+    private Logger log = Logger.getLogger(NdjsonIngestService.class);
+    private final SQSService sqsService;
+    private final SpoolingProducer producer;
+    private final int maxInFlight;
+    private final int maxLineBytes;
+    private final long progressIntervalMillis;
+    private final Counter linesSent;
+    private final Counter linesFailed;
+
+    @Autowired
+    public NdjsonIngestService(SQSService sqsService,
+                               SpoolingProducer producer,
+                               @Value("${ingest.max.in.flight}") int maxInFlight,
+                               @Value("${ingest.max.line.bytes}") int maxLineBytes,
+                               @Value("${ingest.progress.interval.ms}") long progressIntervalMillis,
+                               MetricsRegistry metrics) {
+        this.sqsService = sqsService;
+        this.producer = producer;
+        this.maxInFlight = maxInFlight;
+        this.maxLineBytes = maxLineBytes;
+        this.progressIntervalMillis = progressIntervalMillis;
+        this.linesSent = metrics.counter("ingest.lines", "outcome", "sent");
+        this.linesFailed = metrics.counter("ingest.lines", "outcome", "failed");
+    }
+
+    /**
+     * @param queue      the queue lines are sent to
+     * @param routeField if set, lines that are JSON objects with a string value in this field are sent to the queue
+     *                   it names instead
+     * @param groupField if set, lines that are JSON objects with a string value in this field are sent with it as
+     *                   their message group id, as FIFO queues require
+     * @param results    receives the NDJSON results, it is flushed as results are written but not closed
+     * @throws AwsApiException if the default queue does not exist, before anything is read or written
+     */
+    public void ingest(InputStream body, String queue, String routeField, String groupField, OutputStream results)
+            throws AwsApiException, IOException {
+        String queueUrl = sqsService.resolveQueueUrl(queue);
+        Ingest ingest = new Ingest(results);
+        log.info("Starting NDJSON ingest into " + queue + (routeField == null ? "" : ", routed by " + routeField));
+        LineReader reader = new LineReader(body, maxLineBytes);
+        try {
+            String line;
+            while (!ingest.disconnected && (line = reader.readLine()) != null) {
+                long lineNumber = reader.getLineNumber();
+                if (reader.isTruncated()) {
+                    ingest.read.increment();
+                    ingest.fail(lineNumber, "Line exceeds " + maxLineBytes + " bytes");
+                } else if (!line.trim().isEmpty()) {
+                    ingest.read.increment();
+                    send(ingest, lineNumber, line, queueUrl, routeField, groupField);
+                }
+                ingest.progressIfDue();
+            }
+            ingest.inFlight.acquire(maxInFlight);
+            ingest.inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ingest.interrupted = true;
+        }
+        ingest.summary();
+        log.info("NDJSON ingest into " + queue + " finished: " + ingest.read.sum() + " lines read, "
+                + ingest.sent.sum() + " sent, " + ingest.failed.sum() + " failed"
+                + (ingest.isComplete() ? "" : ", stopped before the end of the body"));
+    }
+
+    private void send(Ingest ingest, long lineNumber, String line, String queueUrl, String routeField, String groupField)
+            throws InterruptedException {
+        String target;
+        String groupId;
+        try {
+            JSONTokener tokener = new JSONTokener(line);
+            Object value = tokener.nextValue();
+            if (tokener.nextClean() != 0) {
+                throw new JSONException("Unexpected content after the JSON value");
+            }
+            target = stringField(value, routeField);
+            if (target == null) {
+                target = queueUrl;
+            }
+            groupId = stringField(value, groupField);
+        } catch (JSONException e) {
+            ingest.fail(lineNumber, "Invalid JSON: " + e.getMessage());
+            return;
+        }
+        ingest.inFlight.acquire();
+        producer.sendMessageAsync(target, line, groupId, null).whenComplete((receipt, error) -> {
+            ingest.inFlight.release();
+            if (error == null) {
+                ingest.sent.increment();
+                linesSent.increment();
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof AwsApiException && cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                ingest.fail(lineNumber, cause.getMessage());
+            }
+        });
+    }
+
+    private static String stringField(Object value, String field) {
+        return field != null && value instanceof JSONObject && ((JSONObject) value).opt(field) instanceof String
+                ? ((JSONObject) value).getString(field) : null;
+    }
+
+    /**
+     * The state of one request. Results are written from the reading thread and from the producer's sender threads,
+     * so every write holds the writer's lock.
+     */
+    private final class Ingest {
+        private final Writer writer;
+        private final Semaphore inFlight = new Semaphore(maxInFlight);
+        private final LongAdder read = new LongAdder();
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final long startedAt = System.currentTimeMillis();
+        private long lastProgressAt = startedAt;
+        private volatile boolean disconnected;
+        private volatile boolean interrupted;
+
+        Ingest(OutputStream results) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(results, StandardCharsets.UTF_8));
+        }
+
+        void fail(long lineNumber, String error) {
+            failed.increment();
+            linesFailed.increment();
+            write(new JSONObject().put("line", lineNumber).put("error", String.valueOf(error)), false);
+        }
+
+        void progressIfDue() {
+            long now = System.currentTimeMillis();
+            if (now - lastProgressAt >= progressIntervalMillis) {
+                lastProgressAt = now;
+                write(counts().put("inFlight", maxInFlight - inFlight.availablePermits()), true);
+            }
+        }
+
+        void summary() {
+            write(counts().put("done", isComplete()).put("durationMillis", System.currentTimeMillis() - startedAt), true);
+        }
+
+        boolean isComplete() {
+            return !disconnected && !interrupted;
+        }
+
+        private JSONObject counts() {
+            return new JSONObject().put("read", read.sum()).put("sent", sent.sum()).put("failed", failed.sum());
+        }
+
+        private void write(JSONObject result, boolean flush) {
+            synchronized (writer) {
+                if (disconnected) {
+                    return;
+                }
+                try {
+                    writer.write(result.toString());
+                    writer.write('\n');
+                    if (flush) {
+                        writer.flush();
+                    }
+                } catch (IOException e) {
+                    // the client went away, lines already read are still sent but nothing more is read
+                    log.warn("Unable to write ingest results, stopping: " + e.getMessage());
+                    disconnected = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads UTF-8 lines terminated by LF or CRLF, holding at most {@code maxLineBytes} of a line. The rest of a longer
+     * line is skipped and the line is reported as truncated.
+     */
+    static final class LineReader {
+        private final InputStream in;
+        private final int maxLineBytes;
+        private final byte[] buffer = new byte[65536];
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        private int position;
+        private int limit;
+        private long lineNumber;
+        private boolean truncated;
+
+        LineReader(InputStream in, int maxLineBytes) {
+            this.in = in;
+            this.maxLineBytes = maxLineBytes;
+        }
+
+        /**
+         * @return the next line without its terminator, or null at the end of the input
+         */
+        String readLine() throws IOException {
+            line.reset();
+            truncated = false;
+            boolean terminated = false;
+            boolean consumed = false;
+            while (!terminated) {
+                if (position == limit) {
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit < 0) {
+                        limit = 0;
+                        break;
+                    }
+                }
+                consumed = true;
+                int end = position;
+                while (end < limit && buffer[end] != '\n') {
+                    end++;
+                }
+                terminated = end < limit;
+                append(position, end);
+                position = terminated ? end + 1 : end;
+            }
+            if (!consumed) {
+                return null;
+            }
+            lineNumber++;
+            byte[] bytes = line.toByteArray();
+            int length = bytes.length;
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        long getLineNumber() {
+            return lineNumber;
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+
+        private void append(int from, int to) {
+            int room = maxLineBytes - line.size();
+            if (to - from > room) {
+                truncated = true;
+            }
+            line.write(buffer, from, Math.min(to - from, Math.max(0, room)));
+        }
+    }
+}
@@ -1,64 +1,70 @@
 package com.zuildorf.service.jms.api;
 
 import com.amazon.sqs.javamessaging.SQSConnectionFactory;
-import com.amazonaws.auth.*;
-import com.amazonaws.regions.Region;
-import com.amazonaws.regions.Regions;
-import org.apache.commons.lang3.StringUtils;
+import com.amazon.sqs.javamessaging.SQSSession;
+import com.zuildorf.config.AwsClientFactory;
+import com.zuildorf.service.aws.api.SQSService;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.DefaultLifecycleProcessor;
 import org.springframework.jms.annotation.EnableJms;
 import org.springframework.jms.listener.DefaultMessageListenerContainer;
 
 /**
+ * The JMS receiver cannot consume FIFO queues in order: the SQS JMS library in use does not expose a message's group
+ * id, so every message would run unordered. Startup fails for a {@code .fifo} default queue; use
+ * {@code sqs.receiver.mode=native} for those.
+ *
  * Created by Milos Leposavic.
  */
 @Configuration
 @EnableJms
+@ConditionalOnProperty(name = "sqs.receiver.mode", havingValue = "jms", matchIfMissing = true)
 public class JMSConfig {
     private Logger log = Logger.getLogger(JMSConfig.class);
     private SQSConnectionFactory sqsConnectionFactory;
     private SQSListenerService sqsListener;
 
     @Autowired
-    public JMSConfig(@Value("${aws.api.credentials.file.path}") String apiProperties,
-                     @Value("${aws.accessKey}") String accessKey,
-                     @Value("${aws.secretKey}") String secretKey,
-                     @Value("${sqs.default.queue.name}") String queueName,
+    public JMSConfig(AwsClientFactory clientFactory,
+                     @Value("${sqs.consumer.prefetch}") int prefetch,
                      @Autowired SQSListenerService sqsListener) {
-
-        if (!StringUtils.isBlank(apiProperties)) {
-            sqsConnectionFactory = SQSConnectionFactory.builder()
-                    .withAWSCredentialsProvider(new PropertiesFileCredentialsProvider(apiProperties))
-                    .withRegion(Region.getRegion(Regions.US_WEST_2))
-                    .withNumberOfMessagesToPrefetch(10)
-                    .build();
-        } else if (!StringUtils.isBlank(accessKey) && !StringUtils.isBlank(secretKey)) {
-            sqsConnectionFactory = SQSConnectionFactory.builder()
-                    .withAWSCredentialsProvider((AWSCredentialsProvider) new BasicAWSCredentials(accessKey, secretKey))
-                    .withRegion(Region.getRegion(Regions.US_WEST_2))
-                    .withNumberOfMessagesToPrefetch(10)
-                    .build();
-        } else {
-            log.info("Unable to get aws credential properties, creating \"anonymous\" credentials. Request will not be signed.");
-            sqsConnectionFactory = SQSConnectionFactory.builder()
-                    .withAWSCredentialsProvider(new AWSStaticCredentialsProvider(new AnonymousAWSCredentials()))
-                    .withRegion(Region.getRegion(Regions.US_WEST_2))
-                    .withNumberOfMessagesToPrefetch(10)
-                    .build();
-        }
+        sqsConnectionFactory = clientFactory.createSqsConnectionFactory(prefetch);
         this.sqsListener = sqsListener;
     }
 
     @Bean
-    public DefaultMessageListenerContainer jmsListenerContainer(@Value("${sqs.default.queue.name}") String queueName) {
+    public DefaultMessageListenerContainer jmsListenerContainer(@Value("${sqs.default.queue.name}") String queueName,
+                                                                @Value("${sqs.consumer.concurrency.min}") int minConsumers,
+                                                                @Value("${sqs.consumer.concurrency.max}") int maxConsumers) {
+        if (SQSService.isFifo(queueName)) {
+            throw new IllegalStateException("FIFO queue " + queueName + " cannot be consumed in group order by the JMS "
+                    + "receiver, set sqs.receiver.mode=native");
+        }
         DefaultMessageListenerContainer dmlc = new DefaultMessageListenerContainer();
         dmlc.setConnectionFactory(sqsConnectionFactory);
         dmlc.setDestinationName(queueName);
         dmlc.setMessageListener(sqsListener);
+        // messages are acknowledged one by one from the pipeline workers once processing completes
+        dmlc.setSessionAcknowledgeMode(SQSSession.UNORDERED_ACKNOWLEDGE);
+        dmlc.setConcurrentConsumers(minConsumers);
+        dmlc.setMaxConcurrentConsumers(maxConsumers);
+        log.info("JMS listener concurrency: " + minConsumers + "-" + maxConsumers + " consumers");
         return dmlc;
     }
+
+    /**
+     * Bounds how long context shutdown waits for the listener container to stop, which lets consumers finish the
+     * messages they are processing before the connection is closed.
+     */
+    @Bean
+    public DefaultLifecycleProcessor lifecycleProcessor(@Value("${sqs.consumer.shutdown.timeout.ms}") long shutdownTimeoutMillis) {
+        DefaultLifecycleProcessor lifecycleProcessor = new DefaultLifecycleProcessor();
+        lifecycleProcessor.setTimeoutPerShutdownPhase(shutdownTimeoutMillis);
+        return lifecycleProcessor;
+    }
 }
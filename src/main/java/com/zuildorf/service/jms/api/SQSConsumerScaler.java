@@ -0,0 +1,81 @@
+package com.zuildorf.service.jms.api;
+
+import com.zuildorf.error.AwsApiException;
+import com.zuildorf.service.aws.api.SQSService;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically sizes the listener container's consumer count from the default queue's backlog. The container still
+ * scales up on its own between the current count and the configured maximum; this only raises or lowers the floor.
+ */
+@Component
+@ConditionalOnProperty(name = "sqs.receiver.mode", havingValue = "jms", matchIfMissing = true)
+public class SQSConsumerScaler {
+    private Logger log = Logger.getLogger(SQSConsumerScaler.class);
+    private final DefaultMessageListenerContainer container;
+    private final SQSService sqsService;
+    private final int minConsumers;
+    private final int maxConsumers;
+    private final int messagesPerConsumer;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public SQSConsumerScaler(DefaultMessageListenerContainer jmsListenerContainer,
+                             SQSService sqsService,
+                             @Value("${sqs.consumer.concurrency.min}") int minConsumers,
+                             @Value("${sqs.consumer.concurrency.max}") int maxConsumers,
+                             @Value("${sqs.consumer.scale.messages.per.consumer}") int messagesPerConsumer,
+                             @Value("${sqs.consumer.scale.interval.ms}") long intervalMillis) {
+        this.container = jmsListenerContainer;
+        this.sqsService = sqsService;
+        this.minConsumers = minConsumers;
+        this.maxConsumers = maxConsumers;
+        this.messagesPerConsumer = messagesPerConsumer;
+        this.intervalMillis = intervalMillis;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sqs-consumer-scaler-");
+        threadFactory.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (minConsumers < maxConsumers) {
+            scheduler.scheduleWithFixedDelay(this::rescale, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    void rescale() {
+        try {
+            String backlogAttribute = sqsService.getQueueInfo(sqsService.getDefaultQueueUrl()).get("ApproximateNumberOfMessages");
+            long backlog = backlogAttribute == null ? 0 : Long.parseLong(backlogAttribute);
+            int desired = (int) Math.max(minConsumers, Math.min(maxConsumers, (backlog + messagesPerConsumer - 1) / messagesPerConsumer));
+            int current = container.getConcurrentConsumers();
+            if (desired != current) {
+                log.info("Scaling JMS consumers from " + current + " to " + desired + " for a backlog of " + backlog + " messages");
+                container.setConcurrentConsumers(desired);
+            }
+        } catch (AwsApiException e) {
+            log.warn("Unable to read queue backlog, keeping current consumer count: " + e.getCause().getMessage());
+        } catch (RuntimeException e) {
+            log.error("Consumer scaling failed: " + e.getMessage(), e);
+        }
+    }
+}
@@ -1,33 +1,135 @@
 package com.zuildorf.service.jms.api;
 
+import com.amazon.sqs.javamessaging.message.SQSMessage;
+import com.zuildorf.service.aws.api.SQSVisibilityHeartbeat;
+import com.zuildorf.service.codec.MessageCodec;
+import com.zuildorf.service.logging.HotPathLogger;
+import com.zuildorf.service.metrics.Counter;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import com.zuildorf.service.pipeline.MessageContext;
+import com.zuildorf.service.pipeline.MessagePipeline;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.TextMessage;
-import java.util.List;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
+ * Messages are acknowledged one DeleteMessage at a time through the JMS session. Batched deletes are only available on
+ * the native receiver: the SQS JMS library creates its own client and keeps every delivered receipt handle in the
+ * session until the message is acknowledged through it, so deleting outside the session would leak those handles.
+ *
  * Created by Milos Leposavic.
  */
 @Component
 public class SQSListenerService implements MessageListener {
     private Logger log = Logger.getLogger(SQSListenerService.class);
+    private final MessagePipeline pipeline;
+    private final SQSVisibilityHeartbeat visibilityHeartbeat;
+    private final MessageCodec codec;
+    private final HotPathLogger hotPathLog;
+    private final Counter received;
+    private final Counter acknowledged;
+    private final Counter acknowledgeFailures;
 
+    @Autowired
+    public SQSListenerService(MessagePipeline pipeline,
+                              SQSVisibilityHeartbeat visibilityHeartbeat,
+                              MessageCodec codec,
+                              HotPathLogger hotPathLog,
+                              MetricsRegistry metrics) {
+        this.pipeline = pipeline;
+        this.visibilityHeartbeat = visibilityHeartbeat;
+        this.codec = codec;
+        this.hotPathLog = hotPathLog;
+        this.received = metrics.counter("consumer.messages.received", "receiver", "jms");
+        this.acknowledged = metrics.counter("consumer.acknowledgements", "receiver", "jms", "outcome", "success");
+        this.acknowledgeFailures = metrics.counter("consumer.acknowledgements", "receiver", "jms", "outcome", "error");
+    }
+
+    /**
+     * Hands the message to the processing pipeline and returns, the message is acknowledged from the pipeline worker
+     * once every stage has completed. Messages whose processing fails stay unacknowledged and are redelivered by SQS
+     * after the visibility timeout.
+     */
     @Override
     public void onMessage(Message message) {
+        SQSVisibilityHeartbeat.Lease lease = track(message);
+        boolean submitted = false;
         try {
+            received.increment();
             TextMessage textMessage = (TextMessage) message;
-            String messageString = textMessage.getText();
-            log.info("Received message " + messageString);
+            Map<String, String> attributes = readProperties(textMessage);
+            if (textMessage.getJMSTimestamp() > 0) {
+                attributes.putIfAbsent("SentTimestamp", String.valueOf(textMessage.getJMSTimestamp()));
+            }
+            String body = textMessage.getText();
+            // the JMS library does not expose message group ids, FIFO queues are consumed by the native receiver
+            MessageContext context = codec.toContext(textMessage.getJMSMessageID(), null, body, attributes);
+            String queueUrl = message instanceof SQSMessage ? ((SQSMessage) message).getQueueUrl() : null;
+            pipeline.submit(context).whenComplete((result, error) -> {
+                if (lease != null) {
+                    lease.release();
+                }
+                if (error != null) {
+                    hotPathLog.recordFailure("consume", context.getMessageId(), queueUrl, body, context.getReceivedAt(), error);
+                    return;
+                }
+                hotPathLog.record("consume", context.getMessageId(), queueUrl, body, context.getReceivedAt());
+                acknowledge(message);
+            });
+            submitted = true;
         } catch (JMSException e) {
             String errorMessage = "Error processing message: " + e.getMessage();
             log.error(errorMessage, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for pipeline capacity, message will be redelivered.");
         } catch (Exception e) {
             String errorMessage = "Exception occurred: " + e.getMessage();
             log.error(errorMessage);
+        } finally {
+            if (!submitted && lease != null) {
+                lease.release();
+            }
+        }
+    }
+
+    private SQSVisibilityHeartbeat.Lease track(Message message) {
+        if (!(message instanceof SQSMessage)) {
+            return null;
+        }
+        SQSMessage sqsMessage = (SQSMessage) message;
+        // the library prefetches messages without recording when, so the first extension goes out right away
+        return visibilityHeartbeat.track(sqsMessage.getQueueUrl(), sqsMessage.getReceiptHandle(), 0);
+    }
+
+    private void acknowledge(Message message) {
+        try {
+            message.acknowledge();
+            acknowledged.increment();
+        } catch (JMSException e) {
+            acknowledgeFailures.increment();
+            log.error("Error acknowledging message: " + e.getMessage(), e);
+        }
+    }
+
+    private static Map<String, String> readProperties(Message message) throws JMSException {
+        Map<String, String> properties = new HashMap<>();
+        Enumeration<?> names = message.getPropertyNames();
+        while (names.hasMoreElements()) {
+            String name = (String) names.nextElement();
+            Object value = message.getObjectProperty(name);
+            if (value != null) {
+                properties.put(name, value.toString());
+            }
         }
+        return properties;
     }
 }
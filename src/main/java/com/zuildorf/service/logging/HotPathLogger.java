@@ -0,0 +1,191 @@
+package com.zuildorf.service.logging;
+
+import com.zuildorf.service.metrics.Counter;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs one event per sent, published or consumed message as a single line of key=value fields: the message id, the
+ * queue or topic, the body size and the latency, never the body itself unless {@code hotpath.log.body.chars} asks for
+ * a prefix of it. Callers only check the level and the sample rate and hand over the fields; in async mode the line is
+ * built and written by a background thread, and events are dropped and counted when that thread falls behind.
+ * Failures are never sampled out.
+ */
+@Component
+public class HotPathLogger {
+    public enum Mode {OFF, SYNC, ASYNC}
+
+    private static final int DRAIN_BATCH_SIZE = 256;
+
+    private Logger log = Logger.getLogger(HotPathLogger.class);
+    private final Mode mode;
+    private final double sampleRate;
+    private final int bodyChars;
+    private final BlockingQueue<Event> events;
+    private final Counter written;
+    private final Counter dropped;
+    private final Thread writer;
+    private final StringBuilder line = new StringBuilder(256);
+    private volatile boolean running = true;
+
+    @Autowired
+    public HotPathLogger(@Value("${hotpath.log.mode}") String mode,
+                         @Value("${hotpath.log.sample.rate}") double sampleRate,
+                         @Value("${hotpath.log.body.chars}") int bodyChars,
+                         @Value("${hotpath.log.queue.capacity}") int queueCapacity,
+                         MetricsRegistry metrics) {
+        this.mode = Mode.valueOf(mode.trim().toUpperCase());
+        this.sampleRate = sampleRate;
+        this.bodyChars = bodyChars;
+        this.events = new ArrayBlockingQueue<>(queueCapacity);
+        this.written = metrics.counter("logging.hotpath.events", "outcome", "written");
+        this.dropped = metrics.counter("logging.hotpath.events", "outcome", "dropped");
+        metrics.gauge("logging.hotpath.queued", events::size);
+        if (this.mode == Mode.ASYNC) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("hotpath-log-writer-");
+            threadFactory.setDaemon(true);
+            this.writer = threadFactory.newThread(this::write);
+            this.writer.start();
+        } else {
+            this.writer = null;
+        }
+        log.info("Hot path logging " + this.mode.name().toLowerCase() + ", sampling " + sampleRate + " of messages");
+    }
+
+    /**
+     * @param startedAt when the send or receive started, in epoch millis
+     */
+    public void record(String event, String messageId, String destination, String body, long startedAt) {
+        if (mode == Mode.OFF || !log.isInfoEnabled() || !sampled()) {
+            return;
+        }
+        submit(new Event(event, messageId, destination, body, System.currentTimeMillis() - startedAt, null));
+    }
+
+    public void recordFailure(String event, String messageId, String destination, String body, long startedAt,
+                              Throwable error) {
+        if (mode == Mode.OFF) {
+            return;
+        }
+        submit(new Event(event, messageId, destination, body, System.currentTimeMillis() - startedAt, error));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (writer != null) {
+            writer.interrupt();
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean sampled() {
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    private void submit(Event event) {
+        if (mode == Mode.SYNC) {
+            synchronized (line) {
+                emit(event);
+            }
+        } else if (!events.offer(event)) {
+            dropped.increment();
+        }
+    }
+
+    private void write() {
+        List<Event> batch = new ArrayList<>(DRAIN_BATCH_SIZE);
+        while (running || !events.isEmpty()) {
+            try {
+                if (events.drainTo(batch, DRAIN_BATCH_SIZE) == 0) {
+                    Event event = events.poll(1, TimeUnit.SECONDS);
+                    if (event == null) {
+                        continue;
+                    }
+                    batch.add(event);
+                }
+            } catch (InterruptedException e) {
+                // keep draining what was queued before shutdown
+                running = false;
+            }
+            for (Event event : batch) {
+                emit(event);
+            }
+            batch.clear();
+        }
+    }
+
+    private void emit(Event event) {
+        line.setLength(0);
+        line.append("event=").append(event.name)
+                .append(" id=").append(event.messageId)
+                .append(" dest=").append(shortName(event.destination))
+                .append(" size=").append(event.body == null ? -1 : event.body.length())
+                .append(" latencyMs=").append(event.latencyMillis);
+        if (event.error != null) {
+            line.append(" error=\"").append(describe(event.error)).append('"');
+        }
+        if (bodyChars > 0 && event.body != null) {
+            line.append(" body=\"");
+            line.append(event.body, 0, Math.min(bodyChars, event.body.length()));
+            line.append(event.body.length() > bodyChars ? "...\"" : "\"");
+        }
+        if (event.error != null) {
+            log.error(line.toString());
+        } else {
+            log.info(line.toString());
+        }
+        written.increment();
+    }
+
+    /**
+     * @return the queue name of a queue url or the topic name of a topic arn
+     */
+    static String shortName(String destination) {
+        if (destination == null) {
+            return "-";
+        }
+        int separator = Math.max(destination.lastIndexOf('/'), destination.lastIndexOf(':'));
+        return separator < 0 ? destination : destination.substring(separator + 1);
+    }
+
+    private static String describe(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause.getClass().getSimpleName() + ": " + cause.getMessage();
+    }
+
+    private static final class Event {
+        private final String name;
+        private final String messageId;
+        private final String destination;
+        private final String body;
+        private final long latencyMillis;
+        private final Throwable error;
+
+        private Event(String name, String messageId, String destination, String body, long latencyMillis, Throwable error) {
+            this.name = name;
+            this.messageId = messageId;
+            this.destination = destination;
+            this.body = body;
+            this.latencyMillis = latencyMillis;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.zuildorf.service.metrics;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.RequestHandler2;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every call made through an SDK client, per service, operation and outcome. The time covers the whole client
+ * execution including retries and backoff, so it is the latency callers actually see; throttled calls are also counted
+ * on their own.
+ */
+public class AwsRequestMetricsHandler extends RequestHandler2 {
+    private static final Set<String> THROTTLING_ERROR_CODES = new HashSet<>(Arrays.asList(
+            "Throttling", "ThrottlingException", "ThrottledException", "RequestThrottled", "RequestThrottledException",
+            "ProvisionedThroughputExceededException", "TooManyRequestsException", "RequestLimitExceeded",
+            "BandwidthLimitExceeded", "SlowDown"));
+
+    private final MetricsRegistry metrics;
+
+    public AwsRequestMetricsHandler(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void beforeRequest(Request<?> request) {
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        record(request, "success");
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        boolean throttled = e instanceof AmazonServiceException && isThrottling((AmazonServiceException) e);
+        if (throttled) {
+            metrics.counter("aws.throttles", "service", request.getServiceName(),
+                    "operation", operationName(request.getOriginalRequest())).increment();
+        }
+        record(request, throttled ? "throttled" : "error");
+    }
+
+    private void record(Request<?> request, String outcome) {
+        long elapsedNanos = System.nanoTime() - request.getAWSRequestMetrics().getTimingInfo().getStartTimeNano();
+        metrics.timer("aws.requests", "service", request.getServiceName(),
+                "operation", operationName(request.getOriginalRequest()), "outcome", outcome)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Whether the service turned the call away for exceeding its request rate, by status 429 or by any of the error
+     * codes SQS, SNS and the other services use for throttling.
+     */
+    public static boolean isThrottling(AmazonServiceException e) {
+        return e.getStatusCode() == 429 || THROTTLING_ERROR_CODES.contains(e.getErrorCode());
+    }
+
+    static String operationName(AmazonWebServiceRequest request) {
+        if (request == null) {
+            return "Unknown";
+        }
+        String name = request.getClass().getSimpleName();
+        return name.endsWith("Request") ? name.substring(0, name.length() - "Request".length()) : name;
+    }
+}
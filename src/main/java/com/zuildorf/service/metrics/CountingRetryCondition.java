@@ -0,0 +1,27 @@
+package com.zuildorf.service.metrics;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.retry.RetryPolicy;
+
+/**
+ * Counts the retries the SDK decides to make, per operation, and otherwise defers to the wrapped condition.
+ */
+public class CountingRetryCondition implements RetryPolicy.RetryCondition {
+    private final RetryPolicy.RetryCondition delegate;
+    private final MetricsRegistry metrics;
+
+    public CountingRetryCondition(RetryPolicy.RetryCondition delegate, MetricsRegistry metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean shouldRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception, int retriesAttempted) {
+        boolean retry = delegate.shouldRetry(originalRequest, exception, retriesAttempted);
+        if (retry) {
+            metrics.counter("aws.retries", "operation", AwsRequestMetricsHandler.operationName(originalRequest)).increment();
+        }
+        return retry;
+    }
+}
@@ -0,0 +1,32 @@
+package com.zuildorf.service.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Distribution of unitless values such as batch fill percentages or payload sizes.
+ */
+public class DistributionSummary {
+    private final Histogram histogram = new Histogram();
+
+    public void record(long value) {
+        histogram.record(value);
+    }
+
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    Map<String, Object> snapshot() {
+        long count = histogram.getCount();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("count", count);
+        snapshot.put("total", histogram.getTotal());
+        snapshot.put("mean", count == 0 ? 0 : (double) histogram.getTotal() / count);
+        snapshot.put("p50", histogram.percentile(0.50));
+        snapshot.put("p95", histogram.percentile(0.95));
+        snapshot.put("p99", histogram.percentile(0.99));
+        snapshot.put("max", histogram.getMax());
+        return snapshot;
+    }
+}
@@ -0,0 +1,87 @@
+package com.zuildorf.service.metrics;
+
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Holds every counter, timer, distribution summary and gauge of the application. Meters are identified by a name and
+ * an even list of tag keys and values, and asking for the same identity again returns the same meter, so callers on hot
+ * paths should look a meter up once and keep it.
+ */
+@Component
+public class MetricsRegistry {
+    private Logger log = Logger.getLogger(MetricsRegistry.class);
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DistributionSummary> summaries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+    public Counter counter(String name, String... tags) {
+        return counters.computeIfAbsent(id(name, tags), id -> new Counter());
+    }
+
+    public Timer timer(String name, String... tags) {
+        return timers.computeIfAbsent(id(name, tags), id -> new Timer());
+    }
+
+    public DistributionSummary summary(String name, String... tags) {
+        return summaries.computeIfAbsent(id(name, tags), id -> new DistributionSummary());
+    }
+
+    /**
+     * Registers a value that is read when metrics are reported, replacing any gauge with the same identity.
+     */
+    public void gauge(String name, Supplier<? extends Number> value, String... tags) {
+        gauges.put(id(name, tags), value);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        Map<String, Object> counterValues = new TreeMap<>();
+        counters.forEach((id, counter) -> counterValues.put(id, counter.getCount()));
+        snapshot.put("counters", counterValues);
+        Map<String, Object> gaugeValues = new TreeMap<>();
+        gauges.forEach((id, gauge) -> gaugeValues.put(id, readGauge(id, gauge)));
+        snapshot.put("gauges", gaugeValues);
+        Map<String, Object> timerValues = new TreeMap<>();
+        timers.forEach((id, timer) -> timerValues.put(id, timer.snapshot()));
+        snapshot.put("timers", timerValues);
+        Map<String, Object> summaryValues = new TreeMap<>();
+        summaries.forEach((id, summary) -> summaryValues.put(id, summary.snapshot()));
+        snapshot.put("summaries", summaryValues);
+        return snapshot;
+    }
+
+    private Number readGauge(String id, Supplier<? extends Number> gauge) {
+        try {
+            return gauge.get();
+        } catch (RuntimeException e) {
+            log.warn("Unable to read gauge " + id + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    static String id(String name, String... tags) {
+        if (tags.length == 0) {
+            return name;
+        }
+        if (tags.length % 2 != 0) {
+            throw new IllegalArgumentException("Tags must be key value pairs: " + name);
+        }
+        StringBuilder id = new StringBuilder(name).append('{');
+        for (int i = 0; i < tags.length; i += 2) {
+            if (i > 0) {
+                id.append(',');
+            }
+            id.append(tags[i]).append('=').append(tags[i + 1]);
+        }
+        return id.append('}').toString();
+    }
+}
@@ -0,0 +1,41 @@
+package com.zuildorf.service.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution recorded in nanoseconds and reported in milliseconds.
+ */
+public class Timer {
+    private final Histogram histogram = new Histogram();
+
+    public void record(long amount, TimeUnit unit) {
+        histogram.record(unit.toNanos(amount));
+    }
+
+    public void recordSince(long startNanos) {
+        histogram.record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    Map<String, Object> snapshot() {
+        long count = histogram.getCount();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("count", count);
+        snapshot.put("totalMs", toMillis(histogram.getTotal()));
+        snapshot.put("meanMs", count == 0 ? 0 : toMillis(histogram.getTotal() / count));
+        snapshot.put("p50Ms", toMillis(histogram.percentile(0.50)));
+        snapshot.put("p95Ms", toMillis(histogram.percentile(0.95)));
+        snapshot.put("p99Ms", toMillis(histogram.percentile(0.99)));
+        snapshot.put("maxMs", toMillis(histogram.getMax()));
+        return snapshot;
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
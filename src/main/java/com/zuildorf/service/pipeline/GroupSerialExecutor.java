@@ -0,0 +1,100 @@
+package com.zuildorf.service.pipeline;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a shared executor one at a time and in submission order within a group, while different groups run in
+ * parallel. Every group with pending tasks has its own queue, and a queue holds at most one executor thread at a time:
+ * after running a task it resubmits itself if more are pending, so a busy group cannot starve the others. Submitting
+ * takes no lock beyond the map's own striping. Once a task of a group fails, the group's tasks already queued behind
+ * it are told to skip, so none of them completes ahead of the failed one being retried. A queue that runs dry retires
+ * itself together with that failure, and the next task for its group starts a fresh one.
+ */
+final class GroupSerialExecutor {
+    private static final int RETIRED = -1;
+
+    private final Executor executor;
+    private final ConcurrentMap<String, GroupQueue> groups = new ConcurrentHashMap<>();
+
+    interface GroupTask {
+        /**
+         * @param skip true if an earlier task of the group has failed, the task should give up without doing its work
+         * @return false if the task failed, which makes the group's queued tasks skip
+         */
+        boolean run(boolean skip);
+    }
+
+    GroupSerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    void execute(String groupId, GroupTask task) {
+        while (true) {
+            GroupQueue queue = groups.computeIfAbsent(groupId, GroupQueue::new);
+            if (queue.offer(task)) {
+                return;
+            }
+            groups.remove(groupId, queue);
+        }
+    }
+
+    int getActiveGroups() {
+        return groups.size();
+    }
+
+    private final class GroupQueue implements Runnable {
+        private final String groupId;
+        private final Queue<GroupTask> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        // only touched by the thread currently running the queue, each run is handed to the next through the executor
+        private boolean failed;
+
+        GroupQueue(String groupId) {
+            this.groupId = groupId;
+        }
+
+        /**
+         * @return false if the queue has retired and the task must go to a new one
+         */
+        boolean offer(GroupTask task) {
+            int previous;
+            do {
+                previous = pending.get();
+                if (previous == RETIRED) {
+                    return false;
+                }
+            } while (!pending.compareAndSet(previous, previous + 1));
+            tasks.add(task);
+            if (previous == 0) {
+                executor.execute(this);
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            GroupTask task;
+            while ((task = tasks.poll()) == null) {
+                // counted by a submitter that has not added it yet
+                Thread.yield();
+            }
+            try {
+                if (!task.run(failed)) {
+                    failed = true;
+                }
+            } finally {
+                if (pending.decrementAndGet() > 0) {
+                    executor.execute(this);
+                } else if (pending.compareAndSet(0, RETIRED)) {
+                    groups.remove(groupId, this);
+                }
+                // otherwise a task was counted after the decrement, and its submitter has rescheduled the queue
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.zuildorf.service.pipeline;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses JSON bodies into a {@link JSONObject} or {@link JSONArray} payload. Other bodies, including malformed JSON,
+ * keep the raw text payload. Bodies that are still streamed are parsed straight from the stream, so a large
+ * decompressed body is never held as text as well.
+ */
+@Component
+@Order(MessageStage.DESERIALIZE)
+public class JsonDeserializeStage implements MessageStage {
+    @Override
+    public boolean process(MessageContext context) throws IOException {
+        if (!context.isBodyLoaded()) {
+            try (Reader reader = new BufferedReader(new InputStreamReader(context.openBody(), StandardCharsets.UTF_8))) {
+                parse(context, reader, firstNonWhitespace(reader));
+            }
+            return true;
+        }
+        if (context.getBody() == null) {
+            return true;
+        }
+        String body = context.getBody().trim();
+        parse(context, new StringReader(body), body.isEmpty() ? -1 : body.charAt(0));
+        return true;
+    }
+
+    private static void parse(MessageContext context, Reader reader, int first) {
+        try {
+            if (first == '{') {
+                context.setPayload(new JSONObject(new JSONTokener(reader)));
+            } else if (first == '[') {
+                context.setPayload(new JSONArray(new JSONTokener(reader)));
+            }
+        } catch (JSONException e) {
+            // not JSON after all, later stages see the raw body
+        }
+    }
+
+    /**
+     * Peeks at the first character that is not whitespace, leaving the reader positioned on it.
+     */
+    private static int firstNonWhitespace(Reader reader) throws IOException {
+        int c;
+        do {
+            reader.mark(1);
+            c = reader.read();
+        } while (c >= 0 && Character.isWhitespace(c));
+        reader.reset();
+        return c;
+    }
+}
@@ -0,0 +1,23 @@
+package com.zuildorf.service.pipeline;
+
+import org.apache.log4j.Logger;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Default handler for messages reaching the end of the chain. It only logs at debug level and never the body; the
+ * receivers log each consumed message through the {@link com.zuildorf.service.logging.HotPathLogger}.
+ */
+@Component
+@Order(MessageStage.HANDLE)
+public class LoggingMessageStage implements MessageStage {
+    private Logger log = Logger.getLogger(LoggingMessageStage.class);
+
+    @Override
+    public boolean process(MessageContext context) {
+        if (log.isDebugEnabled()) {
+            log.debug("Handled message " + context.getMessageId());
+        }
+        return true;
+    }
+}
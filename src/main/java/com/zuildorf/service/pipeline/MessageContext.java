@@ -0,0 +1,131 @@
+package com.zuildorf.service.pipeline;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A received message as it moves through the {@link MessagePipeline}. Stages read the raw body and attributes and may
+ * replace the payload with a deserialized or transformed form for the stages after them. A body that has to be decoded
+ * comes from a {@link BodySource}; stages that can consume it incrementally should use {@link #openBody()}, while
+ * {@link #getBody()} reads it whole once and keeps it.
+ */
+public class MessageContext {
+    private final String messageId;
+    private final String groupId;
+    private final BodySource bodySource;
+    private final Map<String, String> attributes;
+    private final long receivedAt;
+    private String body;
+    private Object payload;
+    private boolean payloadSet;
+    private List<String> routes = Collections.emptyList();
+
+    @FunctionalInterface
+    public interface BodySource {
+        InputStream open() throws IOException;
+    }
+
+    public MessageContext(String messageId, String groupId, String body, Map<String, String> attributes) {
+        this(messageId, groupId, null, body, attributes);
+    }
+
+    public MessageContext(String messageId, String groupId, BodySource bodySource, Map<String, String> attributes) {
+        this(messageId, groupId, bodySource, null, attributes);
+    }
+
+    private MessageContext(String messageId, String groupId, BodySource bodySource, String body,
+                           Map<String, String> attributes) {
+        this.messageId = messageId;
+        this.groupId = groupId;
+        this.bodySource = bodySource;
+        this.body = body;
+        this.attributes = attributes == null ? Collections.<String, String>emptyMap() : attributes;
+        this.receivedAt = System.currentTimeMillis();
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return the message group id, or null for messages that may be processed in any order
+     */
+    public String getGroupId() {
+        return groupId;
+    }
+
+    /**
+     * @throws UncheckedIOException if a streamed body cannot be read
+     */
+    public String getBody() {
+        if (body == null && bodySource != null) {
+            try (Reader reader = new InputStreamReader(bodySource.open(), StandardCharsets.UTF_8)) {
+                StringWriter text = new StringWriter();
+                char[] buffer = new char[8192];
+                int read;
+                while ((read = reader.read(buffer)) >= 0) {
+                    text.write(buffer, 0, read);
+                }
+                body = text.toString();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read body of message " + messageId, e);
+            }
+        }
+        return body;
+    }
+
+    /**
+     * @return a new stream over the UTF-8 body, which the caller must close
+     */
+    public InputStream openBody() throws IOException {
+        if (body != null || bodySource == null) {
+            return new ByteArrayInputStream(body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8));
+        }
+        return bodySource.open();
+    }
+
+    /**
+     * @return whether the body is held in memory, as opposed to being decoded from a stream on demand
+     */
+    public boolean isBodyLoaded() {
+        return body != null || bodySource == null;
+    }
+
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    public String getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    /**
+     * @return the payload set by an earlier stage, or the body if none has been set
+     */
+    public Object getPayload() {
+        return payloadSet ? payload : getBody();
+    }
+
+    public void setPayload(Object payload) {
+        this.payload = payload;
+        this.payloadSet = true;
+    }
+
+    /**
+     * @return the names of the routes the message's attributes matched, empty if it has not been routed
+     */
+    public List<String> getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(List<String> routes) {
+        this.routes = Collections.unmodifiableList(routes);
+    }
+}
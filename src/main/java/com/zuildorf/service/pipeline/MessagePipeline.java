@@ -0,0 +1,172 @@
+package com.zuildorf.service.pipeline;
+
+import com.zuildorf.service.metrics.Counter;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import com.zuildorf.service.metrics.Timer;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Runs received messages through the ordered chain of {@link MessageStage} beans on a dedicated worker pool. Messages
+ * that carry a group id, such as those from FIFO queues, run one at a time and in order within their group through a
+ * {@link GroupSerialExecutor}, while different groups and messages without a group run in parallel on the same pool.
+ * When a grouped message fails, the messages of its group already waiting behind it do not run and complete with a
+ * {@link SkippedMessageException}, so receivers can return them to the queue to be redelivered after the failed one.
+ * Submission blocks once the configured number of messages are in flight, which keeps receivers from fetching faster
+ * than the workers can process. Every stage is told when the chain has finished with a message, on the worker that ran
+ * it, before the message's future completes and it is acknowledged. Consumer lag is measured from the message's
+ * SentTimestamp attribute when it has one.
+ */
+@Component
+public class MessagePipeline {
+    private Logger log = Logger.getLogger(MessagePipeline.class);
+    private final List<MessageStage> stages;
+    private final ExecutorService workerPool;
+    private final GroupSerialExecutor groupExecutor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final Timer processingTimer;
+    private final Timer consumerLag;
+    private final Counter processed;
+    private final Counter failed;
+
+    @Autowired
+    public MessagePipeline(List<MessageStage> stages,
+                           @Value("${pipeline.workers}") int workers,
+                           @Value("${pipeline.max.in.flight}") int maxInFlight,
+                           MetricsRegistry metrics) {
+        this.stages = new ArrayList<>(stages);
+        int workerCount = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.workerPool = Executors.newFixedThreadPool(workerCount, daemonThreadFactory("pipeline-worker-"));
+        this.groupExecutor = new GroupSerialExecutor(workerPool);
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.processingTimer = metrics.timer("pipeline.processing");
+        this.consumerLag = metrics.timer("consumer.lag");
+        this.processed = metrics.counter("pipeline.messages", "outcome", "processed");
+        this.failed = metrics.counter("pipeline.messages", "outcome", "failed");
+        metrics.gauge("pipeline.in.flight", this::getInFlightCount);
+        metrics.gauge("pipeline.groups.active", groupExecutor::getActiveGroups);
+        log.info("Message pipeline stages: " + describeStages());
+    }
+
+    /**
+     * Schedules a message for processing. The returned future completes once every stage has run or a stage has
+     * stopped the chain, and completes exceptionally if a stage throws.
+     */
+    public CompletableFuture<MessageContext> submit(MessageContext context) throws InterruptedException {
+        recordLag(context);
+        inFlight.acquire();
+        long startNanos = System.nanoTime();
+        CompletableFuture<MessageContext> future;
+        try {
+            future = schedule(context);
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+        return future.whenComplete((result, error) -> {
+            inFlight.release();
+            processingTimer.recordSince(startNanos);
+            (error == null ? processed : failed).increment();
+        });
+    }
+
+    public int getInFlightCount() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workerPool.shutdown();
+        try {
+            workerPool.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void recordLag(MessageContext context) {
+        String sentTimestamp = context.getAttributes().get("SentTimestamp");
+        if (sentTimestamp == null) {
+            return;
+        }
+        try {
+            consumerLag.record(Math.max(0, System.currentTimeMillis() - Long.parseLong(sentTimestamp)), TimeUnit.MILLISECONDS);
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring malformed SentTimestamp " + sentTimestamp);
+        }
+    }
+
+    private MessageContext runStages(MessageContext context) {
+        try {
+            for (MessageStage stage : stages) {
+                if (!stage.process(context)) {
+                    break;
+                }
+            }
+            complete(context, null);
+            return context;
+        } catch (RuntimeException e) {
+            complete(context, e);
+            throw e;
+        } catch (Exception e) {
+            complete(context, e);
+            throw new CompletionException(e);
+        }
+    }
+
+    private void complete(MessageContext context, Throwable error) {
+        for (MessageStage stage : stages) {
+            try {
+                stage.onComplete(context, error);
+            } catch (RuntimeException e) {
+                log.error("Completion callback of " + stage.getClass().getSimpleName() + " failed for message "
+                        + context.getMessageId() + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private CompletableFuture<MessageContext> schedule(MessageContext context) {
+        if (context.getGroupId() == null) {
+            return CompletableFuture.supplyAsync(() -> runStages(context), workerPool);
+        }
+        CompletableFuture<MessageContext> future = new CompletableFuture<>();
+        groupExecutor.execute(context.getGroupId(), skip -> {
+            if (skip) {
+                future.completeExceptionally(new SkippedMessageException(context.getMessageId(), context.getGroupId()));
+                return false;
+            }
+            try {
+                future.complete(runStages(context));
+                return true;
+            } catch (Throwable e) {
+                future.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                return false;
+            }
+        });
+        return future;
+    }
+
+    private String describeStages() {
+        List<String> names = new ArrayList<>(stages.size());
+        for (MessageStage stage : stages) {
+            names.add(stage.getClass().getSimpleName());
+        }
+        return String.join(" -> ", names);
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+}
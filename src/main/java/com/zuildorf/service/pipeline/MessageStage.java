@@ -0,0 +1,31 @@
+package com.zuildorf.service.pipeline;
+
+/**
+ * One step of the message processing chain. Stages are Spring beans and run in {@code @Order} sequence; the constants
+ * below are the conventional slots for each kind of stage.
+ */
+public interface MessageStage {
+    /**
+     * Runs on attributes only, before the body is decoded or parsed.
+     */
+    int ROUTE = 50;
+    int DEDUPLICATE = 75;
+    int DESERIALIZE = 100;
+    int FILTER = 200;
+    int TRANSFORM = 300;
+    int HANDLE = 400;
+
+    /**
+     * @return false to stop the chain here. The message is treated as handled and acknowledged. Throwing leaves the
+     * message unacknowledged so that SQS redelivers it.
+     */
+    boolean process(MessageContext context) throws Exception;
+
+    /**
+     * Called on every stage once the chain has finished with a message, before the message is acknowledged.
+     *
+     * @param error what stopped the chain, or null if it completed or a stage returned false
+     */
+    default void onComplete(MessageContext context, Throwable error) {
+    }
+}
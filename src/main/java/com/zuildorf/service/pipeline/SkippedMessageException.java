@@ -0,0 +1,13 @@
+package com.zuildorf.service.pipeline;
+
+/**
+ * Completes a grouped message that was not processed because an earlier message of its group failed. The message
+ * should go back to its queue unacknowledged, to be redelivered after the failed one.
+ */
+public class SkippedMessageException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public SkippedMessageException(String messageId, String groupId) {
+        super("Skipped message " + messageId + " after an earlier message of group " + groupId + " failed");
+    }
+}
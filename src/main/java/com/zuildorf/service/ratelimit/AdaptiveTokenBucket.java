@@ -0,0 +1,96 @@
+package com.zuildorf.service.ratelimit;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket whose rate follows AIMD: it is cut by a factor on throttling, at most once per cooldown so that a burst
+ * of throttled responses counts as one signal, and grows by a fixed step for every second without throttling. Permits
+ * are handed out as reservations on a timeline, so a caller learns how long to wait without holding the lock while it
+ * waits. Unused time accumulates as burst credit of up to {@code burstSeconds} worth of permits.
+ */
+final class AdaptiveTokenBucket {
+    private static final long ONE_SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double minRate;
+    private final double maxRate;
+    private final double increasePerSecond;
+    private final double decreaseFactor;
+    private final long burstNanos;
+    private final long cooldownNanos;
+    private double rate;
+    private long nextFreeNanos;
+    private long lastIncreaseNanos;
+    private long lastDecreaseNanos;
+    private long granted;
+    private long rejected;
+    private long throttles;
+    private long totalWaitNanos;
+
+    AdaptiveTokenBucket(double initialRate, double minRate, double maxRate, double increasePerSecond,
+                        double decreaseFactor, double burstSeconds, long cooldownMillis) {
+        this.rate = initialRate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.increasePerSecond = increasePerSecond;
+        this.decreaseFactor = decreaseFactor;
+        this.burstNanos = (long) (burstSeconds * ONE_SECOND_NANOS);
+        this.cooldownNanos = TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+        long now = System.nanoTime();
+        this.nextFreeNanos = now;
+        this.lastIncreaseNanos = now;
+        this.lastDecreaseNanos = now - cooldownNanos;
+    }
+
+    /**
+     * Reserves one permit.
+     *
+     * @return how long the caller must wait before using it, or -1 if that would exceed {@code maxWaitNanos}, in which
+     * case nothing is reserved
+     */
+    synchronized long reserve(long maxWaitNanos) {
+        long now = System.nanoTime();
+        if (nextFreeNanos < now - burstNanos) {
+            nextFreeNanos = now - burstNanos;
+        }
+        long wait = Math.max(0, nextFreeNanos - now);
+        if (wait > maxWaitNanos) {
+            rejected++;
+            return -1;
+        }
+        nextFreeNanos += (long) (ONE_SECOND_NANOS / rate);
+        granted++;
+        totalWaitNanos += wait;
+        return wait;
+    }
+
+    synchronized void onSuccess() {
+        long now = System.nanoTime();
+        if (rate < maxRate && now - lastIncreaseNanos >= ONE_SECOND_NANOS) {
+            rate = Math.min(maxRate, rate + increasePerSecond);
+            lastIncreaseNanos = now;
+        }
+    }
+
+    synchronized void onThrottle() {
+        throttles++;
+        long now = System.nanoTime();
+        if (now - lastDecreaseNanos >= cooldownNanos) {
+            rate = Math.max(minRate, rate * decreaseFactor);
+            lastDecreaseNanos = now;
+            lastIncreaseNanos = now;
+        }
+    }
+
+    synchronized Map<String, Object> getState() {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("ratePerSecond", Math.round(rate * 100) / 100.0);
+        state.put("granted", granted);
+        state.put("rejected", rejected);
+        state.put("throttles", throttles);
+        state.put("averageWaitMs", granted == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / granted));
+        state.put("backlogMs", Math.max(0, TimeUnit.NANOSECONDS.toMillis(nextFreeNanos - System.nanoTime())));
+        return state;
+    }
+}
@@ -0,0 +1,157 @@
+package com.zuildorf.service.ratelimit;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryPolicy;
+import com.zuildorf.service.metrics.AwsRequestMetricsHandler;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side rate limiting for every SQS and SNS call, with one {@link AdaptiveTokenBucket} per operation and queue
+ * or topic. {@link #requestHandler()} holds each call until its bucket grants a permit and feeds throttling responses
+ * back into the bucket's rate; {@link #backoffStrategy()} spaces out SDK retries with full-jitter exponential backoff,
+ * using a longer base delay for throttling, and makes every retry take a permit as well.
+ */
+@Component
+public class AwsRateLimiter {
+    private Logger log = Logger.getLogger(AwsRateLimiter.class);
+    private final boolean enabled;
+    private final double initialRate;
+    private final double minRate;
+    private final double maxRate;
+    private final double increasePerSecond;
+    private final double decreaseFactor;
+    private final double burstSeconds;
+    private final long cooldownMillis;
+    private final long maxWaitNanos;
+    private final long backoffBaseMillis;
+    private final long throttledBackoffBaseMillis;
+    private final long backoffMaxMillis;
+    private final ConcurrentMap<String, AdaptiveTokenBucket> buckets = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AwsRateLimiter(@Value("${ratelimit.enabled}") boolean enabled,
+                          @Value("${ratelimit.initial.per.second}") double initialRate,
+                          @Value("${ratelimit.min.per.second}") double minRate,
+                          @Value("${ratelimit.max.per.second}") double maxRate,
+                          @Value("${ratelimit.increase.per.second}") double increasePerSecond,
+                          @Value("${ratelimit.decrease.factor}") double decreaseFactor,
+                          @Value("${ratelimit.burst.seconds}") double burstSeconds,
+                          @Value("${ratelimit.decrease.cooldown.ms}") long cooldownMillis,
+                          @Value("${ratelimit.max.wait.ms}") long maxWaitMillis,
+                          @Value("${ratelimit.backoff.base.ms}") long backoffBaseMillis,
+                          @Value("${ratelimit.backoff.throttled.base.ms}") long throttledBackoffBaseMillis,
+                          @Value("${ratelimit.backoff.max.ms}") long backoffMaxMillis) {
+        this.enabled = enabled;
+        this.initialRate = initialRate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.increasePerSecond = increasePerSecond;
+        this.decreaseFactor = decreaseFactor;
+        this.burstSeconds = burstSeconds;
+        this.cooldownMillis = cooldownMillis;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.throttledBackoffBaseMillis = throttledBackoffBaseMillis;
+        this.backoffMaxMillis = backoffMaxMillis;
+        log.info("AWS client rate limiting " + (enabled ? "enabled, " + initialRate + "/s per operation and resource" : "disabled"));
+    }
+
+    public RequestHandler2 requestHandler() {
+        return new LimitingRequestHandler();
+    }
+
+    public RetryPolicy.BackoffStrategy backoffStrategy() {
+        return this::delayBeforeNextRetry;
+    }
+
+    public Map<String, Object> getState() {
+        Map<String, Object> state = new TreeMap<>();
+        buckets.forEach((key, bucket) -> state.put(key, bucket.getState()));
+        return state;
+    }
+
+    /**
+     * Full jitter: a uniformly random delay up to the exponential ceiling, so retries from many threads spread out
+     * instead of arriving together.
+     */
+    private long delayBeforeNextRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception,
+                                      int retriesAttempted) {
+        boolean throttled = isThrottling(exception);
+        long base = throttled ? throttledBackoffBaseMillis : backoffBaseMillis;
+        long ceiling = Math.min(backoffMaxMillis, base << Math.min(retriesAttempted, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        if (!enabled) {
+            return delay;
+        }
+        AdaptiveTokenBucket bucket = bucket(RateLimitKeys.of(originalRequest));
+        if (throttled) {
+            bucket.onThrottle();
+        }
+        long permitWait = bucket.reserve(TimeUnit.MILLISECONDS.toNanos(backoffMaxMillis));
+        return permitWait < 0 ? backoffMaxMillis : Math.max(delay, TimeUnit.NANOSECONDS.toMillis(permitWait));
+    }
+
+    private AdaptiveTokenBucket bucket(String key) {
+        return buckets.computeIfAbsent(key, k -> new AdaptiveTokenBucket(initialRate, minRate, maxRate,
+                increasePerSecond, decreaseFactor, burstSeconds, cooldownMillis));
+    }
+
+    private static boolean isThrottling(Exception e) {
+        if (!(e instanceof AmazonServiceException) || e instanceof RateLimitExceededException) {
+            return false;
+        }
+        return AwsRequestMetricsHandler.isThrottling((AmazonServiceException) e);
+    }
+
+    private final class LimitingRequestHandler extends RequestHandler2 {
+        @Override
+        public void beforeRequest(Request<?> request) {
+            if (!enabled) {
+                return;
+            }
+            String key = RateLimitKeys.of(request.getOriginalRequest());
+            long wait = bucket(key).reserve(maxWaitNanos);
+            if (wait < 0) {
+                throw new RateLimitExceededException(key, TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+            }
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AbortedException();
+                }
+            }
+        }
+
+        @Override
+        public void afterResponse(Request<?> request, Response<?> response) {
+            if (enabled) {
+                bucket(RateLimitKeys.of(request.getOriginalRequest())).onSuccess();
+            }
+        }
+
+        @Override
+        public void afterError(Request<?> request, Response<?> response, Exception e) {
+            if (enabled && isThrottling(e)) {
+                bucket(RateLimitKeys.of(request.getOriginalRequest())).onThrottle();
+            }
+        }
+    }
+}
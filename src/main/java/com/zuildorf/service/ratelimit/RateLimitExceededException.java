@@ -0,0 +1,20 @@
+package com.zuildorf.service.ratelimit;
+
+import com.amazonaws.AmazonServiceException;
+
+/**
+ * Raised before a request is sent when the client-side limiter would hold it longer than the configured maximum wait.
+ * It is an AmazonServiceException so the services map it to an {@code AwsApiException} with status 429 like any
+ * other AWS error.
+ */
+public class RateLimitExceededException extends AmazonServiceException {
+    private static final long serialVersionUID = 1L;
+    public static final String ERROR_CODE = "ClientRateLimitExceeded";
+
+    public RateLimitExceededException(String key, long waitMillis) {
+        super("Client-side rate limit for " + key + " would delay the request by " + waitMillis + "ms");
+        setErrorCode(ERROR_CODE);
+        setErrorType(ErrorType.Client);
+        setStatusCode(429);
+    }
+}
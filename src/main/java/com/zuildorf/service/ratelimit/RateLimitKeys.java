@@ -0,0 +1,64 @@
+package com.zuildorf.service.ratelimit;
+
+import com.amazonaws.AmazonWebServiceRequest;
+
+import java.lang.reflect.Method;
+
+/**
+ * Derives the limiter key of a request from its class and target: {@code service:Operation:resource}, where the
+ * resource is the queue or topic name if the request has one. Accessors are looked up once per request class.
+ */
+final class RateLimitKeys {
+    private static final String[] RESOURCE_ACCESSORS = {"getQueueUrl", "getTopicArn", "getQueueName"};
+
+    private static final ClassValue<Method> RESOURCE_ACCESSOR = new ClassValue<Method>() {
+        @Override
+        protected Method computeValue(Class<?> type) {
+            for (String accessor : RESOURCE_ACCESSORS) {
+                try {
+                    return type.getMethod(accessor);
+                } catch (NoSuchMethodException e) {
+                    // try the next one
+                }
+            }
+            return null;
+        }
+    };
+
+    private RateLimitKeys() {
+    }
+
+    static String of(AmazonWebServiceRequest request) {
+        if (request == null) {
+            return "unknown";
+        }
+        Class<?> type = request.getClass();
+        String packageName = type.getPackage() == null ? "" : type.getPackage().getName();
+        // com.amazonaws.services.<service>.model
+        String[] packages = packageName.split("\\.");
+        String service = packages.length >= 4 ? packages[packages.length - 2] : "aws";
+        String operation = type.getSimpleName().endsWith("Request")
+                ? type.getSimpleName().substring(0, type.getSimpleName().length() - "Request".length())
+                : type.getSimpleName();
+        String resource = resourceOf(request);
+        return resource == null ? service + ":" + operation : service + ":" + operation + ":" + resource;
+    }
+
+    private static String resourceOf(AmazonWebServiceRequest request) {
+        Method accessor = RESOURCE_ACCESSOR.get(request.getClass());
+        if (accessor == null) {
+            return null;
+        }
+        try {
+            Object value = accessor.invoke(request);
+            if (value == null) {
+                return null;
+            }
+            String resource = value.toString();
+            // queue urls end in /name and topic arns in :name
+            return resource.substring(Math.max(resource.lastIndexOf('/'), resource.lastIndexOf(':')) + 1);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.zuildorf.service.redrive;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.zuildorf.error.AwsApiException;
+import com.zuildorf.service.aws.api.SQSService;
+import com.zuildorf.service.metrics.Counter;
+import org.apache.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves messages from a source queue to a target queue. Each worker long-polls the source and forwards what it
+ * receives through the batching producer, body and attributes unchanged; a message is deleted from the source only
+ * once its send has been confirmed, so a failed send leaves it on the source to be picked up again. A worker stops
+ * after two empty receives in a row, and the job finishes once every worker has stopped and every forwarded message
+ * has been sent and deleted. The rate cap is taken before each receive and sizes it, so a received message never
+ * waits for a permit while its visibility timeout runs down.
+ */
+public class RedriveJob {
+    private static final int MAX_MESSAGES_PER_RECEIVE = 10;
+    private static final int WAIT_TIME_SECONDS = 5;
+    private static final int EMPTY_RECEIVES_TO_STOP = 2;
+    private static final int FAILED_RECEIVES_TO_ABORT = 10;
+    private static final int IN_FLIGHT_PER_WORKER = 50;
+
+    public enum State {RUNNING, COMPLETED, CANCELLED, FAILED}
+
+    private Logger log = Logger.getLogger(RedriveJob.class);
+    private final String id = UUID.randomUUID().toString();
+    private final SQSService sqsService;
+    private final String sourceUrl;
+    private final String targetUrl;
+    private final Map<String, String> attributeFilter;
+    private final int workers;
+    private final long maxMessages;
+    private final int visibilityTimeoutSeconds;
+    private final Pacer pacer;
+    private final Counter movedCounter;
+    private final Counter failedCounter;
+    private final Semaphore inFlight;
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong claimed = new AtomicLong();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder moved = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder deleteFailed = new LongAdder();
+    private final long startedAt = System.currentTimeMillis();
+    private volatile long finishedAt;
+    private volatile State state = State.RUNNING;
+    private volatile boolean cancelled;
+    private volatile boolean receivingStopped;
+    private volatile String lastError;
+
+    RedriveJob(SQSService sqsService, String sourceUrl, String targetUrl, Map<String, String> attributeFilter,
+               int workers, double maxPerSecond, long maxMessages, int visibilityTimeoutSeconds,
+               Counter movedCounter, Counter failedCounter) {
+        this.sqsService = sqsService;
+        this.sourceUrl = sourceUrl;
+        this.targetUrl = targetUrl;
+        this.attributeFilter = Collections.unmodifiableMap(new TreeMap<>(attributeFilter));
+        this.workers = workers;
+        this.maxMessages = maxMessages;
+        this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+        this.pacer = maxPerSecond > 0 ? new Pacer(maxPerSecond) : null;
+        this.movedCounter = movedCounter;
+        this.failedCounter = failedCounter;
+        this.inFlight = new Semaphore(workers * IN_FLIGHT_PER_WORKER);
+    }
+
+    void start(ExecutorService workerPool) {
+        activeWorkers.set(workers);
+        for (int i = 0; i < workers; i++) {
+            workerPool.execute(this::work);
+        }
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public boolean isFinished() {
+        return state != State.RUNNING;
+    }
+
+    public Map<String, Object> getProgress() {
+        long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+        long elapsed = Math.max(1, end - startedAt);
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("id", id);
+        progress.put("state", state);
+        progress.put("source", sourceUrl);
+        progress.put("target", targetUrl);
+        progress.put("attributeFilter", attributeFilter);
+        progress.put("workers", workers);
+        progress.put("activeWorkers", activeWorkers.get());
+        progress.put("received", received.sum());
+        progress.put("moved", moved.sum());
+        progress.put("skipped", skipped.sum());
+        progress.put("failed", failed.sum());
+        progress.put("deleteFailed", deleteFailed.sum());
+        progress.put("inFlight", pending.get());
+        progress.put("messagesPerSecond", Math.round(moved.sum() * 10000.0 / elapsed) / 10.0);
+        progress.put("startedAt", new Date(startedAt));
+        progress.put("durationMillis", elapsed);
+        if (maxMessages > 0) {
+            progress.put("maxMessages", maxMessages);
+        }
+        if (lastError != null) {
+            progress.put("lastError", lastError);
+        }
+        return progress;
+    }
+
+    private void work() {
+        int emptyReceives = 0;
+        int failedReceives = 0;
+        try {
+            while (!cancelled && !receivingStopped && emptyReceives < EMPTY_RECEIVES_TO_STOP) {
+                int batchSize = pacer != null ? pacer.acquire(MAX_MESSAGES_PER_RECEIVE) : MAX_MESSAGES_PER_RECEIVE;
+                List<Message> messages;
+                try {
+                    messages = sqsService.receiveMessages(sourceUrl, batchSize, WAIT_TIME_SECONDS,
+                            visibilityTimeoutSeconds);
+                    failedReceives = 0;
+                } catch (AwsApiException | AmazonClientException e) {
+                    lastError = "Receive failed: " + rootMessage(e);
+                    if (e.getCause() instanceof QueueDoesNotExistException || ++failedReceives >= FAILED_RECEIVES_TO_ABORT) {
+                        fail();
+                        return;
+                    }
+                    Thread.sleep(1000);
+                    continue;
+                }
+                emptyReceives = messages.isEmpty() ? emptyReceives + 1 : 0;
+                received.add(messages.size());
+                for (Message message : messages) {
+                    if (!matches(message)) {
+                        // left invisible, it reappears on the source once its visibility timeout expires
+                        skipped.increment();
+                    } else if (maxMessages > 0 && claimed.incrementAndGet() > maxMessages) {
+                        receivingStopped = true;
+                    } else {
+                        forward(message);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            lastError = "Worker failed: " + rootMessage(e);
+            fail();
+        } finally {
+            activeWorkers.decrementAndGet();
+            finishIfDone();
+        }
+    }
+
+    private void fail() {
+        log.error("Redrive " + id + " giving up on " + sourceUrl + ": " + lastError);
+        receivingStopped = true;
+        state = State.FAILED;
+    }
+
+    private boolean matches(Message message) {
+        for (Map.Entry<String, String> filter : attributeFilter.entrySet()) {
+            MessageAttributeValue value = message.getMessageAttributes().get(filter.getKey());
+            if (value == null || !filter.getValue().equals(value.getStringValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void forward(Message message) throws InterruptedException {
+        inFlight.acquire();
+        pending.incrementAndGet();
+        sqsService.forwardMessageAsync(targetUrl, message).whenComplete((messageId, sendError) -> {
+            if (sendError != null) {
+                failed.increment();
+                failedCounter.increment();
+                lastError = "Send failed: " + rootMessage(sendError);
+                done();
+                return;
+            }
+            sqsService.deleteMessageAsync(sourceUrl, message.getReceiptHandle()).whenComplete((result, deleteError) -> {
+                if (deleteError != null) {
+                    // the message is on both queues now and will be moved again once it becomes visible
+                    deleteFailed.increment();
+                    lastError = "Delete failed: " + rootMessage(deleteError);
+                } else {
+                    moved.increment();
+                    movedCounter.increment();
+                }
+                done();
+            });
+        });
+    }
+
+    private void done() {
+        inFlight.release();
+        pending.decrementAndGet();
+        finishIfDone();
+    }
+
+    private synchronized void finishIfDone() {
+        if (activeWorkers.get() > 0 || pending.get() > 0 || finishedAt > 0) {
+            return;
+        }
+        finishedAt = System.currentTimeMillis();
+        if (state == State.RUNNING) {
+            state = cancelled ? State.CANCELLED : State.COMPLETED;
+        }
+        log.info("Redrive " + id + " " + state.name().toLowerCase() + " after " + (finishedAt - startedAt) + "ms: "
+                + moved.sum() + " moved, " + skipped.sum() + " skipped, " + failed.sum() + " failed, "
+                + deleteFailed.sum() + " not deleted from the source");
+    }
+
+    private static String rootMessage(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof AwsApiException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    /**
+     * Spaces permits evenly at the configured rate. Time left unused banks up to one batch of permits, so a worker
+     * that finds several already due takes them at once instead of receiving one message at a time. Waiting happens
+     * outside the lock.
+     */
+    private static final class Pacer {
+        private final long intervalNanos;
+        private long nextFreeNanos = System.nanoTime();
+
+        Pacer(double perSecond) {
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+        }
+
+        /**
+         * Waits for at least one permit and returns how many were taken, at most {@code max}.
+         */
+        int acquire(int max) throws InterruptedException {
+            long wait;
+            int permits;
+            synchronized (this) {
+                long now = System.nanoTime();
+                nextFreeNanos = Math.max(nextFreeNanos, now - (max - 1) * intervalNanos);
+                if (nextFreeNanos > now) {
+                    wait = nextFreeNanos - now;
+                    permits = 1;
+                } else {
+                    wait = 0;
+                    permits = (int) Math.min(max, 1 + (now - nextFreeNanos) / intervalNanos);
+                }
+                nextFreeNanos += permits * intervalNanos;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            return permits;
+        }
+    }
+}
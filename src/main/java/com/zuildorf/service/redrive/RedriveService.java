@@ -0,0 +1,148 @@
+package com.zuildorf.service.redrive;
+
+import com.zuildorf.error.AwsApiException;
+import com.zuildorf.service.aws.api.SQSService;
+import com.zuildorf.service.metrics.Counter;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Starts and tracks {@link RedriveJob}s, which move messages from one queue to another, for instance to drain a
+ * dead-letter queue back into its source queue. Finished jobs are kept for inspection until
+ * {@code redrive.retained.jobs} newer jobs have finished.
+ */
+@Component
+public class RedriveService {
+    private Logger log = Logger.getLogger(RedriveService.class);
+    private final SQSService sqsService;
+    private final int defaultWorkers;
+    private final int maxWorkers;
+    private final int visibilityTimeoutSeconds;
+    private final int retainedJobs;
+    private final ExecutorService workerPool;
+    private final ConcurrentMap<String, RedriveJob> jobs = new ConcurrentHashMap<>();
+    private final Counter moved;
+    private final Counter failed;
+
+    @Autowired
+    public RedriveService(SQSService sqsService,
+                          @Value("${redrive.workers.default}") int defaultWorkers,
+                          @Value("${redrive.workers.max}") int maxWorkers,
+                          @Value("${redrive.visibility.timeout.seconds}") int visibilityTimeoutSeconds,
+                          @Value("${redrive.retained.jobs}") int retainedJobs,
+                          MetricsRegistry metrics) {
+        this.sqsService = sqsService;
+        this.defaultWorkers = defaultWorkers;
+        this.maxWorkers = maxWorkers;
+        this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+        this.retainedJobs = retainedJobs;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sqs-redrive-");
+        threadFactory.setDaemon(true);
+        this.workerPool = Executors.newCachedThreadPool(threadFactory);
+        this.moved = metrics.counter("redrive.messages", "outcome", "moved");
+        this.failed = metrics.counter("redrive.messages", "outcome", "failed");
+        metrics.gauge("redrive.jobs.running", this::getRunningCount);
+    }
+
+    /**
+     * @param source          queue url or name to receive from
+     * @param target          queue url or name to send to
+     * @param attributeFilter if not empty, only messages with all of these message attribute values are moved, others
+     *                        become visible on the source queue again after the visibility timeout
+     * @param workers         parallel long-pollers on the source queue, 0 for the default
+     * @param maxPerSecond    cap on messages moved per second, 0 for no cap
+     * @param maxMessages     stop after moving this many messages, 0 to drain the source queue
+     * @throws AwsApiException if either queue does not exist
+     */
+    public RedriveJob start(String source, String target, Map<String, String> attributeFilter, int workers,
+                            double maxPerSecond, long maxMessages) throws AwsApiException {
+        String sourceUrl = sqsService.resolveQueueUrl(source);
+        String targetUrl = sqsService.resolveQueueUrl(target);
+        if (sourceUrl.equals(targetUrl)) {
+            throw new AwsApiException(400, new IllegalArgumentException("Source and target queue are the same"));
+        }
+        int workerCount = workers <= 0 ? defaultWorkers : Math.min(workers, maxWorkers);
+        RedriveJob job = new RedriveJob(sqsService, sourceUrl, targetUrl, attributeFilter, workerCount, maxPerSecond,
+                maxMessages, visibilityTimeoutSeconds, moved, failed);
+        jobs.put(job.getId(), job);
+        evictFinishedJobs();
+        log.info("Starting redrive " + job.getId() + " from " + sourceUrl + " to " + targetUrl + " with "
+                + workerCount + " workers" + (maxPerSecond > 0 ? ", at most " + maxPerSecond + " messages/s" : "")
+                + (attributeFilter.isEmpty() ? "" : ", filtered by " + attributeFilter));
+        job.start(workerPool);
+        return job;
+    }
+
+    public Optional<RedriveJob> get(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    public List<Map<String, Object>> list() {
+        List<RedriveJob> sorted = new ArrayList<>(jobs.values());
+        sorted.sort(Comparator.comparingLong(RedriveJob::getStartedAt).reversed());
+        List<Map<String, Object>> progress = new ArrayList<>(sorted.size());
+        for (RedriveJob job : sorted) {
+            progress.add(job.getProgress());
+        }
+        return progress;
+    }
+
+    /**
+     * Stops a job from receiving more messages. Messages already received are still sent and deleted.
+     *
+     * @return false if there is no such job
+     */
+    public boolean cancel(String id) {
+        RedriveJob job = jobs.get(id);
+        if (job == null) {
+            return false;
+        }
+        job.cancel();
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (RedriveJob job : jobs.values()) {
+            job.cancel();
+        }
+        workerPool.shutdownNow();
+    }
+
+    private int getRunningCount() {
+        int running = 0;
+        for (RedriveJob job : jobs.values()) {
+            if (!job.isFinished()) {
+                running++;
+            }
+        }
+        return running;
+    }
+
+    private void evictFinishedJobs() {
+        List<RedriveJob> finished = new ArrayList<>();
+        for (RedriveJob job : jobs.values()) {
+            if (job.isFinished()) {
+                finished.add(job);
+            }
+        }
+        if (finished.size() <= retainedJobs) {
+            return;
+        }
+        finished.sort(Comparator.comparingLong(RedriveJob::getStartedAt));
+        for (RedriveJob job : finished.subList(0, finished.size() - retainedJobs)) {
+            jobs.remove(job.getId());
+        }
+    }
+}
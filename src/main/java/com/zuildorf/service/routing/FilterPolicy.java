@@ -0,0 +1,282 @@
+package com.zuildorf.service.routing;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * A compiled SNS subscription filter policy. A policy maps attribute names to lists of conditions; a message matches
+ * when, for every attribute in the policy, at least one of its conditions holds. Supported conditions are exact string
+ * and numeric values, {@code prefix}, {@code anything-but} (a value or a list of values), {@code numeric} ranges and
+ * {@code exists}. Attributes are compared as strings, numeric conditions parse the value as a number.
+ */
+public final class FilterPolicy {
+    private final String json;
+    private final List<Clause> clauses;
+
+    private FilterPolicy(String json, List<Clause> clauses) {
+        this.json = json;
+        this.clauses = clauses;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the policy is not valid JSON or uses an unsupported condition
+     */
+    public static FilterPolicy parse(String json) {
+        try {
+            JSONObject policy = new JSONObject(json);
+            if (policy.length() == 0) {
+                throw new IllegalArgumentException("Filter policy has no attributes");
+            }
+            List<Clause> clauses = new ArrayList<>(policy.length());
+            for (String attribute : new TreeSet<>(Arrays.asList(JSONObject.getNames(policy)))) {
+                JSONArray values = policy.optJSONArray(attribute);
+                if (values == null || values.length() == 0) {
+                    throw new IllegalArgumentException("Conditions for " + attribute + " must be a non-empty array");
+                }
+                List<Condition> conditions = new ArrayList<>(values.length());
+                for (int i = 0; i < values.length(); i++) {
+                    conditions.add(condition(attribute, values.get(i)));
+                }
+                clauses.add(new Clause(attribute, conditions));
+            }
+            return new FilterPolicy(json, Collections.unmodifiableList(clauses));
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Invalid filter policy: " + e.getMessage(), e);
+        }
+    }
+
+    public boolean matches(Map<String, String> attributes) {
+        for (Clause clause : clauses) {
+            if (!clause.matches(attributes.get(clause.attribute))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    List<Clause> getClauses() {
+        return clauses;
+    }
+
+    @Override
+    public String toString() {
+        return json;
+    }
+
+    private static Condition condition(String attribute, Object value) {
+        if (value instanceof String) {
+            return new Exact((String) value);
+        }
+        if (value instanceof Number) {
+            return new NumericEquals(((Number) value).doubleValue());
+        }
+        if (!(value instanceof JSONObject) || ((JSONObject) value).length() != 1) {
+            throw new IllegalArgumentException("Unsupported condition for " + attribute + ": " + value);
+        }
+        JSONObject operator = (JSONObject) value;
+        String name = JSONObject.getNames(operator)[0];
+        Object operand = operator.get(name);
+        switch (name) {
+            case "prefix":
+                return new Prefix(operator.getString(name));
+            case "exists":
+                return new Exists(operator.getBoolean(name));
+            case "anything-but":
+                return new AnythingBut(operand instanceof JSONArray ? (JSONArray) operand : new JSONArray().put(operand));
+            case "numeric":
+                return new NumericRange(operator.getJSONArray(name));
+            default:
+                throw new IllegalArgumentException("Unsupported condition for " + attribute + ": " + name);
+        }
+    }
+
+    private static Double number(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Double.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The conditions on one attribute, any of which may hold.
+     */
+    static final class Clause {
+        final String attribute;
+        final List<Condition> conditions;
+
+        Clause(String attribute, List<Condition> conditions) {
+            this.attribute = attribute;
+            this.conditions = Collections.unmodifiableList(conditions);
+        }
+
+        boolean matches(String value) {
+            for (Condition condition : conditions) {
+                if (condition.test(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    abstract static class Condition {
+        /**
+         * @param value the attribute value, or null if the message does not have the attribute
+         */
+        abstract boolean test(String value);
+
+        /**
+         * @return the value this condition is an exact match for, so it can be looked up instead of tested, or null
+         */
+        String exactValue() {
+            return null;
+        }
+
+        /**
+         * @return whether the condition holds for a message without the attribute
+         */
+        boolean matchesAbsent() {
+            return test(null);
+        }
+    }
+
+    private static final class Exact extends Condition {
+        private final String expected;
+
+        Exact(String expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        boolean test(String value) {
+            return expected.equals(value);
+        }
+
+        @Override
+        String exactValue() {
+            return expected;
+        }
+    }
+
+    private static final class NumericEquals extends Condition {
+        private final double expected;
+
+        NumericEquals(double expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        boolean test(String value) {
+            Double number = number(value);
+            return number != null && number == expected;
+        }
+    }
+
+    private static final class Prefix extends Condition {
+        private final String prefix;
+
+        Prefix(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        boolean test(String value) {
+            return value != null && value.startsWith(prefix);
+        }
+    }
+
+    private static final class Exists extends Condition {
+        private final boolean exists;
+
+        Exists(boolean exists) {
+            this.exists = exists;
+        }
+
+        @Override
+        boolean test(String value) {
+            return (value != null) == exists;
+        }
+    }
+
+    private static final class AnythingBut extends Condition {
+        private final Set<String> strings = new HashSet<>();
+        private final Set<Double> numbers = new HashSet<>();
+
+        AnythingBut(JSONArray excluded) {
+            for (int i = 0; i < excluded.length(); i++) {
+                Object value = excluded.get(i);
+                if (value instanceof Number) {
+                    numbers.add(((Number) value).doubleValue());
+                } else if (value instanceof String) {
+                    strings.add((String) value);
+                } else {
+                    throw new IllegalArgumentException("anything-but takes strings or numbers: " + value);
+                }
+            }
+        }
+
+        @Override
+        boolean test(String value) {
+            return value != null && !strings.contains(value) && !numbers.contains(number(value));
+        }
+    }
+
+    private static final class NumericRange extends Condition {
+        private final String[] operators;
+        private final double[] operands;
+
+        NumericRange(JSONArray range) {
+            if (range.length() == 0 || range.length() % 2 != 0) {
+                throw new IllegalArgumentException("numeric takes operator and value pairs: " + range);
+            }
+            operators = new String[range.length() / 2];
+            operands = new double[range.length() / 2];
+            for (int i = 0; i < operators.length; i++) {
+                operators[i] = range.getString(i * 2);
+                operands[i] = range.getDouble(i * 2 + 1);
+                if (!Arrays.asList("=", "<", "<=", ">", ">=").contains(operators[i])) {
+                    throw new IllegalArgumentException("Unsupported numeric operator: " + operators[i]);
+                }
+            }
+        }
+
+        @Override
+        boolean test(String value) {
+            Double number = number(value);
+            if (number == null) {
+                return false;
+            }
+            for (int i = 0; i < operators.length; i++) {
+                double operand = operands[i];
+                boolean holds;
+                switch (operators[i]) {
+                    case "=":
+                        holds = number == operand;
+                        break;
+                    case "<":
+                        holds = number < operand;
+                        break;
+                    case "<=":
+                        holds = number <= operand;
+                        break;
+                    case ">":
+                        holds = number > operand;
+                        break;
+                    default:
+                        holds = number >= operand;
+                }
+                if (!holds) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
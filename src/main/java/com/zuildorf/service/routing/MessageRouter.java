@@ -0,0 +1,83 @@
+package com.zuildorf.service.routing;
+
+import com.zuildorf.service.metrics.Counter;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Routes received messages by their attributes. The routes are the {@link RoutedMessageHandler} beans plus, if
+ * {@code routing.accept.policy} is set, an {@value #ACCEPT_ROUTE} route that has no handler and only lets matching
+ * messages continue down the pipeline. All route policies are compiled into one {@link RoutingIndex} at startup.
+ * Without any routes every message passes.
+ */
+@Component
+public class MessageRouter {
+    public static final String ACCEPT_ROUTE = "accept";
+
+    private Logger log = Logger.getLogger(MessageRouter.class);
+    private final List<String> routeNames = new ArrayList<>();
+    private final Map<String, RoutedMessageHandler> handlers = new HashMap<>();
+    private final RoutingIndex index;
+    private final List<Counter> matched = new ArrayList<>();
+    private final Counter dropped;
+
+    @Autowired
+    public MessageRouter(Optional<List<RoutedMessageHandler>> handlers,
+                         @Value("${routing.accept.policy}") String acceptPolicy,
+                         MetricsRegistry metrics) {
+        List<FilterPolicy> policies = new ArrayList<>();
+        for (RoutedMessageHandler handler : handlers.orElse(Collections.<RoutedMessageHandler>emptyList())) {
+            if (this.handlers.put(handler.getRouteName(), handler) != null) {
+                throw new IllegalStateException("Duplicate message route " + handler.getRouteName());
+            }
+            routeNames.add(handler.getRouteName());
+            policies.add(FilterPolicy.parse(handler.getFilterPolicy()));
+        }
+        if (StringUtils.isNotBlank(acceptPolicy)) {
+            routeNames.add(ACCEPT_ROUTE);
+            policies.add(FilterPolicy.parse(acceptPolicy));
+        }
+        for (String route : routeNames) {
+            matched.add(metrics.counter("routing.messages", "route", route));
+        }
+        this.dropped = metrics.counter("routing.messages", "route", "none");
+        this.index = new RoutingIndex(policies);
+        if (!routeNames.isEmpty()) {
+            log.info("Routing messages by attributes to " + routeNames + ", unmatched messages are dropped");
+        }
+    }
+
+    public boolean isEnabled() {
+        return !routeNames.isEmpty();
+    }
+
+    /**
+     * @return the names of the routes the attributes match, empty if the message should be dropped
+     */
+    public List<String> route(Map<String, String> attributes) {
+        BitSet routes = index.match(attributes);
+        if (routes.isEmpty()) {
+            dropped.increment();
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>(routes.cardinality());
+        for (int route = routes.nextSetBit(0); route >= 0; route = routes.nextSetBit(route + 1)) {
+            matched.get(route).increment();
+            names.add(routeNames.get(route));
+        }
+        return names;
+    }
+
+    /**
+     * @return the handler of a route, or null for the {@value #ACCEPT_ROUTE} route
+     */
+    public RoutedMessageHandler getHandler(String route) {
+        return handlers.get(route);
+    }
+}
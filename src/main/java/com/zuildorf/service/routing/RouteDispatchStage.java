@@ -0,0 +1,32 @@
+package com.zuildorf.service.routing;
+
+import com.zuildorf.service.pipeline.MessageContext;
+import com.zuildorf.service.pipeline.MessageStage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hands each routed message to the handlers of the routes {@link RoutingStage} matched, ahead of the default handlers.
+ */
+@Component
+@Order(MessageStage.HANDLE - 1)
+public class RouteDispatchStage implements MessageStage {
+    private final MessageRouter router;
+
+    @Autowired
+    public RouteDispatchStage(MessageRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public boolean process(MessageContext context) throws Exception {
+        for (String route : context.getRoutes()) {
+            RoutedMessageHandler handler = router.getHandler(route);
+            if (handler != null) {
+                handler.handle(context);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,19 @@
+package com.zuildorf.service.routing;
+
+import com.zuildorf.service.pipeline.MessageContext;
+
+/**
+ * A handler for the messages matching a filter policy. Handler beans are picked up by the {@link MessageRouter}, and a
+ * message is handed to every handler whose policy its attributes match, after the rest of the pipeline has prepared
+ * it.
+ */
+public interface RoutedMessageHandler {
+    String getRouteName();
+
+    /**
+     * @return an SNS filter policy over the message attributes, see {@link FilterPolicy}
+     */
+    String getFilterPolicy();
+
+    void handle(MessageContext context) throws Exception;
+}
@@ -0,0 +1,123 @@
+package com.zuildorf.service.routing;
+
+import java.util.*;
+
+/**
+ * Matches attributes against many filter policies at once. Every clause of every policy gets an id; exact string
+ * conditions are grouped by attribute and value into hash lookups, and only the remaining conditions are tested. A
+ * message's attributes mark the clauses they satisfy, and a route matches once all of its clauses are marked. The cost
+ * per message depends on the number of distinct attributes and non-exact conditions, not on the number of routes.
+ */
+final class RoutingIndex {
+    private static final int[] NONE = new int[0];
+
+    private final int routeCount;
+    private final int[] clauseRoute;
+    private final int[] routeClauseCount;
+    private final Map<String, AttributeIndex> attributes = new HashMap<>();
+
+    RoutingIndex(List<FilterPolicy> policies) {
+        routeCount = policies.size();
+        routeClauseCount = new int[routeCount];
+        List<Integer> clauseRoutes = new ArrayList<>();
+        for (int route = 0; route < routeCount; route++) {
+            for (FilterPolicy.Clause clause : policies.get(route).getClauses()) {
+                int clauseId = clauseRoutes.size();
+                clauseRoutes.add(route);
+                routeClauseCount[route]++;
+                attributes.computeIfAbsent(clause.attribute, name -> new AttributeIndex()).add(clauseId, clause);
+            }
+        }
+        clauseRoute = new int[clauseRoutes.size()];
+        for (int i = 0; i < clauseRoute.length; i++) {
+            clauseRoute[i] = clauseRoutes.get(i);
+        }
+        for (AttributeIndex index : attributes.values()) {
+            index.freeze();
+        }
+    }
+
+    /**
+     * @return the indexes, in policy order, of the policies the attributes match
+     */
+    BitSet match(Map<String, String> messageAttributes) {
+        BitSet satisfied = new BitSet(clauseRoute.length);
+        for (Map.Entry<String, AttributeIndex> attribute : attributes.entrySet()) {
+            attribute.getValue().mark(messageAttributes.get(attribute.getKey()), satisfied);
+        }
+        int[] counts = new int[routeCount];
+        BitSet matched = new BitSet(routeCount);
+        for (int clause = satisfied.nextSetBit(0); clause >= 0; clause = satisfied.nextSetBit(clause + 1)) {
+            int route = clauseRoute[clause];
+            if (++counts[route] == routeClauseCount[route]) {
+                matched.set(route);
+            }
+        }
+        return matched;
+    }
+
+    private static final class AttributeIndex {
+        private final Map<String, List<Integer>> exactBuilder = new HashMap<>();
+        private final Map<String, int[]> exact = new HashMap<>();
+        private final List<FilterPolicy.Condition> conditions = new ArrayList<>();
+        private final List<Integer> conditionClauses = new ArrayList<>();
+        private int[] absentClauses = NONE;
+        private final Set<Integer> absentBuilder = new TreeSet<>();
+
+        void add(int clauseId, FilterPolicy.Clause clause) {
+            for (FilterPolicy.Condition condition : clause.conditions) {
+                String exactValue = condition.exactValue();
+                if (exactValue != null) {
+                    exactBuilder.computeIfAbsent(exactValue, value -> new ArrayList<>()).add(clauseId);
+                } else if (condition.matchesAbsent()) {
+                    absentBuilder.add(clauseId);
+                } else {
+                    conditions.add(condition);
+                    conditionClauses.add(clauseId);
+                }
+            }
+        }
+
+        void freeze() {
+            for (Map.Entry<String, List<Integer>> entry : exactBuilder.entrySet()) {
+                exact.put(entry.getKey(), toArray(entry.getValue()));
+            }
+            exactBuilder.clear();
+            absentClauses = toArray(absentBuilder);
+            absentBuilder.clear();
+        }
+
+        /**
+         * Marks the clauses satisfied by this attribute's value. A clause may be marked more than once, by different
+         * conditions in its list, which setting a bit makes harmless.
+         */
+        void mark(String value, BitSet satisfied) {
+            if (value == null) {
+                for (int clause : absentClauses) {
+                    satisfied.set(clause);
+                }
+                return;
+            }
+            int[] exactClauses = exact.get(value);
+            if (exactClauses != null) {
+                for (int clause : exactClauses) {
+                    satisfied.set(clause);
+                }
+            }
+            for (int i = 0; i < conditions.size(); i++) {
+                if (conditions.get(i).test(value)) {
+                    satisfied.set(conditionClauses.get(i));
+                }
+            }
+        }
+
+        private static int[] toArray(Collection<Integer> values) {
+            int[] array = new int[values.size()];
+            int i = 0;
+            for (int value : values) {
+                array[i++] = value;
+            }
+            return array;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.zuildorf.service.routing;
+
+import com.zuildorf.service.pipeline.MessageContext;
+import com.zuildorf.service.pipeline.MessageStage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Routes each message by its attributes before anything reads the body. Messages no route wants stop here and are
+ * acknowledged without being decoded or deserialized.
+ */
+@Component
+@Order(MessageStage.ROUTE)
+public class RoutingStage implements MessageStage {
+    private final MessageRouter router;
+
+    @Autowired
+    public RoutingStage(MessageRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public boolean process(MessageContext context) {
+        if (!router.isEnabled()) {
+            return true;
+        }
+        context.setRoutes(router.route(context.getAttributes()));
+        return !context.getRoutes().isEmpty();
+    }
+}
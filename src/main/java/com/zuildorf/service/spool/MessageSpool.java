@@ -0,0 +1,350 @@
+package com.zuildorf.service.spool;
+
+import com.zuildorf.error.AwsApiException;
+import com.zuildorf.service.aws.api.SNSService;
+import com.zuildorf.service.aws.api.SQSService;
+import com.zuildorf.service.metrics.Counter;
+import com.zuildorf.service.metrics.MetricsRegistry;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A durable local queue of messages for SQS and SNS, so producers do not have to wait on AWS or lose messages while it
+ * is unavailable. Messages are appended to memory-mapped {@link SpoolSegment} files; a flusher thread forces everything
+ * appended since its last pass to disk in one go and only then completes the appends (group commit). A drainer thread
+ * forwards committed records in order through the batching producers, retrying transient failures with backoff, and
+ * checkpoints its position after every batch so a restart resumes where it stopped. Delivery is at least once: records
+ * forwarded after the last checkpoint are forwarded again after a crash.
+ */
+@Component
+@ConditionalOnExpression("!'${spool.mode}'.equalsIgnoreCase('off')")
+public class MessageSpool {
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private Logger log = Logger.getLogger(MessageSpool.class);
+    private final SQSService sqsService;
+    private final SNSService snsService;
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final int drainBatchSize;
+    private final long retryMinMillis;
+    private final long retryMaxMillis;
+    private final Deque<SpoolSegment> segments = new ConcurrentLinkedDeque<>();
+    private final AtomicLong backlog = new AtomicLong();
+    private final Counter appended;
+    private final Counter forwarded;
+    private final Counter dropped;
+    private final Thread flusher;
+    private final Thread drainer;
+    private SpoolSegment active;
+    private long nextSequence;
+    private List<Commit> pending = new ArrayList<>();
+    private long checkpointSequence;
+    private int checkpointPosition;
+    private volatile boolean running = true;
+
+    @Autowired
+    public MessageSpool(SQSService sqsService,
+                        SNSService snsService,
+                        @Value("${spool.directory}") String directory,
+                        @Value("${spool.segment.bytes}") int segmentBytes,
+                        @Value("${spool.max.bytes}") long maxBytes,
+                        @Value("${spool.drain.batch.size}") int drainBatchSize,
+                        @Value("${spool.drain.retry.min.ms}") long retryMinMillis,
+                        @Value("${spool.drain.retry.max.ms}") long retryMaxMillis,
+                        MetricsRegistry metrics) throws IOException {
+        this.sqsService = sqsService;
+        this.snsService = snsService;
+        this.directory = Paths.get(directory).toAbsolutePath();
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.max(2, maxBytes / segmentBytes);
+        this.drainBatchSize = drainBatchSize;
+        this.retryMinMillis = retryMinMillis;
+        this.retryMaxMillis = retryMaxMillis;
+        this.appended = metrics.counter("spool.records", "outcome", "appended");
+        this.forwarded = metrics.counter("spool.records", "outcome", "forwarded");
+        this.dropped = metrics.counter("spool.records", "outcome", "dropped");
+        metrics.gauge("spool.backlog", backlog::get);
+        metrics.gauge("spool.segments", segments::size);
+        Files.createDirectories(this.directory);
+        recover();
+        roll();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("message-spool-");
+        threadFactory.setDaemon(true);
+        this.flusher = threadFactory.newThread(this::flush);
+        this.drainer = threadFactory.newThread(this::drain);
+        this.flusher.start();
+        this.drainer.start();
+        log.info("Message spool in " + this.directory + " holds " + backlog.get() + " records to forward.");
+    }
+
+    /**
+     * Appends a message to the spool. The returned future completes with the message's spool id once it is on disk,
+     * or exceptionally with an {@link AwsApiException} if it is too large or the spool is full.
+     */
+    CompletableFuture<String> append(SpoolRecord record) {
+        byte[] payload = record.encode();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        synchronized (this) {
+            if (!running) {
+                future.completeExceptionally(new AwsApiException(503, new IllegalStateException("Message spool is shut down")));
+                return future;
+            }
+            if (payload.length + SpoolSegment.RECORD_HEADER_BYTES > segmentBytes) {
+                future.completeExceptionally(new AwsApiException(413, new IllegalArgumentException("Message of "
+                        + payload.length + " bytes does not fit in a spool segment of " + segmentBytes + " bytes")));
+                return future;
+            }
+            if (!active.hasRoom(payload.length)) {
+                if (segments.size() >= maxSegments) {
+                    future.completeExceptionally(new AwsApiException(503,
+                            new IllegalStateException("Message spool is full, " + backlog.get() + " records waiting")));
+                    return future;
+                }
+                active.seal();
+                roll();
+            }
+            int position = active.append(payload);
+            pending.add(new Commit(active, position, future));
+            backlog.incrementAndGet();
+            appended.increment();
+            notifyAll();
+        }
+        return future;
+    }
+
+    /**
+     * @return whether records are waiting to be forwarded, in which case new messages should be spooled behind them
+     */
+    boolean isBacklogged() {
+        return backlog.get() > 0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        drainer.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+            drainer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Message spool stopped with " + backlog.get() + " records left to forward.");
+    }
+
+    /**
+     * Forces the segments written since the last pass and completes their appends, until shutdown has committed the
+     * last of them.
+     */
+    private void flush() {
+        while (true) {
+            List<Commit> commits;
+            synchronized (this) {
+                while (pending.isEmpty() && running) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // keep committing until shutdown, appends are waiting on this thread
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                commits = pending;
+                pending = new ArrayList<>();
+            }
+            Set<SpoolSegment> written = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Commit commit : commits) {
+                written.add(commit.segment);
+            }
+            for (SpoolSegment segment : written) {
+                segment.force();
+            }
+            for (Commit commit : commits) {
+                commit.segment.commit(commit.position);
+                commit.future.complete(commit.segment.getSequence() + ":" + commit.position);
+            }
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    private void drain() {
+        SpoolSegment segment = null;
+        int position = 0;
+        while (running) {
+            try {
+                if (segment == null) {
+                    segment = segments.peekFirst();
+                    position = segment.getSequence() == checkpointSequence ? checkpointPosition : 0;
+                }
+                List<SpoolRecord> batch = new ArrayList<>(drainBatchSize);
+                int end = position;
+                byte[] payload;
+                while (batch.size() < drainBatchSize && (payload = segment.read(end)) != null) {
+                    try {
+                        batch.add(SpoolRecord.decode(payload));
+                    } catch (RuntimeException e) {
+                        dropped.increment();
+                        backlog.decrementAndGet();
+                        log.error("Dropping unreadable spooled record " + segment.getSequence() + ":" + end + ": " + e);
+                    }
+                    end = SpoolSegment.next(end, payload);
+                }
+                if (!batch.isEmpty() || end > position) {
+                    forward(batch);
+                    position = end;
+                    checkpoint(segment.getSequence(), position);
+                } else if (segment.isExhausted(position) && segments.size() > 1) {
+                    segments.pollFirst();
+                    Files.deleteIfExists(segment.getFile());
+                    segment = null;
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.error("Message spool drainer failed: " + e.getMessage(), e);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryMaxMillis));
+            }
+        }
+    }
+
+    /**
+     * Forwards every record of the batch, retrying the ones that failed transiently until they succeed. Records that
+     * fail for any other reason, such as a queue or topic that does not exist, are logged and dropped.
+     */
+    private void forward(List<SpoolRecord> batch) throws InterruptedException {
+        List<SpoolRecord> remaining = batch;
+        long backoff = retryMinMillis;
+        while (true) {
+            List<CompletableFuture<String>> futures = new ArrayList<>(remaining.size());
+            for (SpoolRecord record : remaining) {
+                futures.add(send(record));
+            }
+            List<SpoolRecord> failed = new ArrayList<>();
+            for (int i = 0; i < remaining.size(); i++) {
+                try {
+                    futures.get(i).join();
+                    forwarded.increment();
+                } catch (CompletionException e) {
+                    if (SpoolingProducer.isTransient(e.getCause())) {
+                        failed.add(remaining.get(i));
+                    } else {
+                        dropped.increment();
+                        log.error("Dropping spooled message for " + remaining.get(i).getDestination() + ": "
+                                + SpoolingProducer.describe(e.getCause()));
+                    }
+                }
+            }
+            backlog.addAndGet(failed.size() - remaining.size());
+            if (failed.isEmpty()) {
+                return;
+            }
+            if (!running) {
+                throw new InterruptedException();
+            }
+            log.warn("Forwarding " + failed.size() + " spooled messages failed, retrying in " + backoff + "ms.");
+            Thread.sleep(backoff);
+            backoff = Math.min(backoff * 2, retryMaxMillis);
+            remaining = failed;
+        }
+    }
+
+    private CompletableFuture<String> send(SpoolRecord record) {
+        try {
+            return record.getKind() == SpoolRecord.Kind.QUEUE
+                    ? sqsService.sendMessageAsync(record.getDestination(), record.getBody(), record.getGroupId(),
+                    record.getDeduplicationId())
+                    : snsService.publishAsync(record.getDestination(), record.getSubject(), record.getBody());
+        } catch (RuntimeException e) {
+            // not retried unless it is a transient AWS failure, so one bad record cannot hold up the rest
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    /**
+     * Opens the segments left by a previous run, deleting the ones the checkpoint shows were fully forwarded.
+     */
+    private void recover() throws IOException {
+        Path checkpointFile = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpointFile)) {
+            String[] checkpoint = new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).trim().split(":");
+            checkpointSequence = Long.parseLong(checkpoint[0]);
+            checkpointPosition = Integer.parseInt(checkpoint[1]);
+        }
+        SortedMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        for (Map.Entry<Long, Path> file : files.entrySet()) {
+            if (file.getKey() < checkpointSequence) {
+                Files.delete(file.getValue());
+                continue;
+            }
+            SpoolSegment segment = SpoolSegment.open(file.getKey(), file.getValue());
+            segments.addLast(segment);
+            backlog.addAndGet(segment.countRecords(file.getKey() == checkpointSequence ? checkpointPosition : 0));
+        }
+        nextSequence = files.isEmpty() ? checkpointSequence : files.lastKey() + 1;
+    }
+
+    private void roll() {
+        long sequence = nextSequence++;
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        try {
+            active = SpoolSegment.create(sequence, file, segmentBytes);
+            segments.addLast(active);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create spool segment " + file, e);
+        }
+    }
+
+    private void checkpoint(long sequence, int position) throws IOException {
+        Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.write(temporary, (sequence + ":" + position).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static final class Commit {
+        private final SpoolSegment segment;
+        private final int position;
+        private final CompletableFuture<String> future;
+
+        Commit(SpoolSegment segment, int position, CompletableFuture<String> future) {
+            this.segment = segment;
+            this.position = position;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.zuildorf.service.spool;
+
+/**
+ * What became of a produced message: either it was accepted by SQS or SNS, and the id is the AWS message id, or it was
+ * written to the spool to be forwarded later, and the id is its position in the spool.
+ */
+public final class SendReceipt {
+    private final String id;
+    private final boolean spooled;
+
+    private SendReceipt(String id, boolean spooled) {
+        this.id = id;
+        this.spooled = spooled;
+    }
+
+    static SendReceipt sent(String messageId) {
+        return new SendReceipt(messageId, false);
+    }
+
+    static SendReceipt spooled(String spoolId) {
+        return new SendReceipt(spoolId, true);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public boolean isSpooled() {
+        return spooled;
+    }
+
+    @Override
+    public String toString() {
+        return spooled ? "spooled " + id : id;
+    }
+}
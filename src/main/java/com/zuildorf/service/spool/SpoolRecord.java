@@ -0,0 +1,105 @@
+package com.zuildorf.service.spool;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A message waiting in the spool: where it goes and what the producer was asked to send, before the codec is applied.
+ */
+final class SpoolRecord {
+    enum Kind {QUEUE, TOPIC}
+
+    private final Kind kind;
+    private final String destination;
+    private final String subject;
+    private final String body;
+    private final String groupId;
+    private final String deduplicationId;
+
+    private SpoolRecord(Kind kind, String destination, String subject, String body, String groupId, String deduplicationId) {
+        this.kind = kind;
+        this.destination = destination;
+        this.subject = subject;
+        this.body = body;
+        this.groupId = groupId;
+        this.deduplicationId = deduplicationId;
+    }
+
+    static SpoolRecord forQueue(String queue, String body, String groupId, String deduplicationId) {
+        return new SpoolRecord(Kind.QUEUE, queue, null, body, groupId, deduplicationId);
+    }
+
+    static SpoolRecord forTopic(String topic, String subject, String body) {
+        return new SpoolRecord(Kind.TOPIC, topic, subject, body, null, null);
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    String getDestination() {
+        return destination;
+    }
+
+    String getSubject() {
+        return subject;
+    }
+
+    String getBody() {
+        return body;
+    }
+
+    String getGroupId() {
+        return groupId;
+    }
+
+    String getDeduplicationId() {
+        return deduplicationId;
+    }
+
+    byte[] encode() {
+        byte[][] fields = {utf8(destination), utf8(subject), utf8(body), utf8(groupId), utf8(deduplicationId)};
+        int size = 1;
+        for (byte[] field : fields) {
+            size += 4 + (field == null ? 0 : field.length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put((byte) kind.ordinal());
+        for (byte[] field : fields) {
+            if (field == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(field.length).put(field);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Records spooled before FIFO support end after the body; their group and deduplication ids read as null.
+     */
+    static SpoolRecord decode(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        Kind kind = Kind.values()[buffer.get()];
+        return new SpoolRecord(kind, getString(buffer), getString(buffer), getString(buffer), getOptionalString(buffer),
+                getOptionalString(buffer));
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String getOptionalString(ByteBuffer buffer) {
+        return buffer.hasRemaining() ? getString(buffer) : null;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
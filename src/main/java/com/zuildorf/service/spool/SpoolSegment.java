@@ -0,0 +1,147 @@
+package com.zuildorf.service.spool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed-size, append-only log of records in a memory-mapped file. Each record is its payload length, the CRC32 of
+ * the payload and the payload; the zero-filled remainder of the file marks the end. Only the spool appends, under its
+ * own lock, and readers see a record once the spool has forced it to disk and committed its position. When an existing
+ * file is opened the records are read up to the first one that is incomplete or corrupt, and the segment is sealed.
+ */
+final class SpoolSegment {
+    static final int RECORD_HEADER_BYTES = 8;
+
+    private final long sequence;
+    private final Path file;
+    private final MappedByteBuffer log;
+    private int writePosition;
+    private volatile int committed;
+    private volatile boolean sealed;
+
+    private SpoolSegment(long sequence, Path file, MappedByteBuffer log) {
+        this.sequence = sequence;
+        this.file = file;
+        this.log = log;
+    }
+
+    static SpoolSegment create(long sequence, Path file, int capacity) throws IOException {
+        return new SpoolSegment(sequence, file, map(file, capacity));
+    }
+
+    static SpoolSegment open(long sequence, Path file) throws IOException {
+        SpoolSegment segment = new SpoolSegment(sequence, file, map(file, Files.size(file)));
+        int position = 0;
+        while (segment.payloadAt(position) != null) {
+            position += RECORD_HEADER_BYTES + segment.log.getInt(position);
+        }
+        segment.writePosition = position;
+        segment.committed = position;
+        segment.sealed = true;
+        return segment;
+    }
+
+    boolean hasRoom(int payloadBytes) {
+        return !sealed && (long) writePosition + RECORD_HEADER_BYTES + payloadBytes <= log.capacity();
+    }
+
+    /**
+     * @return the position after the record
+     */
+    int append(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer target = log.duplicate();
+        target.position(writePosition);
+        target.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        writePosition = target.position();
+        return writePosition;
+    }
+
+    void force() {
+        log.force();
+    }
+
+    /**
+     * Makes the records up to the position visible to readers, once they have been forced to disk.
+     */
+    void commit(int position) {
+        if (position > committed) {
+            committed = position;
+        }
+    }
+
+    void seal() {
+        sealed = true;
+    }
+
+    /**
+     * @return the payload of the committed record at the position, or null if there is none (yet)
+     */
+    byte[] read(int position) {
+        return position < committed ? payloadAt(position) : null;
+    }
+
+    static int next(int position, byte[] payload) {
+        return position + RECORD_HEADER_BYTES + payload.length;
+    }
+
+    /**
+     * @return whether the segment is sealed and every record before the position has been read
+     */
+    boolean isExhausted(int position) {
+        return sealed && position >= committed && committed == writePosition;
+    }
+
+    int countRecords(int fromPosition) {
+        int count = 0;
+        byte[] payload;
+        for (int position = fromPosition; (payload = read(position)) != null; position = next(position, payload)) {
+            count++;
+        }
+        return count;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    int getCapacity() {
+        return log.capacity();
+    }
+
+    private byte[] payloadAt(int position) {
+        if (position < 0 || position + RECORD_HEADER_BYTES > log.capacity()) {
+            return null;
+        }
+        int length = log.getInt(position);
+        if (length <= 0 || length > log.capacity() - position - RECORD_HEADER_BYTES) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer source = log.duplicate();
+        source.position(position + RECORD_HEADER_BYTES);
+        source.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == log.getInt(position + 4) ? payload : null;
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.zuildorf.service.spool;
+
+import com.amazonaws.AmazonClientException;
+import com.zuildorf.error.AwsApiException;
+import com.zuildorf.service.aws.api.SNSService;
+import com.zuildorf.service.aws.api.SQSService;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * The producer used by request handlers. Depending on {@code spool.mode} messages are sent straight to SQS and SNS
+ * (off), written to the {@link MessageSpool} and forwarded from there (always), or sent straight unless that fails
+ * transiently, in which case they are spooled (fallback). In fallback mode messages are also spooled while earlier
+ * ones are still waiting in the spool, so they are not sent ahead of them and do not wait on an AWS outage first.
+ */
+@Component
+public class SpoolingProducer {
+    public enum Mode {OFF, FALLBACK, ALWAYS}
+
+    private Logger log = Logger.getLogger(SpoolingProducer.class);
+    private final SQSService sqsService;
+    private final SNSService snsService;
+    private final MessageSpool spool;
+    private final Mode mode;
+
+    @Autowired
+    public SpoolingProducer(SQSService sqsService,
+                            SNSService snsService,
+                            Optional<MessageSpool> spool,
+                            @Value("${spool.mode}") String mode) {
+        this.sqsService = sqsService;
+        this.snsService = snsService;
+        this.spool = spool.orElse(null);
+        this.mode = Mode.valueOf(mode.trim().toUpperCase());
+    }
+
+    public CompletableFuture<SendReceipt> sendMessageAsync(String queue, String message) {
+        return sendMessageAsync(queue, message, null, null);
+    }
+
+    /**
+     * @see SQSService#sendMessageAsync(String, String, String, String)
+     */
+    public CompletableFuture<SendReceipt> sendMessageAsync(String queue, String message, String groupId,
+                                                           String deduplicationId) {
+        return produce(() -> SpoolRecord.forQueue(queue, message, groupId, deduplicationId),
+                () -> sqsService.sendMessageAsync(queue, message, groupId, deduplicationId));
+    }
+
+    public CompletableFuture<SendReceipt> publishAsync(String topic, String subject, String message) {
+        return produce(() -> SpoolRecord.forTopic(topic, subject, message), () -> snsService.publishAsync(topic, subject, message));
+    }
+
+    public SendReceipt sendMessage(String queue, String message, String groupId, String deduplicationId)
+            throws AwsApiException {
+        try {
+            return sendMessageAsync(queue, message, groupId, deduplicationId).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof AwsApiException) {
+                throw (AwsApiException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    private CompletableFuture<SendReceipt> produce(Supplier<SpoolRecord> record, Supplier<CompletableFuture<String>> send) {
+        if (mode == Mode.OFF) {
+            return start(send).thenApply(SendReceipt::sent);
+        }
+        if (mode == Mode.ALWAYS || spool.isBacklogged()) {
+            return spool.append(record.get()).thenApply(SendReceipt::spooled);
+        }
+        CompletableFuture<SendReceipt> result = new CompletableFuture<>();
+        start(send).whenComplete((messageId, error) -> {
+            if (error == null) {
+                result.complete(SendReceipt.sent(messageId));
+            } else if (isTransient(error)) {
+                log.warn("Spooling message after a failed send: " + describe(error));
+                spool.append(record.get()).whenComplete((spoolId, spoolError) -> {
+                    if (spoolError == null) {
+                        result.complete(SendReceipt.spooled(spoolId));
+                    } else {
+                        result.completeExceptionally(unwrap(spoolError));
+                    }
+                });
+            } else {
+                result.completeExceptionally(unwrap(error));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Turns a send that fails before returning its future, such as a queue name lookup that cannot reach AWS, into a
+     * failed future, so it is spooled like any other failed send.
+     */
+    private static CompletableFuture<String> start(Supplier<CompletableFuture<String>> send) {
+        try {
+            return send.get();
+        } catch (RuntimeException e) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(e instanceof AmazonClientException ? new AwsApiException(503, e) : e);
+            return future;
+        }
+    }
+
+    /**
+     * @return whether the failure is throttling, a server error or a client-side error that may go away on its own
+     */
+    static boolean isTransient(Throwable error) {
+        Throwable cause = unwrap(error);
+        if (!(cause instanceof AwsApiException)) {
+            return false;
+        }
+        int status = ((AwsApiException) cause).getStatusCode();
+        return status == 429 || status >= 500;
+    }
+
+    static String describe(Throwable error) {
+        Throwable cause = unwrap(error);
+        if (cause instanceof AwsApiException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage();
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}